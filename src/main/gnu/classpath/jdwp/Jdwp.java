@@ -39,17 +39,24 @@ exception statement from your version. */
 package gnu.classpath.jdwp;
 
 import gnu.classpath.jdwp.processor.PacketProcessor;
+import gnu.classpath.jdwp.transport.EventCoalescer;
+import gnu.classpath.jdwp.transport.EventSender;
 import gnu.classpath.jdwp.transport.ITransport;
 import gnu.classpath.jdwp.transport.JdwpConnection;
+import gnu.classpath.jdwp.transport.JdwpPacket;
 import gnu.classpath.jdwp.transport.TransportException;
 import gnu.classpath.jdwp.transport.TransportFactory;
 import gov.nasa.jpf.JPF.ExitException;
+import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPFException;
 import gov.nasa.jpf.jdwp.VirtualMachine;
 import gov.nasa.jpf.jdwp.event.Event;
 import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
 import gov.nasa.jpf.jdwp.event.EventRequestManager;
 import gov.nasa.jpf.jdwp.event.VmStartEvent;
+import gov.nasa.jpf.jdwp.stats.AgentStatistics;
+import gov.nasa.jpf.jdwp.stats.CommandStatistics;
+import gov.nasa.jpf.jdwp.stats.LockStatistics;
 
 import java.io.IOException;
 import java.security.AccessController;
@@ -96,6 +103,16 @@ public class Jdwp extends Thread {
   // Connection to debugger
   private JdwpConnection _connection;
 
+  // Writes the events asynchronously (null if events are written by the JPF
+  // thread)
+  private EventSender _eventSender;
+
+  // Merges the events that suspend nothing (null if not configured)
+  private EventCoalescer _eventCoalescer;
+
+  // Publishes the statistics (null if not enabled)
+  private AgentStatistics _statistics;
+
   // Are we shutting down the current session?
   private boolean _shutdown;
 
@@ -221,8 +238,45 @@ public class Jdwp extends Thread {
     _connection.setDaemon(true);
     _connection.start();
 
+    // Create the event sender if configured
+    Config config = vm.getJpf().getConfig();
+    if (config.getBoolean("jpf-jdwp.events.async", false)) {
+      _eventSender = new EventSender(_group, _connection, config.getInt("jpf-jdwp.events.queue", 1024), config.getBoolean(
+          "jpf-jdwp.events.dropOnOverflow", false));
+      _eventSender.start();
+    }
+
+    // Create the event coalescer if configured
+    int coalesceMaxEvents = config.getInt("jpf-jdwp.events.coalesce.maxEvents", 1);
+    if (coalesceMaxEvents > 1) {
+      _eventCoalescer = new EventCoalescer(_group, new EventCoalescer.PacketSink() {
+        @Override
+        public void send(JdwpPacket packet, boolean suspending) throws IOException {
+          _sendEventPacket(packet, suspending);
+        }
+      }, coalesceMaxEvents, config.getLong("jpf-jdwp.events.coalesce.maxDelayMicros", 1000));
+    }
+
+    // Patch the breakpoint sites if configured
+    eventRequestManager.setPatchingBreakpoints(config.getBoolean("jpf-jdwp.breakpoints.patch", false));
+
+    // Collect the statistics if configured
+    if (config.getBoolean("jpf-jdwp.stats.enabled", false)) {
+      LockStatistics lockStatistics = new LockStatistics();
+      vm.getRunLock().setStatistics(lockStatistics);
+      _statistics = new AgentStatistics(CommandStatistics.enable(), lockStatistics, _connection, _eventSender);
+      if (config.getBoolean("jpf-jdwp.stats.jmx", true)) {
+        _statistics.register();
+      }
+      long dumpInterval = config.getLong("jpf-jdwp.stats.dumpInterval", 0);
+      if (dumpInterval > 0) {
+        _statistics.startDumping(dumpInterval);
+      }
+    }
+
     // Create processor
-    _packetProcessor = new PacketProcessor(_connection);
+    _packetProcessor = new PacketProcessor(_connection, config.getInt("jpf-jdwp.commands.workers", 1), config.getBoolean(
+        "jpf-jdwp.commands.threadPerCommand", false));
     _ppThread = new Thread(_group, new Runnable() {
       public void run() {
         AccessController.doPrivileged(_packetProcessor);
@@ -241,8 +295,17 @@ public class Jdwp extends Thread {
   public void shutdown() {
     if (!_shutdown) {
       _packetProcessor.shutdown();
-      _ppThread.interrupt();
+      if (_eventCoalescer != null) {
+        _eventCoalescer.shutdown();
+      }
+      if (_eventSender != null) {
+        _eventSender.shutdown();
+      }
+      // wakes the packet processor up by a poison pill
       _connection.shutdown();
+      if (_statistics != null) {
+        _statistics.shutdown();
+      }
       _shutdown = true;
       isDebugging = false;
 
@@ -293,6 +356,10 @@ public class Jdwp extends Thread {
    *          the event to report
    */
   public static void notify(Event event) {
+    if (eventRequestManager.eventRequestCount(event.getEventKind()) == 0) {
+      // nothing can match
+      return;
+    }
     SuspendPolicy resultSuspendPolicy = SuspendPolicy.NONE;
     List<Event> matchedEvents = new LinkedList<Event>();
 
@@ -304,6 +371,22 @@ public class Jdwp extends Thread {
     }
   }
 
+  /**
+   * Notify the debugger of events that were already matched against the event
+   * requests.
+   * 
+   * @param matchedEvents
+   *          the events with their matching requests
+   * @param suspendPolicy
+   *          the most restrictive suspend policy of the matching requests
+   */
+  public static void notifyMatched(List<Event> matchedEvents, SuspendPolicy suspendPolicy) {
+    Jdwp jdwp = getDefault();
+    if (jdwp != null) {
+      jdwp.sendEventsAndDoSuspend(matchedEvents, suspendPolicy);
+    }
+  }
+
   private void sendEventsAndDoSuspend(List<Event> events, SuspendPolicy resultSuspendPolicy) {
     if (events.size() > 0) {
       try {
@@ -346,14 +429,65 @@ public class Jdwp extends Thread {
           // put it into a queue
           holdEventsList.add(new HoldEvents(events, suspendPolicy));
         } else {
-          synchronized (_connection) {
-            _connection.sendEvents(events, suspendPolicy);
-          }
+          _sendEvents(events, suspendPolicy);
         }
       }
     }
   }
 
+  /*
+   * Writes the events to the debugger. The events that suspend nothing may be
+   * merged with other such events by the coalescer.
+   */
+  private void _sendEvents(List<Event> events, SuspendPolicy suspendPolicy) throws IOException {
+    if (_eventCoalescer != null) {
+      if (suspendPolicy == SuspendPolicy.NONE) {
+        _eventCoalescer.add(events);
+      } else {
+        _eventCoalescer.sendInOrder(_connection.createEventPacket(events, suspendPolicy));
+      }
+      return;
+    }
+    _sendEventPacket(_connection.createEventPacket(events, suspendPolicy), suspendPolicy != SuspendPolicy.NONE);
+  }
+
+  /*
+   * Writes the event packet to the debugger. If the events are written
+   * asynchronously, the packets of the events that suspend nothing are just
+   * handed over to the event sender while the suspending ones wait until
+   * they're written.
+   */
+  private void _sendEventPacket(JdwpPacket packet, boolean suspending) throws IOException {
+    if (_eventSender != null) {
+      _eventSender.send(packet, suspending);
+    } else {
+      synchronized (_connection) {
+        _connection.sendPacket(packet);
+      }
+    }
+  }
+
+  /**
+   * The sender that writes the events asynchronously.
+   * 
+   * @return The event sender or <code>null</code> if the events are written
+   *         synchronously (<tt>jpf-jdwp.events.async=false</tt>).
+   */
+  public EventSender getEventSender() {
+    return _eventSender;
+  }
+
+  /**
+   * The coalescer that merges the events that suspend nothing.
+   * 
+   * @return The coalescer or <code>null</code> if the events are not merged
+   *         (<tt>jpf-jdwp.events.coalesce.maxEvents</tt> is not greater than
+   *         1).
+   */
+  public EventCoalescer getEventCoalescer() {
+    return _eventCoalescer;
+  }
+
   private static class HoldEvents {
     private List<Event> events;
     private SuspendPolicy suspendPolicy;
@@ -378,13 +512,11 @@ public class Jdwp extends Thread {
     synchronized (holdEventsList) {
       holdEvents = false;
       for (HoldEvents holdEvents : holdEventsList) {
-        synchronized (_connection) {
-          try {
-            _connection.sendEvents(holdEvents.events, holdEvents.suspendPolicy);
-          } catch (IOException e) {
-            // we're ok with any io exception
-            // let's try to continue
-          }
+        try {
+          _sendEvents(holdEvents.events, holdEvents.suspendPolicy);
+        } catch (IOException e) {
+          // we're ok with any io exception
+          // let's try to continue
         }
       }
     }
@@ -43,15 +43,22 @@ import gnu.classpath.jdwp.Jdwp;
 import gnu.classpath.jdwp.transport.JdwpCommandPacket;
 import gnu.classpath.jdwp.transport.JdwpConnection;
 import gnu.classpath.jdwp.transport.JdwpPacket;
-import gnu.classpath.jdwp.transport.JdwpReplyPacket;
+import gnu.classpath.jdwp.transport.ReplyWriter;
+import gov.nasa.jpf.jdwp.command.Command;
 import gov.nasa.jpf.jdwp.command.CommandContextProvider;
+import gov.nasa.jpf.jdwp.command.CommandSet;
+import gov.nasa.jpf.jdwp.exception.JdwpException;
 import gov.nasa.jpf.jdwp.id.JdwpIdManager;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.PrivilegedAction;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +69,26 @@ import org.slf4j.LoggerFactory;
  * {@link gnu.classpath.jdwp.transport.JdwpConnection}) and then processes the
  * packet and any reply.
  * 
+ * <p>
+ * The packets may be processed by several workers or each command by its own
+ * (virtual if the runtime supports them) thread. Then the read-only commands
+ * (see {@link CommandSet#isReadOnly(Command)}) run in parallel, yet any other
+ * command waits for all the commands received before it to finish and the
+ * commands received after it wait for it to finish. The urgent commands (see
+ * {@link CommandSet#isUrgent(Command)}) hold no place in this order; they
+ * wait just for the mutating command that runs when they are received (and
+ * for the run lock) so that a debugger can suspend the VM or poll the thread
+ * status while a long read-only command runs.
+ * </p>
+ * 
+ * <p>
+ * Every reply keeps the id of its command and is written to the connection as
+ * a whole. The replies are sent as the commands finish, not in the order the
+ * commands were received; the debugger matches them by id, and putting them
+ * back in order would hold the reply to a suspension behind a slow command
+ * again.
+ * </p>
+ * 
  * @author Keith Seitz (keiths@redhat.com)
  */
 public class PacketProcessor implements PrivilegedAction {
@@ -71,13 +98,24 @@ public class PacketProcessor implements PrivilegedAction {
   private JdwpConnection _connection;
 
   // Shutdown this thread?
-  private boolean _shutdown;
+  private volatile boolean _shutdown;
+
+  // The number of threads processing the packets
+  private final int _workers;
+
+  // Runs every command in its own thread (null unless configured)
+  private final ExecutorService _executor;
+
+  // Taken to get the packets in the order they were received
+  private final Object _takeLock = new Object();
 
-  // Contents of the ReplyPackets data field
-  private ByteArrayOutputStream _outputBytes;
+  // The most commands that run at once; a mutating command takes all the
+  // permits while the read-only ones take just one and the urgent ones none
+  private static final int _MAX_RUNNING_COMMANDS = 1 << 16;
 
-  // Output stream around _outputBytes
-  private DataOutputStream _os;
+  // Acquired in the order the commands were received and released once
+  // the command finishes (possibly by another thread)
+  private final Semaphore _commandOrder = new Semaphore(_MAX_RUNNING_COMMANDS);
 
   /**
    * Constructs a new <code>PacketProcessor</code> object Connection must be
@@ -87,15 +125,30 @@ public class PacketProcessor implements PrivilegedAction {
    *          the connection
    */
   public PacketProcessor(JdwpConnection con) {
+    this(con, 1, false);
+  }
+
+  /**
+   * Constructs a new <code>PacketProcessor</code> object that processes the
+   * packets by the given number of threads or every command by its own
+   * thread.
+   * 
+   * @param con
+   *          the connection
+   * @param workers
+   *          the number of threads processing the packets (including the one
+   *          that runs this processor)
+   * @param threadPerCommand
+   *          whether every command runs in its own thread (virtual if
+   *          supported); <tt>workers</tt> are ignored then
+   */
+  public PacketProcessor(JdwpConnection con, int workers, boolean threadPerCommand) {
     _connection = con;
     _shutdown = false;
+    _workers = Math.max(1, workers);
+    _executor = threadPerCommand ? _newCommandExecutor() : null;
 
     ccp = new CommandContextProvider(con.getVm(), JdwpIdManager.getInstance());
-
-    // MAXIMUM is the value of the largest command set we may receive
-    _outputBytes = new ByteArrayOutputStream();
-    _os = new DataOutputStream(_outputBytes);
-
   }
 
   /**
@@ -103,15 +156,43 @@ public class PacketProcessor implements PrivilegedAction {
    * connection and processing them.
    */
   public Object run() {
+    for (int i = 1; _executor == null && i < _workers; ++i) {
+      Thread worker = new Thread(Thread.currentThread().getThreadGroup(), new Runnable() {
+        public void run() {
+          _processPackets();
+          // a worker that gives up brings the others down too
+          Jdwp.getDefault().shutdown();
+        }
+      }, "packet processor " + i);
+      worker.setDaemon(true);
+      worker.start();
+    }
+
     // Notify initialization thread (gnu.classpath.jdwp.Jdwp) that
     // the PacketProcessor thread is ready.
     Jdwp.getDefault().subcomponentInitialized();
 
+    if (_executor != null) {
+      dispatchPackets();
+    } else {
+      _processPackets();
+    }
+
+    // Time to shutdown, tell Jdwp to shutdown
+    Jdwp.getDefault().shutdown();
+    return null;
+  }
+
+  // Processes the packets until shutdown
+  private void _processPackets() {
+    // Serializes the replies of this worker
+    ReplyWriter replyWriter = new ReplyWriter();
+
     try {
       int ioErrorCounter = 10;
       while (!_shutdown) {
         try {
-          _processOnePacket();
+          _processOnePacket(replyWriter);
         } catch (IOException e) {
           if (_shutdown) {
             // normally when the debugger disconnects we end here
@@ -128,9 +209,49 @@ public class PacketProcessor implements PrivilegedAction {
     } catch (Exception ex) {
       logger.error("Fatal error occurred while processing JDWP commands.", ex);
     }
-    // Time to shutdown, tell Jdwp to shutdown
-    Jdwp.getDefault().shutdown();
-    return null;
+  }
+
+  /**
+   * Hands every command over to its own thread until shutdown. Used instead of
+   * the workers if every command runs in its own thread.
+   */
+  void dispatchPackets() {
+    try {
+      while (!_shutdown) {
+        final JdwpCommandPacket commandPkt = _takeCommand();
+        if (commandPkt == null) {
+          continue;
+        }
+
+        try {
+          _executor.execute(new Runnable() {
+            public void run() {
+              Command command = commandPkt.getCommand();
+              try {
+                _processCommand(commandPkt, new ReplyWriter());
+              } catch (IOException e) {
+                if (!_shutdown) {
+                  logger.warn("The reply to command {} was not sent: {}", command, e.getMessage());
+                }
+              } catch (RuntimeException | Error e) {
+                logger.error("Fatal error occurred while processing JDWP commands.", e);
+                Jdwp.getDefault().shutdown();
+              } finally {
+                _commandOrder.release(_permits(command));
+              }
+            }
+          });
+        } catch (RuntimeException | Error e) {
+          // the command never runs, so nobody else releases its permits
+          _commandOrder.release(_permits(commandPkt.getCommand()));
+          commandPkt.release();
+          logger.error("Fatal error occurred while dispatching JDWP commands.", e);
+          break;
+        }
+      }
+    } finally {
+      _executor.shutdown();
+    }
   }
 
   private CommandContextProvider ccp;
@@ -144,43 +265,129 @@ public class PacketProcessor implements PrivilegedAction {
 
   // Helper function which actually does all the work of waiting
   // for a packet and getting it processed.
-  private void _processOnePacket() throws IOException {
-    JdwpPacket pkt = _connection.getPacket();
-
-    if (!(pkt instanceof JdwpCommandPacket)) {
-      // We're not supposed to get these from the debugger!
-      // Drop it on the floor
+  private void _processOnePacket(ReplyWriter replyWriter) throws IOException {
+    JdwpCommandPacket commandPkt = _takeCommand();
+    if (commandPkt == null) {
       return;
     }
 
-    if (pkt != null) {
-      JdwpCommandPacket commandPkt = (JdwpCommandPacket) pkt;
-      JdwpReplyPacket reply = new JdwpReplyPacket(commandPkt);
-
-      // Reset our output stream
-      _outputBytes.reset();
-
-      // Create a ByteBuffer around the command packet
-      ByteBuffer bb = ByteBuffer.wrap(commandPkt.getData());
-
-      try {
-        gov.nasa.jpf.jdwp.command.CommandSet.execute(commandPkt.getCommand(), bb, _os, ccp);
-        reply.setData(_outputBytes.toByteArray());
-      } catch (gov.nasa.jpf.jdwp.exception.VmDeadException e) {
-        logger.debug("VM is dead. Will send VM_DEAD error code...", e);
-        reply.setErrorCode(e.getErrorType().identifier());
-      } catch (gov.nasa.jpf.jdwp.exception.JdwpException e) {
-        logger.info("Command {} returns an error", commandPkt.getCommand(), e);
-        reply.setErrorCode(e.getErrorType().identifier());
-      } catch (RuntimeException e) {
-        e.printStackTrace();
-        throw e;
-      } catch (Error e) {
-        e.printStackTrace();
-        throw e;
+    try {
+      _processCommand(commandPkt, replyWriter);
+    } finally {
+      _commandOrder.release(_permits(commandPkt.getCommand()));
+    }
+  }
+
+  // Waits for a command packet and for its turn to run; returns null if there
+  // is no command to run
+  private JdwpCommandPacket _takeCommand() {
+    JdwpPacket pkt;
+
+    synchronized (_takeLock) {
+      pkt = _connection.getPacket();
+      if (pkt instanceof JdwpCommandPacket) {
+        Command command = ((JdwpCommandPacket) pkt).getCommand();
+        if (CommandSet.isUrgent(command)) {
+          // passes once the running mutating command (if any) finishes yet
+          // holds no permit so that it doesn't wait for anything else
+          _commandOrder.acquireUninterruptibly();
+          _commandOrder.release();
+        } else {
+          // acquired while no other thread can get a packet so that a
+          // mutating command waits just for the commands received before it
+          _commandOrder.acquireUninterruptibly(_permits(command));
+        }
+        return (JdwpCommandPacket) pkt;
       }
+    }
+
+    // We're not supposed to get these from the debugger!
+    // Drop it on the floor
+    if (pkt != null) {
+      pkt.release();
+    }
+    return null;
+  }
+
+  private static int _permits(Command command) {
+    if (CommandSet.isUrgent(command)) {
+      return 0;
+    }
+    return CommandSet.isReadOnly(command) ? 1 : _MAX_RUNNING_COMMANDS;
+  }
 
-      _connection.sendPacket(reply);
+  private void _processCommand(JdwpCommandPacket commandPkt, ReplyWriter replyWriter) throws IOException {
+    // The reply is written right behind its header
+    DataOutputStream os = replyWriter.begin(commandPkt);
+
+    // The command data, possibly still in the transport buffer
+    ByteBuffer bb = commandPkt.getDataBuffer();
+
+    try {
+      executeCommand(commandPkt.getCommand(), bb, os);
+    } catch (gov.nasa.jpf.jdwp.exception.VmDeadException e) {
+      logger.debug("VM is dead. Will send VM_DEAD error code...", e);
+      replyWriter.setError(e.getErrorType().identifier());
+    } catch (gov.nasa.jpf.jdwp.exception.JdwpException e) {
+      logger.info("Command {} returns an error", commandPkt.getCommand(), e);
+      replyWriter.setError(e.getErrorType().identifier());
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      throw e;
+    } catch (Error e) {
+      e.printStackTrace();
+      throw e;
+    } finally {
+      commandPkt.release();
     }
+
+    _connection.sendBuffer(replyWriter.finish());
+  }
+
+  /**
+   * Executes the command once it's its turn to run.
+   * 
+   * @param command
+   *          The command.
+   * @param bb
+   *          The command data.
+   * @param os
+   *          The stream the reply data are written to.
+   * @throws IOException
+   *           If the reply cannot be written.
+   * @throws JdwpException
+   *           If the command fails.
+   */
+  void executeCommand(Command command, ByteBuffer bb, DataOutputStream os) throws IOException, JdwpException {
+    CommandSet.execute(command, bb, os, ccp);
+  }
+
+  /**
+   * Creates the executor that runs every command in a new virtual thread if
+   * the runtime supports them (it's looked up reflectively so that the agent
+   * still runs on older runtimes) or in a platform thread otherwise.
+   * 
+   * @return The executor.
+   */
+  private static ExecutorService _newCommandExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      logger.info("Virtual threads are not supported by this runtime; the commands run in platform threads");
+    } catch (ReflectiveOperationException e) {
+      logger.warn("Cannot create the virtual thread executor; the commands run in platform threads", e);
+    }
+
+    final ThreadGroup group = Thread.currentThread().getThreadGroup();
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(group, r, "command " + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
   }
 }
@@ -0,0 +1,165 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import gov.nasa.jpf.jdwp.command.Command;
+import gov.nasa.jpf.jdwp.command.CommandSet;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The debugger side of a transport that has no standard JDI connector.<br/>
+ * Tools attach to the agent through a subclass and then exchange whole JDWP
+ * packets with it.
+ * 
+ * <pre>
+ * int id = connector.sendCommand(CommandSet.VIRTUALMACHINE, VirtualMachineCommand.VERSION, new byte[0]);
+ * JdwpPacket reply = connector.readPacket();
+ * </pre>
+ * 
+ * Replies are read in the order the agent sends them and they may be
+ * interleaved with event packets.
+ * 
+ * @author stepan
+ * 
+ */
+public abstract class AbstractConnector implements Closeable {
+
+  // The JDWP handshake
+  private static final byte[] _HANDSHAKE = { 'J', 'D', 'W', 'P', '-', 'H', 'a', 'n', 'd', 's', 'h', 'a', 'k', 'e' };
+
+  private final DataInputStream _inStream;
+  private final OutputStream _outStream;
+
+  // A buffer where whole outgoing packets are assembled
+  private final PacketBuffer _packetBuffer = new PacketBuffer();
+
+  /**
+   * Creates the connector on top of the streams connected to the agent.
+   * 
+   * @param inputStream
+   *          The stream of data sent by the agent.
+   * @param outputStream
+   *          The stream of data sent to the agent.
+   */
+  protected AbstractConnector(InputStream inputStream, OutputStream outputStream) {
+    _inStream = new DataInputStream(inputStream);
+    _outStream = outputStream;
+  }
+
+  /**
+   * Performs the JDWP handshake; the connector is closed if it fails.
+   * 
+   * @throws IOException
+   *           If the handshake fails.
+   */
+  protected void _doHandshake() throws IOException {
+    try {
+      _outStream.write(_HANDSHAKE, 0, _HANDSHAKE.length);
+      _outStream.flush();
+
+      byte[] hshake = new byte[_HANDSHAKE.length];
+      _inStream.readFully(hshake);
+      if (!Arrays.equals(hshake, _HANDSHAKE)) {
+        throw new IOException("invalid JDWP handshake (\"" + new String(hshake, "US-ASCII") + "\")");
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Sends a command to the agent.
+   * 
+   * @param commandSet
+   *          The command set.
+   * @param command
+   *          The command.
+   * @param data
+   *          The command specific data.
+   * @return The id of the command packet; the reply carries the same id.
+   * @throws IOException
+   *           If the connection is closed.
+   */
+  public int sendCommand(CommandSet commandSet, Command command, byte[] data) throws IOException {
+    JdwpCommandPacket packet = new JdwpCommandPacket(commandSet, command);
+    packet.setData(data);
+    sendPacket(packet);
+    return packet.getId();
+  }
+
+  /**
+   * Sends a packet to the agent.
+   * 
+   * @param packet
+   *          The packet.
+   * @throws IOException
+   *           If the connection is closed.
+   */
+  public void sendPacket(JdwpPacket packet) throws IOException {
+    synchronized (_packetBuffer) {
+      _packetBuffer.reset();
+      packet.write(_packetBuffer.getDataOutputStream());
+      _packetBuffer.writeTo(_outStream);
+      _outStream.flush();
+    }
+  }
+
+  /**
+   * Reads the next packet sent by the agent. This is either a reply or an
+   * event (command) packet.
+   * 
+   * @return The packet or <code>null</code> if the packet was malformed.
+   * @throws IOException
+   *           If the connection is closed.
+   */
+  public JdwpPacket readPacket() throws IOException {
+    synchronized (_inStream) {
+      int length = _inStream.readInt();
+      if (length < 11) {
+        throw new IOException("JDWP packet length < 11 (" + length + ")");
+      }
+
+      byte[] data = new byte[length];
+      data[0] = (byte) (length >>> 24);
+      data[1] = (byte) (length >>> 16);
+      data[2] = (byte) (length >>> 8);
+      data[3] = (byte) length;
+      _inStream.readFully(data, 4, length - 4);
+
+      return JdwpPacket.fromBytes(data);
+    }
+  }
+
+  /**
+   * Detaches from the agent.
+   */
+  @Override
+  public abstract void close();
+}
@@ -0,0 +1,109 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers of the same size.<br/>
+ * Transports read the incoming data directly into these buffers so that no
+ * garbage is created per packet.
+ * <p>
+ * Buffers that are bigger than the chunk size are never pooled; they are heap
+ * buffers allocated on demand and left for the GC once released.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class ByteBufferPool {
+
+  private final int chunkSize;
+  private final int maxPooled;
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  /**
+   * Creates the pool.
+   * 
+   * @param chunkSize
+   *          The size of all the pooled buffers.
+   * @param maxPooled
+   *          The maximum number of buffers kept in the pool.
+   */
+  public ByteBufferPool(int chunkSize, int maxPooled) {
+    this.chunkSize = chunkSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * The size of the pooled buffers.
+   * 
+   * @return The chunk size.
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Gets a cleared buffer with at least the given capacity.
+   * 
+   * @param capacity
+   *          The required capacity.
+   * @return The buffer.
+   */
+  public ByteBuffer acquire(int capacity) {
+    if (capacity > chunkSize) {
+      return ByteBuffer.allocate(capacity);
+    }
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(chunkSize);
+    }
+    pooled.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns the buffer to the pool.<br/>
+   * The buffer must not be used by the caller anymore.
+   * 
+   * @param buffer
+   *          The buffer obtained by {@link ByteBufferPool#acquire(int)}.
+   */
+  public void release(ByteBuffer buffer) {
+    if (!buffer.isDirect() || buffer.capacity() != chunkSize) {
+      return;
+    }
+    if (pooled.incrementAndGet() > maxPooled) {
+      pooled.decrementAndGet();
+      return;
+    }
+    buffers.offer(buffer);
+  }
+}
@@ -0,0 +1,154 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stream adapters for blocking channels.
+ * <p>
+ * The streams returned by {@link java.nio.channels.Channels} synchronize on
+ * the blocking lock of a selectable channel, which means that a thread blocked
+ * in a read prevents any other thread from writing to the very same channel.
+ * That is unacceptable for JDWP where the connection thread is almost always
+ * blocked in a read while replies and events are being written. These adapters
+ * just delegate to the channel instead.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class ChannelStreams {
+
+  private ChannelStreams() {
+  }
+
+  /**
+   * Creates an input stream that reads from the given blocking channel.
+   * 
+   * @param channel
+   *          The channel.
+   * @return The input stream.
+   */
+  public static InputStream newInputStream(final ReadableByteChannel channel) {
+    return new InputStream() {
+
+      private final ByteBuffer single = ByteBuffer.allocate(1);
+
+      @Override
+      public int read() throws IOException {
+        single.clear();
+        int n = read(single);
+        return n < 0 ? -1 : single.get(0) & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        return read(ByteBuffer.wrap(b, off, len));
+      }
+
+      private int read(ByteBuffer buffer) throws IOException {
+        int n;
+        do {
+          n = channel.read(buffer);
+        } while (n == 0);
+        return n;
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  /**
+   * Creates an output stream that writes to the given blocking channel.
+   * 
+   * @param channel
+   *          The channel.
+   * @return The output stream.
+   */
+  public static OutputStream newOutputStream(final WritableByteChannel channel) {
+    return new OutputStream() {
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(b, off, len));
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  /**
+   * Writes all the remaining bytes of the buffer to the channel.
+   * 
+   * @param channel
+   *          The blocking channel.
+   * @param buffer
+   *          The buffer to write.
+   * @throws IOException
+   *           If an I/O error occurs.
+   */
+  public static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Reads from the channel until the buffer is full.
+   * 
+   * @param channel
+   *          The blocking channel.
+   * @param buffer
+   *          The buffer to read to.
+   * @throws IOException
+   *           If an I/O error occurs or the end of stream is reached.
+   */
+  public static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException();
+      }
+    }
+  }
+}
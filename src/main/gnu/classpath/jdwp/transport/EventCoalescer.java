@@ -0,0 +1,245 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import gov.nasa.jpf.jdwp.command.CommandSet;
+import gov.nasa.jpf.jdwp.command.EventCommand;
+import gov.nasa.jpf.jdwp.event.Event;
+import gov.nasa.jpf.jdwp.event.EventBase;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the events that suspend nothing into a single
+ * {@link EventCommand#COMPOSITE} packet instead of sending one packet per
+ * event.
+ * 
+ * <p>
+ * The events are serialized as they come and the packet is sent once
+ * <tt>maxEvents</tt> events are pending or the oldest pending event is older
+ * than <tt>maxDelay</tt> (checked by a timer thread). The pending events must
+ * be flushed before a suspending event is sent; that's done by
+ * {@link #sendInOrder(JdwpPacket)}.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class EventCoalescer implements Runnable {
+
+  final static Logger logger = LoggerFactory.getLogger(EventCoalescer.class);
+
+  /**
+   * Where the packets go.
+   */
+  public interface PacketSink {
+
+    /**
+     * Sends the packet to the debugger.
+     * 
+     * @param packet
+     *          The packet.
+     * @param suspending
+     *          Whether the packet contains suspending events.
+     * @throws IOException
+     *           If the packet cannot be sent.
+     */
+    void send(JdwpPacket packet, boolean suspending) throws IOException;
+  }
+
+  private final PacketSink sink;
+  private final int maxEvents;
+  private final long maxDelayNanos;
+
+  // The pending events
+  private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pendingStream = new DataOutputStream(pendingBytes);
+  private int pendingEvents = 0;
+  private long firstPendingNanos;
+
+  private boolean shutdown = false;
+  private Thread timer;
+
+  // Statistics
+  private long coalescedEvents = 0;
+  private long sentPackets = 0;
+
+  /**
+   * Creates the coalescer. A timer thread is started if the delay is positive.
+   * 
+   * @param group
+   *          The thread group of the timer thread.
+   * @param sink
+   *          Where the packets go.
+   * @param maxEvents
+   *          The maximum number of events in one packet.
+   * @param maxDelayMicros
+   *          How long an event may wait for other events; if not positive,
+   *          the events wait until <tt>maxEvents</tt> are pending or until a
+   *          suspending event comes.
+   */
+  public EventCoalescer(ThreadGroup group, PacketSink sink, int maxEvents, long maxDelayMicros) {
+    this.sink = sink;
+    this.maxEvents = maxEvents;
+    this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+
+    if (maxDelayNanos > 0) {
+      timer = new Thread(group, this, "JDWP event coalescer");
+      timer.setDaemon(true);
+      timer.start();
+    }
+  }
+
+  /**
+   * Adds non-suspending events to the pending packet. The events are
+   * serialized immediately.
+   * 
+   * @param events
+   *          The events.
+   * @throws IOException
+   *           If the packet is full and cannot be sent.
+   */
+  public synchronized void add(List<Event> events) throws IOException {
+    int added = EventBase.writeEvents(pendingStream, events, SuspendPolicy.NONE);
+    if (added == 0) {
+      return;
+    }
+    if (pendingEvents == 0) {
+      firstPendingNanos = System.nanoTime();
+      notifyAll();
+    }
+    pendingEvents += added;
+    coalescedEvents += added;
+
+    if (pendingEvents >= maxEvents) {
+      flush();
+    }
+  }
+
+  /**
+   * Sends the pending events (if any) followed by the given packet.
+   * 
+   * @param packet
+   *          A packet of suspending events.
+   * @throws IOException
+   *           If a packet cannot be sent.
+   */
+  public synchronized void sendInOrder(JdwpPacket packet) throws IOException {
+    flush();
+    sink.send(packet, true);
+  }
+
+  /**
+   * Sends the pending events, if any.
+   * 
+   * @throws IOException
+   *           If the packet cannot be sent.
+   */
+  public synchronized void flush() throws IOException {
+    if (pendingEvents == 0) {
+      return;
+    }
+
+    PacketBuffer data = new PacketBuffer(5 + pendingBytes.size());
+    DataOutputStream dos = data.getDataOutputStream();
+    dos.writeByte(SuspendPolicy.NONE.identifier());
+    dos.writeInt(pendingEvents);
+    pendingBytes.writeTo(dos);
+
+    pendingBytes.reset();
+    pendingEvents = 0;
+
+    JdwpPacket packet = new JdwpCommandPacket(CommandSet.EVENT, EventCommand.COMPOSITE);
+    packet.setData(data.toByteArray());
+    sink.send(packet, false);
+    ++sentPackets;
+  }
+
+  /**
+   * Flushes the events that waited too long.
+   */
+  public void run() {
+    synchronized (this) {
+      while (!shutdown) {
+        try {
+          if (pendingEvents == 0) {
+            wait();
+            continue;
+          }
+          long remaining = firstPendingNanos + maxDelayNanos - System.nanoTime();
+          if (remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            continue;
+          }
+          flush();
+        } catch (InterruptedException e) {
+          // check shutdown
+        } catch (IOException e) {
+          logger.warn("Cannot send the pending events to the debugger", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the pending events and stops the timer.
+   */
+  public synchronized void shutdown() {
+    if (shutdown) {
+      return;
+    }
+    shutdown = true;
+    notifyAll();
+    try {
+      flush();
+    } catch (IOException e) {
+      logger.debug("Cannot send the pending events on shutdown", e);
+    }
+  }
+
+  /**
+   * The number of events that were passed through the coalescer.
+   * 
+   * @return The number of non-suspending events.
+   */
+  public synchronized long getCoalescedEvents() {
+    return coalescedEvents;
+  }
+
+  /**
+   * The number of packets sent by the coalescer.
+   * 
+   * @return The number of packets.
+   */
+  public synchronized long getSentPackets() {
+    return sentPackets;
+  }
+}
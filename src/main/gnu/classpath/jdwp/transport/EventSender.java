@@ -0,0 +1,277 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import gov.nasa.jpf.jdwp.util.BoundedQueue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread that writes event packets to the debugger so that the JPF thread
+ * doesn't have to wait for a slow debugger.<br/>
+ * The events are still serialized on the JPF thread (the packet describes the
+ * state of the VM at the time the event occurred) and the packets are handed
+ * over to this thread through a bounded queue.
+ * 
+ * <p>
+ * Packets of events that don't suspend anything are just queued. If the queue
+ * is full, the sender either waits for room or, if configured so, the packet
+ * is dropped. Packets of suspending events wait until they are written so that
+ * the debugger is notified before the VM suspends. Since all the packets go
+ * through the same queue, the order of the events is always kept.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class EventSender extends Thread {
+
+  final static Logger logger = LoggerFactory.getLogger(EventSender.class);
+
+  private final JdwpConnection connection;
+  private final BoundedQueue<Entry> queue;
+  private final boolean dropOnOverflow;
+
+  private volatile boolean shutdown = false;
+
+  // The cause of the failure of the writer, if any
+  private volatile IOException failure;
+
+  // How often a thread waiting for its packet checks the sender is alive
+  private static final long _SHUTDOWN_CHECK_MILLIS = 100;
+
+  // Wakes up the writer on shutdown
+  private static final Entry POISON_PILL = new Entry(null, false);
+
+  // Statistics
+  private final AtomicLong sentPackets = new AtomicLong();
+  private final AtomicLong droppedPackets = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private volatile long maxLatencyNanos;
+
+  /**
+   * A packet waiting to be written.
+   */
+  private static class Entry {
+    final JdwpPacket packet;
+    final long enqueued = System.nanoTime();
+
+    // released once written (only if somebody waits for it)
+    final CountDownLatch written;
+    IOException error;
+
+    Entry(JdwpPacket packet, boolean wait) {
+      this.packet = packet;
+      this.written = wait ? new CountDownLatch(1) : null;
+    }
+
+    void done(IOException error) {
+      if (written != null) {
+        this.error = error;
+        written.countDown();
+      }
+    }
+  }
+
+  /**
+   * Creates the event sender.
+   * 
+   * @param group
+   *          The thread group.
+   * @param connection
+   *          The connection the packets are written to.
+   * @param capacity
+   *          How many packets may wait for writing.
+   * @param dropOnOverflow
+   *          Whether to drop the packets of non-suspending events instead of
+   *          waiting if the queue is full.
+   */
+  public EventSender(ThreadGroup group, JdwpConnection connection, int capacity, boolean dropOnOverflow) {
+    super(group, "JDWP event sender");
+    this.connection = connection;
+    this.queue = new BoundedQueue<Entry>(capacity);
+    this.dropOnOverflow = dropOnOverflow;
+    setDaemon(true);
+  }
+
+  /**
+   * Hands over the event packet to the sender.
+   * 
+   * @param packet
+   *          The packet.
+   * @param waitUntilWritten
+   *          Whether to wait until the packet is written (for suspending
+   *          events).
+   * @throws IOException
+   *           If the waited for packet could not be written or the sender is
+   *           no longer running.
+   */
+  public void send(JdwpPacket packet, boolean waitUntilWritten) throws IOException {
+    if (failure != null || shutdown) {
+      if (waitUntilWritten) {
+        throw new IOException("Event sender is not running", failure);
+      }
+      droppedPackets.incrementAndGet();
+      return;
+    }
+
+    Entry entry = new Entry(packet, waitUntilWritten);
+    if (!waitUntilWritten && dropOnOverflow) {
+      if (!queue.offer(entry)) {
+        droppedPackets.incrementAndGet();
+      }
+      return;
+    }
+
+    try {
+      queue.put(entry);
+      if (waitUntilWritten) {
+        while (!entry.written.await(_SHUTDOWN_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (shutdown && !isAlive()) {
+            // queued after the sender stopped
+            throw new IOException("Event sender shutdown");
+          }
+        }
+        if (entry.error != null) {
+          throw entry.error;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while sending the events", e);
+    }
+  }
+
+  public void run() {
+    while (true) {
+      Entry entry;
+      try {
+        entry = queue.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (entry == POISON_PILL) {
+        break;
+      }
+
+      IOException error = failure;
+      if (error == null) {
+        try {
+          connection.sendPacket(entry.packet);
+          _written(entry);
+        } catch (IOException e) {
+          logger.warn("Cannot send the events to the debugger", e);
+          failure = error = e;
+        }
+      }
+      entry.done(error);
+    }
+
+    // release everybody still waiting
+    Entry entry;
+    IOException closed = new IOException("Event sender shutdown", failure);
+    while ((entry = queue.poll()) != null) {
+      entry.done(closed);
+    }
+  }
+
+  private void _written(Entry entry) {
+    long latency = System.nanoTime() - entry.enqueued;
+    sentPackets.incrementAndGet();
+    totalLatencyNanos.addAndGet(latency);
+    if (latency > maxLatencyNanos) {
+      maxLatencyNanos = latency;
+    }
+  }
+
+  /**
+   * Stops the sender. The packets that are not written yet are discarded.
+   */
+  public void shutdown() {
+    if (shutdown) {
+      return;
+    }
+    shutdown = true;
+    Entry entry;
+    while (!queue.offer(POISON_PILL)) {
+      if ((entry = queue.poll()) != null) {
+        entry.done(new IOException("Event sender shutdown"));
+      }
+    }
+  }
+
+  /**
+   * The number of packets waiting to be written.
+   * 
+   * @return The queue length.
+   */
+  public int getQueueLength() {
+    return queue.size();
+  }
+
+  /**
+   * The number of packets written so far.
+   * 
+   * @return The number of sent packets.
+   */
+  public long getSentPackets() {
+    return sentPackets.get();
+  }
+
+  /**
+   * The number of packets that were dropped because the queue was full or the
+   * sender was not running.
+   * 
+   * @return The number of dropped packets.
+   */
+  public long getDroppedPackets() {
+    return droppedPackets.get();
+  }
+
+  /**
+   * The average time from handing over a packet to the sender until it was
+   * written.
+   * 
+   * @return The average latency in nanoseconds.
+   */
+  public long getAverageLatencyNanos() {
+    long sent = sentPackets.get();
+    return sent == 0 ? 0 : totalLatencyNanos.get() / sent;
+  }
+
+  /**
+   * The longest time from handing over a packet to the sender until it was
+   * written.
+   * 
+   * @return The maximal latency in nanoseconds.
+   */
+  public long getMaxLatencyNanos() {
+    return maxLatencyNanos;
+  }
+}
@@ -0,0 +1,48 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.IOException;
+
+/**
+ * A transport that frames the incoming JDWP packets itself.<br/>
+ * Such transports are not read through {@link ITransport#getInputStream()}
+ * (except for the handshake) which allows them to avoid any intermediate
+ * copies of the packet data.
+ * 
+ * @author stepan
+ * 
+ */
+public interface FramedTransport extends ITransport {
+
+  /**
+   * Reads the next packet from the transport.<br/>
+   * Packets returned by this method should be released by
+   * {@link JdwpPacket#release()} once they are processed.
+   * 
+   * @return The packet or <code>null</code> if the packet was malformed.
+   * @throws IOException
+   *           If the connection is lost or the transport was shutdown.
+   */
+  JdwpPacket readPacket() throws IOException;
+}
@@ -0,0 +1,97 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The debugger side of the in-process transport ({@link InProcessTransport}).<br/>
+ * Tools running in the same JVM as JPF attach to the agent by its name.
+ * 
+ * <pre>
+ * InProcessConnector connector = InProcessConnector.attach("session-1", 10000);
+ * </pre>
+ * 
+ * @author stepan
+ * 
+ */
+public class InProcessConnector extends AbstractConnector {
+
+  // Debugger to agent pipe
+  private final InProcessPipe _toAgent;
+
+  // Agent to debugger pipe
+  private final InProcessPipe _fromAgent;
+
+  private InProcessConnector(InProcessPipe toAgent, InProcessPipe fromAgent) {
+    super(fromAgent.getInputStream(), toAgent.getOutputStream());
+    _toAgent = toAgent;
+    _fromAgent = fromAgent;
+  }
+
+  /**
+   * Attaches to the JDWP agent and performs the JDWP handshake.
+   * 
+   * @param name
+   *          The name (address) the agent is configured with.
+   * @param timeoutMillis
+   *          How long to wait for the agent to start listening.
+   * @return The connector.
+   * @throws IOException
+   *           If the agent is not found or the handshake fails.
+   */
+  public static InProcessConnector attach(String name, long timeoutMillis) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    InProcessPipe[] pipes;
+    while ((pipes = InProcessTransport.accept(name)) == null) {
+      if (System.nanoTime() - deadline > 0) {
+        throw new IOException("No JDWP agent is listening as \"" + name + "\"");
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    InProcessConnector connector = new InProcessConnector(pipes[0], pipes[1]);
+    connector._doHandshake();
+    return connector;
+  }
+
+  /**
+   * Reads the next packet sent by the agent without copying its data.
+   */
+  @Override
+  public JdwpPacket readPacket() throws IOException {
+    return _fromAgent.readPacket();
+  }
+
+  @Override
+  public void close() {
+    _toAgent.close();
+    _fromAgent.close();
+  }
+}
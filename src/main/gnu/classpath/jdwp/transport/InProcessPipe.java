@@ -0,0 +1,294 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A one way pipe between two threads of the same JVM.<br/>
+ * Every write to the pipe is copied into a pooled buffer (see
+ * {@link ByteBufferPool}) which is passed to the reader as a single chunk
+ * through a lock-free queue. Since the JDWP packets are always written at once,
+ * a chunk is a whole packet in the common case and the packet is framed right
+ * in the chunk. The chunk returns to the pool once the packet is released.
+ * 
+ * @author stepan
+ * 
+ */
+class InProcessPipe {
+
+  // Minimum JDWP packet size (command or reply)
+  private static final int _MINIMUM_PACKET_LENGTH = 11;
+
+  // Size of the pooled chunks; bigger packets get a buffer of their own
+  private static final int _CHUNK_SIZE = 8 * 1024;
+
+  // How many released chunks are kept for reuse
+  private static final int _MAX_POOLED_CHUNKS = 64;
+
+  private final ByteBufferPool _pool = new ByteBufferPool(_CHUNK_SIZE, _MAX_POOLED_CHUNKS);
+
+  private final Queue<PooledBuffer> _chunks = new ConcurrentLinkedQueue<PooledBuffer>();
+
+  // The reader parked while waiting for a chunk
+  private volatile Thread _waitingReader;
+
+  private volatile boolean _closed = false;
+
+  // The chunk being read by the stream
+  private PooledBuffer _current;
+
+  // The length of a packet spanning several chunks
+  private final ByteBuffer _lengthBuffer = ByteBuffer.allocate(4);
+
+  private final InputStream _inputStream = new PipeInputStream();
+  private final OutputStream _outputStream = new PipeOutputStream();
+
+  /**
+   * Copies the bytes into a pooled chunk and passes the chunk to the reader.
+   * 
+   * @param b
+   *          The bytes.
+   * @param off
+   *          The offset of the first byte.
+   * @param len
+   *          The number of bytes.
+   * @throws IOException
+   *           If the pipe is closed.
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (_closed) {
+      throw new EOFException("Pipe closed");
+    }
+    PooledBuffer chunk = new PooledBuffer(_pool, len);
+    ByteBuffer buffer = chunk.buffer();
+    buffer.put(b, off, len);
+    buffer.flip();
+
+    _chunks.offer(chunk);
+    Thread reader = _waitingReader;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+  }
+
+  /**
+   * Takes the next chunk, waiting for it if necessary. Only one thread at a
+   * time may read from the pipe. The caller owns the reference to the chunk.
+   * 
+   * @return The chunk or <code>null</code> if the pipe is closed and empty.
+   * @throws IOException
+   *           If the reader is interrupted.
+   */
+  public PooledBuffer take() throws IOException {
+    PooledBuffer chunk = _chunks.poll();
+    if (chunk != null) {
+      return chunk;
+    }
+
+    _waitingReader = Thread.currentThread();
+    try {
+      while (true) {
+        // re-check once registered, the writer might have missed us
+        chunk = _chunks.poll();
+        if (chunk != null) {
+          return chunk;
+        }
+        if (_closed) {
+          // the chunks written before closing were seen by the poll
+          return _chunks.poll();
+        }
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException();
+        }
+      }
+    } finally {
+      _waitingReader = null;
+    }
+  }
+
+  /**
+   * Closes the pipe. The reader gets all the chunks written so far and then
+   * the end of stream.
+   */
+  public void close() {
+    _closed = true;
+    Thread reader = _waitingReader;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+  }
+
+  /**
+   * Reads the next JDWP packet from the pipe. A chunk holding exactly one
+   * packet becomes the packet data without any copying; packets spanning
+   * several chunks are gathered into a pooled buffer of their own.<br/>
+   * The packet should be released by {@link JdwpPacket#release()} once it is
+   * processed.
+   * 
+   * @return The packet or <code>null</code> if the packet was malformed.
+   * @throws IOException
+   *           If the pipe is closed.
+   */
+  synchronized JdwpPacket readPacket() throws IOException {
+    if (_current == null) {
+      _current = take();
+      if (_current == null) {
+        throw new EOFException("Pipe closed");
+      }
+    }
+
+    ByteBuffer buffer = _current.buffer();
+    if (buffer.remaining() >= _MINIMUM_PACKET_LENGTH && buffer.getInt(buffer.position()) == buffer.remaining()) {
+      PooledBuffer chunk = _current;
+      _current = null;
+      JdwpPacket packet = JdwpPacket.fromBuffer(buffer, chunk);
+      chunk.release();
+      return packet;
+    }
+
+    _lengthBuffer.clear();
+    _readFully(_lengthBuffer);
+    int length = _lengthBuffer.getInt(0);
+    if (length < _MINIMUM_PACKET_LENGTH) {
+      throw new IOException("JDWP packet length < " + _MINIMUM_PACKET_LENGTH + " (" + length + ")");
+    }
+
+    PooledBuffer packetBuffer = new PooledBuffer(_pool, length);
+    try {
+      ByteBuffer data = packetBuffer.buffer();
+      data.limit(length);
+      data.putInt(length);
+      _readFully(data);
+      data.flip();
+      return JdwpPacket.fromBuffer(data, packetBuffer);
+    } finally {
+      packetBuffer.release();
+    }
+  }
+
+  // Fills the buffer from the chunks; the caller holds the lock
+  private void _readFully(ByteBuffer destination) throws IOException {
+    while (destination.hasRemaining()) {
+      if (_current == null) {
+        _current = take();
+        if (_current == null) {
+          throw new EOFException("Pipe closed");
+        }
+      }
+      ByteBuffer source = _current.buffer();
+      int n = Math.min(destination.remaining(), source.remaining());
+      ByteBuffer part = source.duplicate();
+      part.limit(part.position() + n);
+      destination.put(part);
+      source.position(source.position() + n);
+      _releaseIfConsumed();
+    }
+  }
+
+  // Returns the current chunk to the pool once it is read completely
+  private void _releaseIfConsumed() {
+    if (!_current.buffer().hasRemaining()) {
+      _current.release();
+      _current = null;
+    }
+  }
+
+  /**
+   * The reading end of the pipe.
+   */
+  public InputStream getInputStream() {
+    return _inputStream;
+  }
+
+  /**
+   * The writing end of the pipe; every write is copied into a pooled chunk.
+   */
+  public OutputStream getOutputStream() {
+    return _outputStream;
+  }
+
+  private class PipeInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      synchronized (InProcessPipe.this) {
+        if (_current == null) {
+          _current = take();
+          if (_current == null) {
+            return -1;
+          }
+        }
+        ByteBuffer source = _current.buffer();
+        int n = Math.min(len, source.remaining());
+        source.get(b, off, n);
+        _releaseIfConsumed();
+        return n;
+      }
+    }
+
+    @Override
+    public void close() {
+      InProcessPipe.this.close();
+    }
+  }
+
+  private class PipeOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      InProcessPipe.this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      InProcessPipe.this.write(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      InProcessPipe.this.close();
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A transport for debuggers running in the same JVM as JPF. This transport
+ * uses configury string that looks like
+ * "name=dt_inproc, address=session-1,server=y" where the address is an
+ * arbitrary name the debugger attaches to by {@link InProcessConnector}.
+ * 
+ * <p>
+ * The packets are passed between the threads through lock-free queues (see
+ * {@link InProcessPipe}); no sockets nor ports are involved so any number of
+ * sessions can run in one JVM. Only <tt>server=y</tt> is supported since the
+ * agent is the side that is looked up by name.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class InProcessTransport implements FramedTransport {
+  /**
+   * Name of this transport
+   */
+  public static final String NAME = "dt_inproc";
+
+  // Configure properties
+  private static final String _PROPERTY_ADDRESS = "address";
+  private static final String _PROPERTY_SERVER = "server";
+
+  // Agents waiting for a debugger by their names
+  private static final ConcurrentMap<String, InProcessTransport> _listening = new ConcurrentHashMap<String, InProcessTransport>();
+
+  // Name of this agent
+  private String _name;
+
+  // Debugger to agent and agent to debugger pipes
+  private volatile InProcessPipe _in;
+  private volatile InProcessPipe _out;
+
+  // Released once a debugger attaches or on shutdown
+  private final CountDownLatch _attached = new CountDownLatch(1);
+
+  // Shutdown flag
+  private volatile boolean _shutdown = false;
+
+  /**
+   * Setup the connection configuration from the given properties
+   * 
+   * @param properties
+   *          the properties of the JDWP session
+   * @throws TransportException
+   *           for any configury errors
+   */
+  public void configure(HashMap properties) throws TransportException {
+    String p = (String) properties.get(_PROPERTY_SERVER);
+    if (p == null || !p.toLowerCase().equals("y")) {
+      throw new TransportException(NAME + " supports server=y only");
+    }
+
+    _name = (String) properties.get(_PROPERTY_ADDRESS);
+    if (_name == null || _name.length() == 0) {
+      throw new TransportException(NAME + " requires a name as the address");
+    }
+  }
+
+  /**
+   * Registers the agent under its name and waits for a debugger to attach.
+   * 
+   * @throws TransportException
+   *           if the name is taken or the transport is shutdown before a
+   *           debugger attaches
+   */
+  public void initialize() throws TransportException {
+    if (_listening.putIfAbsent(_name, this) != null) {
+      throw new TransportException("another agent is already listening as \"" + _name + "\"");
+    }
+    try {
+      _attached.await();
+    } catch (InterruptedException e) {
+      _listening.remove(_name, this);
+      throw new TransportException("interrupted while waiting for a debugger", e);
+    }
+    if (_shutdown) {
+      throw new TransportException("transport shutdown before a debugger attached");
+    }
+  }
+
+  /**
+   * Connects to the agent listening under the given name.
+   * 
+   * @param name
+   *          The name of the agent.
+   * @return Debugger to agent and agent to debugger pipes or
+   *         <code>null</code> if no such agent is listening.
+   */
+  static InProcessPipe[] accept(String name) {
+    InProcessTransport agent = _listening.remove(name);
+    if (agent == null) {
+      return null;
+    }
+    InProcessPipe in = new InProcessPipe();
+    InProcessPipe out = new InProcessPipe();
+    agent._out = out;
+    agent._in = in;
+    agent._attached.countDown();
+    if (agent._shutdown) {
+      // the shutdown may have missed the pipes
+      in.close();
+      out.close();
+    }
+    return new InProcessPipe[] { in, out };
+  }
+
+  /**
+   * Shutdown the transport. Anyone blocked on the transport i/o gets an end of
+   * stream.
+   */
+  public void shutdown() {
+    _shutdown = true;
+    _listening.remove(_name, this);
+    _attached.countDown();
+    InProcessPipe in = _in;
+    if (in != null) {
+      in.close();
+    }
+    InProcessPipe out = _out;
+    if (out != null) {
+      out.close();
+    }
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return _in.getInputStream();
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    return _out.getOutputStream();
+  }
+
+  @Override
+  public JdwpPacket readPacket() throws IOException {
+    return _in.readPacket();
+  }
+
+  @Override
+  public boolean isServer() {
+    return true;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getAddress() {
+    return _name;
+  }
+}
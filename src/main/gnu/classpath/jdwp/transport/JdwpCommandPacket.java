@@ -44,6 +44,7 @@ import gov.nasa.jpf.jdwp.exception.JdwpException;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,6 +123,12 @@ public class JdwpCommandPacket extends JdwpPacket {
     return i;
   }
 
+  // Reads command packet data from the given buffer
+  protected void myFromBuffer(ByteBuffer buffer) throws JdwpException {
+    _commandSet = CommandSet.ARRAYREFERENCE.convert(buffer.get());
+    _command = _commandSet.getCommandConverterSample().convert(buffer.get());
+  }
+
   // Writes the command packet data into the given buffer
   protected void myWrite(DataOutputStream dos) throws IOException {
     dos.writeByte(_commandSet.identifier());
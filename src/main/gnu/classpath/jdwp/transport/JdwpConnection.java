@@ -43,12 +43,14 @@ import gov.nasa.jpf.jdwp.VirtualMachine;
 import gov.nasa.jpf.jdwp.event.Event;
 import gov.nasa.jpf.jdwp.event.EventBase;
 import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.util.BoundedQueue;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 
@@ -60,7 +62,10 @@ import java.util.List;
  * 
  * <p>
  * This class is also a thread that is responsible for pulling packets off the
- * wire and sticking them in a queue for packet processing threads.
+ * wire and sticking them in a queue for packet processing threads.<br/>
+ * The queue is bounded (<tt>jpf-jdwp.commands.queue</tt>); once it's full,
+ * this thread stops reading from the transport until the packet processor
+ * catches up.
  * 
  * @author Keith Seitz (keiths@redhat.com)
  */
@@ -71,17 +76,32 @@ public class JdwpConnection extends Thread {
   // Transport method
   private ITransport _transport;
 
+  // Capacity of the command queue if not configured
+  private static final int _DEFAULT_COMMAND_QUEUE_CAPACITY = 1024;
+
   // Command queue
-  private ArrayList _commandQueue;
+  private BoundedQueue<JdwpPacket> _commandQueue;
+
+  // Queued on shutdown to wake up and stop the packet processors
+  private static final JdwpPacket _POISON_PILL = new JdwpCommandPacket();
+
+  // The highest command queue depth seen
+  private volatile int _maxCommandQueueDepth;
 
   // Shutdown flag
-  private boolean _shutdown;
+  private volatile boolean _shutdown;
 
   // Input stream from transport
   private DataInputStream _inStream;
 
   // Output stream from transprot
-  private DataOutputStream _outStream;
+  private OutputStream _outStream;
+
+  // A buffer where whole outgoing packets are assembled
+  private PacketBuffer _packetBuffer;
+
+  // Packet buffers bigger than this are not kept for reuse
+  private static final int _MAX_RETAINED_PACKET_BUFFER = 1024 * 1024;
 
   // A buffer used to construct the packet data
   private ByteArrayOutputStream _bytes;
@@ -104,11 +124,19 @@ public class JdwpConnection extends Thread {
     this.setVm(vm);
 
     _transport = transport;
-    _commandQueue = new ArrayList();
+    _commandQueue = new BoundedQueue<JdwpPacket>(_commandQueueCapacity(vm));
     _shutdown = false;
     _bytes = new ByteArrayOutputStream();
     _doStream = new DataOutputStream(_bytes);
+    _packetBuffer = new PacketBuffer();
+  }
 
+  // Reads the command queue capacity from the JPF configuration
+  private static int _commandQueueCapacity(VirtualMachine vm) {
+    if (vm == null || vm.getJpf() == null) {
+      return _DEFAULT_COMMAND_QUEUE_CAPACITY;
+    }
+    return vm.getJpf().getConfig().getInt("jpf-jdwp.commands.queue", _DEFAULT_COMMAND_QUEUE_CAPACITY);
   }
 
   /**
@@ -125,8 +153,14 @@ public class JdwpConnection extends Thread {
 
     // Do handshake
     try {
-      _inStream = new DataInputStream(_transport.getInputStream());
-      _outStream = new DataOutputStream(_transport.getOutputStream());
+      if (_transport instanceof FramedTransport) {
+        // the transport reads the packets itself once the handshake is done;
+        // nothing can be read ahead here
+        _inStream = new DataInputStream(_transport.getInputStream());
+      } else {
+        _inStream = new DataInputStream(new BufferedInputStream(_transport.getInputStream()));
+      }
+      _outStream = _transport.getOutputStream();
       _doHandshake();
     } catch (IOException ioe) {
       throw new TransportException(ioe);
@@ -150,6 +184,7 @@ public class JdwpConnection extends Thread {
     if (Arrays.equals(hshake, _HANDSHAKE)) {
       // Send reply handshake
       _outStream.write(_HANDSHAKE, 0, _HANDSHAKE.length);
+      _outStream.flush();
       return;
     } else {
       throw new IOException("invalid JDWP handshake (\"" + hshake + "\")");
@@ -187,6 +222,11 @@ public class JdwpConnection extends Thread {
   // Reads a single packet from the connection, adding it to the packet
   // queue when a complete packet is ready.
   private void _readOnePacket() throws IOException {
+    if (_transport instanceof FramedTransport) {
+      _enqueuePacket(((FramedTransport) _transport).readPacket());
+      return;
+    }
+
     byte[] data = null;
 
     // Read in the packet
@@ -202,11 +242,22 @@ public class JdwpConnection extends Thread {
     data[3] = (byte) length;
     _inStream.readFully(data, 4, length - 4);
 
-    JdwpPacket packet = JdwpPacket.fromBytes(data);
+    _enqueuePacket(JdwpPacket.fromBytes(data));
+  }
+
+  // Adds the packet to the packet queue, waiting for room if it's full
+  private void _enqueuePacket(JdwpPacket packet) {
     if (packet != null) {
-      synchronized (_commandQueue) {
-        _commandQueue.add(packet);
-        _commandQueue.notifyAll();
+      try {
+        _commandQueue.put(packet);
+      } catch (InterruptedException e) {
+        // interrupted on shutdown
+        packet.release();
+        return;
+      }
+      int depth = _commandQueue.size();
+      if (depth > _maxCommandQueueDepth) {
+        _maxCommandQueueDepth = depth;
       }
     }
   }
@@ -218,26 +269,54 @@ public class JdwpConnection extends Thread {
    *          when shutting down
    */
   public JdwpPacket getPacket() {
-    synchronized (_commandQueue) {
-      while (_commandQueue.isEmpty()) {
-        try {
-          _commandQueue.wait();
-        } catch (InterruptedException ie) {
-          /*
-           * PacketProcessor is interrupted when shutting down
-           */
-          return null;
-        }
-      }
-
-      return (JdwpPacket) _commandQueue.remove(0);
+    JdwpPacket packet;
+    try {
+      packet = _commandQueue.take();
+    } catch (InterruptedException ie) {
+      return null;
+    }
+    if (packet == _POISON_PILL) {
+      // leave it there for the other processors
+      _commandQueue.offer(_POISON_PILL);
+      return null;
     }
+    return packet;
+  }
+
+  /**
+   * The number of packets waiting for a packet processor.
+   * 
+   * @return The command queue depth.
+   */
+  public int getCommandQueueDepth() {
+    return _commandQueue.size();
+  }
+
+  /**
+   * The highest number of packets that were waiting for a packet processor at
+   * once.
+   * 
+   * @return The maximum command queue depth.
+   */
+  public int getMaxCommandQueueDepth() {
+    return _maxCommandQueueDepth;
+  }
+
+  /**
+   * The capacity of the command queue.
+   * 
+   * @return The maximum number of packets the queue holds.
+   */
+  public int getCommandQueueCapacity() {
+    return _commandQueue.capacity();
   }
 
   private static final Object OUTSTREAMLOCK = new Object();
 
   /**
-   * Send a packet to the debugger
+   * Send a packet to the debugger.<br/>
+   * The whole packet is assembled in a reusable buffer at first and then
+   * written to the transport at once.
    * 
    * @param pkt
    *          a <code>JdwpPacket</code> to send
@@ -245,9 +324,30 @@ public class JdwpConnection extends Thread {
    */
   public void sendPacket(JdwpPacket pkt) throws IOException {
     synchronized (OUTSTREAMLOCK) {
-      pkt.write(_outStream);
+      _packetBuffer.reset();
+      pkt.write(_packetBuffer.getDataOutputStream());
+      _packetBuffer.writeTo(_outStream);
+      _outStream.flush();
+
+      if (_packetBuffer.capacity() > _MAX_RETAINED_PACKET_BUFFER) {
+        // don't keep a huge buffer just because of one huge packet
+        _packetBuffer = new PacketBuffer();
+      }
     }
+  }
 
+  /**
+   * Send a packet that is already serialized in the buffer to the debugger.
+   * 
+   * @param buffer
+   *          the buffer holding exactly one whole packet
+   * @throws IOException
+   */
+  public void sendBuffer(PacketBuffer buffer) throws IOException {
+    synchronized (OUTSTREAMLOCK) {
+      buffer.writeTo(_outStream);
+      _outStream.flush();
+    }
   }
 
   /**
@@ -262,6 +362,20 @@ public class JdwpConnection extends Thread {
    * @throws IOException
    */
   public void sendEvents(List<Event> events, SuspendPolicy suspendPolicy) throws IOException {
+    sendPacket(createEventPacket(events, suspendPolicy));
+  }
+
+  /**
+   * Serializes the events into a single Event.COMPOSITE packet that can be
+   * sent later.
+   * 
+   * @param events
+   *          requests to events pair
+   * @param suspendPolicy
+   *          the suspend policy enforced by the VM
+   * @return the packet
+   */
+  public JdwpPacket createEventPacket(List<Event> events, SuspendPolicy suspendPolicy) {
     JdwpPacket pkt;
 
     synchronized (_bytes) {
@@ -270,7 +384,7 @@ public class JdwpConnection extends Thread {
       pkt.setData(_bytes.toByteArray());
     }
 
-    sendPacket(pkt);
+    return pkt;
   }
 
   /**
@@ -281,6 +395,14 @@ public class JdwpConnection extends Thread {
       _transport.shutdown();
       _shutdown = true;
       interrupt();
+
+      // pending commands won't be processed anyway; make room for the pill
+      JdwpPacket pending;
+      while (!_commandQueue.offer(_POISON_PILL)) {
+        if ((pending = _commandQueue.poll()) != null) {
+          pending.release();
+        }
+      }
     }
   }
 
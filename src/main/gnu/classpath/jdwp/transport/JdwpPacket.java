@@ -42,6 +42,7 @@ import gov.nasa.jpf.jdwp.exception.JdwpException;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * All command and reply packets in JDWP share common header type information:
@@ -84,6 +85,17 @@ public abstract class JdwpPacket {
    */
   protected byte[] _data;
 
+  /**
+   * Packet-specific data framed in place in a transport buffer (or
+   * <code>null</code> if the data are held in {@link #_data})
+   */
+  protected ByteBuffer _dataBuffer;
+
+  /**
+   * The transport buffer the {@link #_dataBuffer} is a part of
+   */
+  private PooledBuffer _pooledBuffer;
+
   /**
    * Constructor
    */
@@ -135,23 +147,57 @@ public abstract class JdwpPacket {
    * Gets the command/reply-specific data in this packet
    */
   public byte[] getData() {
+    if (_data == null && _dataBuffer != null) {
+      _data = new byte[_dataBuffer.remaining()];
+      _dataBuffer.duplicate().get(_data);
+    }
     return _data;
   }
 
+  /**
+   * Gets the command/reply-specific data in this packet as a buffer.<br/>
+   * No copy is made if the packet was framed in place by a
+   * {@link FramedTransport}. The returned buffer is valid only until the
+   * packet is released.
+   */
+  public ByteBuffer getDataBuffer() {
+    if (_dataBuffer != null) {
+      return _dataBuffer.duplicate();
+    }
+    return ByteBuffer.wrap(_data == null ? new byte[0] : _data);
+  }
+
   /**
    * Sets the command/reply-specific data in this packet
    */
   public void setData(byte[] data) {
     _data = data;
+    _dataBuffer = null;
   }
 
   /**
    * Returns the length of this entire packet
    */
   public int getLength() {
+    if (_dataBuffer != null) {
+      return MINIMUM_SIZE + _dataBuffer.remaining();
+    }
     return MINIMUM_SIZE + (_data == null ? 0 : _data.length);
   }
 
+  /**
+   * Releases the transport buffer this packet was read into, if any.<br/>
+   * The data of this packet must not be accessed afterwards.
+   */
+  public void release() {
+    PooledBuffer pooledBuffer = _pooledBuffer;
+    if (pooledBuffer != null) {
+      _pooledBuffer = null;
+      _dataBuffer = null;
+      pooledBuffer.release();
+    }
+  }
+
   /**
    * Allow subclasses to initialize from data
    * 
@@ -225,6 +271,73 @@ public abstract class JdwpPacket {
     return null;
   }
 
+  /**
+   * Allow subclasses to initialize from data
+   * 
+   * @param buffer
+   *          packet data from the wire positioned just after the common
+   *          header; the position is advanced past the subclass data
+   * @throws JdwpException
+   */
+  protected abstract void myFromBuffer(ByteBuffer buffer) throws JdwpException;
+
+  /**
+   * Convert the given buffer into a <code>JdwpPacket</code> without copying
+   * the packet data. The buffer must hold exactly one packet between its
+   * position and limit.<br/>
+   * The packet keeps a reference to the <code>owner</code> buffer until it is
+   * released by {@link #release()}.
+   * 
+   * If the given data does not represent a valid JDWP packet, it returns
+   * <code>null</code>.
+   * 
+   * @param buffer
+   *          packet data from the wire
+   * @param owner
+   *          the pooled buffer the data live in or <code>null</code> if the
+   *          buffer is not pooled
+   * @return the packet or <code>null</code>
+   */
+  public static JdwpPacket fromBuffer(ByteBuffer buffer, PooledBuffer owner) {
+    int length = buffer.getInt();
+    if (buffer.remaining() != length - 4) {
+      return null;
+    }
+    int id = buffer.getInt();
+    byte flags = buffer.get();
+
+    JdwpPacket pkt;
+    if (flags == 0) {
+      pkt = new JdwpCommandPacket();
+    } else if ((flags & JDWP_FLAG_REPLY) != 0) {
+      pkt = new JdwpReplyPacket();
+    } else {
+      // Malformed packet. Discard it.
+      return null;
+    }
+
+    pkt.setId(id);
+    pkt.setFlags(flags);
+
+    try {
+      pkt.myFromBuffer(buffer);
+    } catch (JdwpException e) {
+      // Discard packet
+      return null;
+    } catch (RuntimeException e) {
+      // Truncated packet. Discard it.
+      return null;
+    }
+
+    pkt._dataBuffer = buffer.slice();
+    if (owner != null) {
+      pkt._pooledBuffer = owner;
+      owner.retain();
+    }
+
+    return pkt;
+  }
+
   /**
    * Put subclass information onto the stream
    * 
@@ -254,6 +367,13 @@ public abstract class JdwpPacket {
     myWrite(dos);
 
     // data (if any)
+    if (_dataBuffer != null && !_dataBuffer.hasArray()) {
+      ByteBuffer data = _dataBuffer.duplicate();
+      while (data.hasRemaining()) {
+        dos.writeByte(data.get());
+      }
+      return;
+    }
     byte[] data = getData();
     if (data != null && data.length > 0)
       dos.write(data, 0, data.length);
@@ -40,6 +40,7 @@ package gnu.classpath.jdwp.transport;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A class represents a JDWP reply packet. This class adds an error code to the
@@ -120,6 +121,11 @@ public class JdwpReplyPacket extends JdwpPacket {
     return i;
   }
 
+  // Reads reply packet data from the given buffer
+  protected void myFromBuffer(ByteBuffer buffer) {
+    setErrorCode(buffer.getShort());
+  }
+
   // Writes the command packet data into the given buffer
   protected void myWrite(DataOutputStream dos) throws IOException {
     dos.writeShort(getErrorCode());
@@ -0,0 +1,193 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A socket transport built on top of a blocking {@link SocketChannel}. This
+ * transport uses configury string that looks like
+ * "name=dt_nio, address=localhost:1234,server=y" and it understands the same
+ * options as {@link SocketTransport}.
+ * 
+ * <p>
+ * Incoming data are read directly into pooled direct buffers and the packets
+ * are framed in place, hence no intermediate arrays are created while reading
+ * the packets. One read from the channel may bring in several packets.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class NioSocketTransport extends SocketTransport implements FramedTransport {
+  /**
+   * Name of this transport
+   */
+  public static final String NAME = "dt_nio";
+
+  // Size of the pooled read buffers
+  private static final int _CHUNK_SIZE = 64 * 1024;
+
+  // Maximum number of idle read buffers kept in the pool
+  private static final int _MAX_POOLED_CHUNKS = 16;
+
+  // Minimum JDWP packet size (command or reply)
+  private static final int _MINIMUM_PACKET_LENGTH = 11;
+
+  // The channel
+  private SocketChannel _channel;
+
+  // Pool of the read buffers
+  private final ByteBufferPool _pool = new ByteBufferPool(_CHUNK_SIZE, _MAX_POOLED_CHUNKS);
+
+  // Buffer the data are currently read into
+  private PooledBuffer _readChunk;
+
+  // Start of the data that haven't been framed yet in the read chunk
+  private int _readPosition;
+
+  /**
+   * Initialize this channel connection. This includes connecting to the host
+   * (or listening for it).
+   * 
+   * @throws TransportException
+   *           if a transport-related error occurs
+   */
+  public void initialize() throws TransportException {
+    try {
+      _channel = _openChannel();
+    } catch (IOException ioe) {
+      // This will grab UnknownHostException, too.
+      throw new TransportException(ioe);
+    }
+    _readChunk = new PooledBuffer(_pool, _CHUNK_SIZE);
+    _readPosition = 0;
+  }
+
+  // Connects to the host (or listens for it) and returns the connected channel
+  protected SocketChannel _openChannel() throws IOException {
+    SocketChannel channel;
+    if (_server) {
+      ServerSocketChannel ssc = ServerSocketChannel.open();
+      try {
+        if (_receiveBufferSize > 0) {
+          // accepted sockets inherit the receive buffer size
+          ssc.socket().setReceiveBufferSize(_receiveBufferSize);
+        }
+        ssc.socket().bind(new InetSocketAddress(_port), 1);
+        channel = ssc.accept();
+      } finally {
+        ssc.close();
+      }
+      _configureSocket(channel.socket());
+    } else {
+      channel = SocketChannel.open();
+      _configureSocket(channel.socket());
+      channel.connect(new InetSocketAddress(_host, _port));
+    }
+    return channel;
+  }
+
+  /**
+   * Shutdown the channel. This could cause exceptions for anyone blocked on the
+   * channel i/o
+   */
+  public void shutdown() {
+    try {
+      _channel.close();
+    } catch (Throwable t) {
+      // We don't really care about errors at this point
+    }
+  }
+
+  /**
+   * Returns an <code>InputStream</code> for the transport.<br/>
+   * The stream is not buffered so that it can be used for the handshake
+   * before the packets are read by {@link #readPacket()}.
+   */
+  public InputStream getInputStream() throws IOException {
+    return ChannelStreams.newInputStream(_channel);
+  }
+
+  /**
+   * Returns an <code>OutputStream</code> for the transport
+   */
+  public OutputStream getOutputStream() throws IOException {
+    return ChannelStreams.newOutputStream(_channel);
+  }
+
+  @Override
+  public JdwpPacket readPacket() throws IOException {
+    ByteBuffer buffer = _readChunk.buffer();
+    while (true) {
+      int available = buffer.position() - _readPosition;
+      int required = 4;
+
+      if (available >= 4) {
+        int length = buffer.getInt(_readPosition);
+        if (length < _MINIMUM_PACKET_LENGTH) {
+          throw new IOException("JDWP packet length < " + _MINIMUM_PACKET_LENGTH + " (" + length + ")");
+        }
+        if (available >= length) {
+          ByteBuffer frame = buffer.duplicate();
+          frame.limit(_readPosition + length);
+          frame.position(_readPosition);
+          _readPosition += length;
+          return JdwpPacket.fromBuffer(frame, _readChunk);
+        }
+        required = length;
+      }
+
+      if (buffer.capacity() - _readPosition < required) {
+        // the rest of the packet doesn't fit; move the tail to a new chunk
+        // and leave the old one to the packets that still reference it
+        PooledBuffer chunk = new PooledBuffer(_pool, Math.max(required, _CHUNK_SIZE));
+        ByteBuffer tail = buffer.duplicate();
+        tail.limit(buffer.position());
+        tail.position(_readPosition);
+        chunk.buffer().put(tail);
+
+        _readChunk.release();
+        _readChunk = chunk;
+        _readPosition = 0;
+        buffer = chunk.buffer();
+      }
+
+      if (_channel.read(buffer) < 0) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+}
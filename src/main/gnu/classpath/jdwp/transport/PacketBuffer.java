@@ -0,0 +1,169 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable and reusable buffer where a whole JDWP packet (the header and the
+ * data) is assembled before it is handed to the transport.<br/>
+ * Writing the packet to the transport in a single call avoids many tiny writes
+ * (and possibly many tiny TCP segments) per packet.
+ * 
+ * <p>
+ * The buffer is not thread safe in terms of its content. It is up to the owner
+ * to make sure the buffer is used by one packet at a time.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class PacketBuffer extends ByteArrayOutputStream {
+
+  /**
+   * The default initial capacity that is enough for the majority of packets.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final DataOutputStream dataOutputStream = new DataOutputStream(this);
+
+  /**
+   * Creates the buffer of the {@link PacketBuffer#DEFAULT_CAPACITY} capacity.
+   */
+  public PacketBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates the buffer.
+   * 
+   * @param capacity
+   *          The initial capacity.
+   */
+  public PacketBuffer(int capacity) {
+    super(capacity);
+  }
+
+  /**
+   * The data output stream that writes directly to this buffer.
+   * 
+   * @return The data output stream.
+   */
+  public DataOutputStream getDataOutputStream() {
+    return dataOutputStream;
+  }
+
+  /**
+   * The current capacity of the buffer.
+   * 
+   * @return The number of bytes the buffer can hold without growing.
+   */
+  public synchronized int capacity() {
+    return buf.length;
+  }
+
+  /**
+   * Discards the content of the buffer and reserves the given number of bytes
+   * at the beginning. The reserved bytes (usually the packet header) are
+   * filled in later by the <code>put</code> methods.
+   * 
+   * @param length
+   *          The number of bytes to reserve.
+   */
+  public synchronized void reserve(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("Cannot reserve " + length + " bytes");
+    }
+    if (buf.length < length) {
+      buf = new byte[Math.max(length, buf.length << 1)];
+    } else {
+      Arrays.fill(buf, 0, length, (byte) 0);
+    }
+    count = length;
+  }
+
+  /**
+   * Discards everything after the given number of bytes.
+   * 
+   * @param length
+   *          The number of bytes to keep.
+   */
+  public synchronized void truncate(int length) {
+    if (length < 0 || length > count) {
+      throw new IndexOutOfBoundsException("Cannot truncate " + count + " bytes to " + length);
+    }
+    count = length;
+  }
+
+  /**
+   * Overwrites a byte that was already written.
+   * 
+   * @param offset
+   *          The offset of the byte.
+   * @param value
+   *          The value.
+   */
+  public synchronized void putByte(int offset, byte value) {
+    _checkOffset(offset, 1);
+    buf[offset] = value;
+  }
+
+  /**
+   * Overwrites a big-endian short that was already written.
+   * 
+   * @param offset
+   *          The offset of the short.
+   * @param value
+   *          The value.
+   */
+  public synchronized void putShort(int offset, short value) {
+    _checkOffset(offset, 2);
+    buf[offset] = (byte) (value >>> 8);
+    buf[offset + 1] = (byte) value;
+  }
+
+  /**
+   * Overwrites a big-endian int that was already written.
+   * 
+   * @param offset
+   *          The offset of the int.
+   * @param value
+   *          The value.
+   */
+  public synchronized void putInt(int offset, int value) {
+    _checkOffset(offset, 4);
+    buf[offset] = (byte) (value >>> 24);
+    buf[offset + 1] = (byte) (value >>> 16);
+    buf[offset + 2] = (byte) (value >>> 8);
+    buf[offset + 3] = (byte) value;
+  }
+
+  private void _checkOffset(int offset, int length) {
+    if (offset < 0 || offset + length > count) {
+      throw new IndexOutOfBoundsException("Offset " + offset + " of " + length + " bytes is out of " + count);
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer obtained from a {@link ByteBufferPool}.<br/>
+ * Several packets may be framed in place in one buffer. The buffer is returned
+ * to the pool once the reader and all the packets released it.
+ * 
+ * @author stepan
+ * 
+ */
+public class PooledBuffer {
+
+  private final ByteBufferPool pool;
+  private final ByteBuffer buffer;
+
+  // the owner (the reader) holds the first reference
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  /**
+   * Acquires a buffer from the pool.
+   * 
+   * @param pool
+   *          The pool.
+   * @param capacity
+   *          The minimal capacity.
+   */
+  public PooledBuffer(ByteBufferPool pool, int capacity) {
+    this.pool = pool;
+    this.buffer = pool.acquire(capacity);
+  }
+
+  /**
+   * The underlying buffer.
+   * 
+   * @return The buffer.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * Adds a reference to this buffer.
+   */
+  public void retain() {
+    references.incrementAndGet();
+  }
+
+  /**
+   * Releases a reference to this buffer. Once the last reference is released,
+   * the buffer is returned to the pool.
+   */
+  public void release() {
+    int remaining = references.decrementAndGet();
+    if (remaining == 0) {
+      pool.release(buffer);
+    } else if (remaining < 0) {
+      throw new IllegalStateException("Pooled buffer released too many times");
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.DataOutputStream;
+
+/**
+ * Serializes a reply packet directly into a reusable buffer.<br/>
+ * The space for the reply header is reserved at first, the command writes the
+ * reply data right after it and the header is filled in once the length and
+ * the error code are known. The buffer is then written to the transport as
+ * it is (see {@link JdwpConnection#sendBuffer(PacketBuffer)}), so the reply
+ * data are never copied into intermediate arrays.
+ * 
+ * <p>
+ * A writer serves one reply at a time and it's meant to be owned by one
+ * packet processing thread that reuses it for all its replies.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class ReplyWriter {
+
+  /**
+   * The reply header length ( length (4) + id (4) + flags (1) + errorCode (2) )
+   */
+  public static final int HEADER_LENGTH = 11;
+
+  // Buffers bigger than this are not kept for reuse
+  private static final int _MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+  private PacketBuffer buffer = new PacketBuffer();
+
+  private int id;
+  private short errorCode;
+
+  /**
+   * Starts a new reply.
+   * 
+   * @param commandPacket
+   *          The command being replied to.
+   * @return The stream the reply data are written to.
+   */
+  public DataOutputStream begin(JdwpPacket commandPacket) {
+    if (buffer.capacity() > _MAX_RETAINED_CAPACITY) {
+      // don't keep a huge buffer just because of one huge reply
+      buffer = new PacketBuffer();
+    }
+    id = commandPacket.getId();
+    errorCode = 0;
+    buffer.reserve(HEADER_LENGTH);
+    return buffer.getDataOutputStream();
+  }
+
+  /**
+   * Turns the reply into an error reply. Any data written so far are
+   * discarded.
+   * 
+   * @param errorCode
+   *          The error code.
+   */
+  public void setError(short errorCode) {
+    this.errorCode = errorCode;
+    buffer.truncate(HEADER_LENGTH);
+  }
+
+  /**
+   * Fills in the header.
+   * 
+   * @return The buffer with the whole reply packet.
+   */
+  public PacketBuffer finish() {
+    buffer.putInt(0, buffer.size());
+    buffer.putInt(4, id);
+    buffer.putByte(8, (byte) JdwpPacket.JDWP_FLAG_REPLY);
+    buffer.putShort(9, errorCode);
+    return buffer;
+  }
+}
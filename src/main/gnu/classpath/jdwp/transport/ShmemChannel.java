@@ -0,0 +1,593 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * A duplex byte channel between two processes built on top of a memory mapped
+ * file.<br/>
+ * The file contains two single producer single consumer ring buffers, one for
+ * each direction (debugger to agent and agent to debugger).
+ * 
+ * <p>
+ * The file layout is as follows (every position lives in its own cache line):
+ * 
+ * <pre>
+ *   0: magic (4), version (4), ring capacity (4), state (4)
+ *  64: debugger to agent write position (8)
+ * 128: debugger to agent read position (8)
+ * 192: agent to debugger write position (8)
+ * 256: agent to debugger read position (8)
+ * 320: debugger to agent data (capacity)
+ *      agent to debugger data (capacity)
+ * </pre>
+ * 
+ * All the header fields are in the native byte order. The positions grow
+ * monotonically, the offset in the ring is the position modulo the capacity.
+ * Each position is written by one side only. The data are always written
+ * before the write position is published and the read position is published
+ * only once the data are copied out.
+ * </p>
+ * <p>
+ * The state and the positions are accessed directly at their addresses in the
+ * mapped memory by the volatile, ordered (release) and compare-and-swap
+ * operations of <tt>sun.misc.Unsafe</tt>. Those are both the fences for the
+ * plain accesses to the ring data and what makes the positions visible to the
+ * other process. <tt>Unsafe</tt> is looked up reflectively; the transport is
+ * not available on runtimes that don't have it.
+ * </p>
+ * <p>
+ * The debugger attaches by switching the state from created to attached by a
+ * compare-and-swap, hence only one debugger gets the channel. The agent holds
+ * a lock on the file for as long as it lives so that the debugger doesn't
+ * attach to a file left behind by a dead agent.
+ * </p>
+ * <p>
+ * A side waiting for data (or space) spins at first, then yields and finally
+ * parks for increasing periods of time so that an idle connection doesn't burn
+ * a CPU core.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class ShmemChannel {
+
+  // 'JPFS'
+  private static final int _MAGIC = 0x4A504653;
+  private static final int _VERSION = 1;
+
+  private static final int _MAGIC_OFFSET = 0;
+  private static final int _VERSION_OFFSET = 4;
+  private static final int _CAPACITY_OFFSET = 8;
+  private static final int _STATE_OFFSET = 12;
+
+  private static final int _CACHE_LINE = 64;
+  private static final int _HEADER_SIZE = 5 * _CACHE_LINE;
+
+  // Connection states
+  private static final int _STATE_CREATED = 0;
+  private static final int _STATE_ATTACHED = 1;
+  private static final int _STATE_CLOSED = 2;
+
+  // The agent holds this (never written) byte of the file locked
+  private static final long _LIVENESS_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+  // Wait strategy
+  private static final int _SPINS = 1000;
+  private static final int _YIELDS = 100;
+  private static final long _MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long _MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * The default capacity of each ring buffer.
+   */
+  public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+  // The Unsafe operations bound to the Unsafe instance, null if not available
+  private static final MethodHandle _GET_INT_VOLATILE;
+  private static final MethodHandle _PUT_INT_VOLATILE;
+  private static final MethodHandle _COMPARE_AND_SWAP_INT;
+  private static final MethodHandle _GET_LONG_VOLATILE;
+  private static final MethodHandle _PUT_ORDERED_LONG;
+  private static final MethodHandle _GET_LONG;
+  private static final long _BUFFER_ADDRESS_OFFSET;
+  private static final Throwable _UNSAFE_FAILURE;
+
+  static {
+    MethodHandle getIntVolatile = null;
+    MethodHandle putIntVolatile = null;
+    MethodHandle compareAndSwapInt = null;
+    MethodHandle getLongVolatile = null;
+    MethodHandle putOrderedLong = null;
+    MethodHandle getLong = null;
+    long bufferAddressOffset = 0;
+    Throwable failure = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      getIntVolatile = lookup.findVirtual(unsafeClass, "getIntVolatile", methodType(int.class, Object.class, long.class)).bindTo(unsafe);
+      putIntVolatile = lookup.findVirtual(unsafeClass, "putIntVolatile", methodType(void.class, Object.class, long.class, int.class))
+          .bindTo(unsafe);
+      compareAndSwapInt = lookup.findVirtual(unsafeClass, "compareAndSwapInt",
+                                             methodType(boolean.class, Object.class, long.class, int.class, int.class)).bindTo(unsafe);
+      getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile", methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+      putOrderedLong = lookup.findVirtual(unsafeClass, "putOrderedLong", methodType(void.class, Object.class, long.class, long.class))
+          .bindTo(unsafe);
+      getLong = lookup.findVirtual(unsafeClass, "getLong", methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+      bufferAddressOffset = (Long) unsafeClass.getMethod("objectFieldOffset", Field.class).invoke(unsafe,
+                                                                                                  Buffer.class.getDeclaredField("address"));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      failure = e;
+    }
+    _GET_INT_VOLATILE = getIntVolatile;
+    _PUT_INT_VOLATILE = putIntVolatile;
+    _COMPARE_AND_SWAP_INT = compareAndSwapInt;
+    _GET_LONG_VOLATILE = getLongVolatile;
+    _PUT_ORDERED_LONG = putOrderedLong;
+    _GET_LONG = getLong;
+    _BUFFER_ADDRESS_OFFSET = bufferAddressOffset;
+    _UNSAFE_FAILURE = failure;
+  }
+
+  private final File _path;
+  private final RandomAccessFile _file;
+  // Referenced so that the memory stays mapped
+  private final MappedByteBuffer _buffer;
+  // The address of the mapped memory
+  private final long _address;
+
+  private final Ring _inRing;
+  private final Ring _outRing;
+
+  private final InputStream _inputStream;
+  private final OutputStream _outputStream;
+
+  // Held by the agent while the channel is open
+  private FileLock _liveness;
+
+  // Closed by this side
+  private volatile boolean _closed = false;
+
+  private ShmemChannel(File path, RandomAccessFile file, MappedByteBuffer buffer, boolean agent) {
+    _path = path;
+    _file = file;
+    _buffer = buffer;
+    _address = _getLong(buffer, _BUFFER_ADDRESS_OFFSET);
+
+    int capacity = buffer.getInt(_CAPACITY_OFFSET);
+    Ring debuggerToAgent = new Ring(_CACHE_LINE, 2 * _CACHE_LINE, _HEADER_SIZE, capacity);
+    Ring agentToDebugger = new Ring(3 * _CACHE_LINE, 4 * _CACHE_LINE, _HEADER_SIZE + capacity, capacity);
+    _inRing = agent ? debuggerToAgent : agentToDebugger;
+    _outRing = agent ? agentToDebugger : debuggerToAgent;
+
+    _inputStream = new RingInputStream();
+    _outputStream = new RingOutputStream();
+  }
+
+  /**
+   * Creates the shared memory file (the agent side). Any file that already
+   * exists at the path is deleted at first (it may still be mapped by another
+   * process, thus it is never truncated).<br/>
+   * Use {@link #awaitAttach()} to wait for the debugger.
+   * 
+   * @param path
+   *          The file to create.
+   * @param capacity
+   *          The capacity of each ring buffer.
+   * @return The channel.
+   * @throws IOException
+   *           If the file cannot be created.
+   */
+  public static ShmemChannel create(File path, int capacity) throws IOException {
+    _checkSupported();
+    if (path.exists() && !path.delete()) {
+      throw new IOException("Cannot delete the existing shared memory file: " + path);
+    }
+
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      FileLock liveness = file.getChannel().lock(_LIVENESS_LOCK_POSITION, 1, false);
+      file.setLength(_HEADER_SIZE + 2L * capacity);
+      MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_WRITE, 0, _HEADER_SIZE + 2L * capacity);
+      buffer.order(ByteOrder.nativeOrder());
+
+      buffer.putInt(_VERSION_OFFSET, _VERSION);
+      buffer.putInt(_CAPACITY_OFFSET, capacity);
+      buffer.putInt(_STATE_OFFSET, _STATE_CREATED);
+
+      ShmemChannel channel = new ShmemChannel(path, file, buffer, true);
+      channel._liveness = liveness;
+      // the debugger doesn't touch the file until the magic is there
+      _putIntVolatile(channel._address + _MAGIC_OFFSET, _MAGIC);
+      return channel;
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Attaches to the shared memory file created by the agent.
+   * 
+   * @param path
+   *          The file created by the agent.
+   * @param timeoutMillis
+   *          How long to wait for the file to be created.
+   * @return The channel.
+   * @throws IOException
+   *           If the file is not valid or it doesn't appear in time.
+   */
+  public static ShmemChannel attach(File path, long timeoutMillis) throws IOException {
+    _checkSupported();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (true) {
+      ShmemChannel channel = _tryAttach(path);
+      if (channel != null) {
+        return channel;
+      }
+      if (System.nanoTime() - deadline > 0) {
+        throw new IOException("No JDWP agent is listening on " + path);
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  // Attaches if the agent has initialized the file already
+  private static ShmemChannel _tryAttach(File path) throws IOException {
+    if (!path.isFile() || path.length() < _HEADER_SIZE) {
+      return null;
+    }
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      long size = file.length();
+      MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+      long address = _getLong(buffer, _BUFFER_ADDRESS_OFFSET);
+      if (_getIntVolatile(address + _MAGIC_OFFSET) != _MAGIC || _getIntVolatile(address + _STATE_OFFSET) != _STATE_CREATED
+          || !_isAgentAlive(file.getChannel())) {
+        // not initialized yet or a left-over of a finished session
+        file.close();
+        return null;
+      }
+      if (buffer.getInt(_VERSION_OFFSET) != _VERSION) {
+        throw new IOException("Unsupported shared memory transport version: " + buffer.getInt(_VERSION_OFFSET));
+      }
+      if (size < _HEADER_SIZE + 2L * buffer.getInt(_CAPACITY_OFFSET)) {
+        throw new IOException("Truncated shared memory file: " + path);
+      }
+      if (!_compareAndSwapInt(address + _STATE_OFFSET, _STATE_CREATED, _STATE_ATTACHED)) {
+        // another debugger was faster
+        file.close();
+        return null;
+      }
+      return new ShmemChannel(path, file, buffer, false);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  // Whether the agent that created the file still holds its lock
+  private static boolean _isAgentAlive(FileChannel channel) throws IOException {
+    FileLock lock;
+    try {
+      lock = channel.tryLock(_LIVENESS_LOCK_POSITION, 1, true);
+    } catch (OverlappingFileLockException e) {
+      // the agent runs in this very JVM
+      return true;
+    }
+    if (lock == null) {
+      return true;
+    }
+    lock.release();
+    return false;
+  }
+
+  private static void _checkSupported() throws IOException {
+    if (_UNSAFE_FAILURE != null) {
+      throw new IOException("The shared memory transport is not supported by this runtime", _UNSAFE_FAILURE);
+    }
+  }
+
+  /**
+   * Waits until the debugger attaches.
+   * 
+   * @throws IOException
+   *           If the channel is closed before the debugger attaches.
+   */
+  public void awaitAttach() throws IOException {
+    int idle = 0;
+    while (_state() == _STATE_CREATED) {
+      idle = _idle(idle);
+    }
+  }
+
+  private int _state() throws IOException {
+    if (_closed) {
+      throw new EOFException("Shared memory transport closed");
+    }
+    return _getIntVolatile(_address + _STATE_OFFSET);
+  }
+
+  /**
+   * The file this channel is mapped to.
+   * 
+   * @return The file.
+   */
+  public File getPath() {
+    return _path;
+  }
+
+  public InputStream getInputStream() {
+    return _inputStream;
+  }
+
+  public OutputStream getOutputStream() {
+    return _outputStream;
+  }
+
+  /**
+   * Closes the channel. The other side gets the end of stream once it reads
+   * all the data written so far.
+   */
+  public void close() {
+    if (_closed) {
+      return;
+    }
+    _closed = true;
+    // everything written so far is visible before the state changes
+    _putIntVolatile(_address + _STATE_OFFSET, _STATE_CLOSED);
+    try {
+      // releases the liveness lock as well
+      _file.close();
+    } catch (IOException e) {
+      // We don't really care about errors at this point
+    }
+  }
+
+  // One step of the spin-yield-park wait strategy
+  private int _idle(int idle) throws IOException {
+    if (Thread.interrupted()) {
+      throw new InterruptedIOException();
+    }
+    if (idle < _SPINS) {
+      // busy spin
+    } else if (idle < _SPINS + _YIELDS) {
+      Thread.yield();
+    } else {
+      int shift = Math.min(idle - _SPINS - _YIELDS, 20);
+      LockSupport.parkNanos(Math.min(_MIN_PARK_NANOS << shift, _MAX_PARK_NANOS));
+    }
+    return idle + 1;
+  }
+
+  /*
+   * The Unsafe accesses; the handles never throw anything checked.
+   */
+
+  private static int _getIntVolatile(long address) {
+    try {
+      return (int) _GET_INT_VOLATILE.invokeExact((Object) null, address);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static void _putIntVolatile(long address, int value) {
+    try {
+      _PUT_INT_VOLATILE.invokeExact((Object) null, address, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static boolean _compareAndSwapInt(long address, int expected, int value) {
+    try {
+      return (boolean) _COMPARE_AND_SWAP_INT.invokeExact((Object) null, address, expected, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static long _getLongVolatile(long address) {
+    try {
+      return (long) _GET_LONG_VOLATILE.invokeExact((Object) null, address);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static void _putOrderedLong(long address, long value) {
+    try {
+      _PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static long _getLong(Object object, long offset) {
+    try {
+      return (long) _GET_LONG.invokeExact(object, offset);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  /**
+   * A single producer single consumer ring in the mapped file.
+   */
+  private class Ring {
+    final long writePositionAddress;
+    final long readPositionAddress;
+    final int dataOffset;
+    final int capacity;
+
+    // View of the buffer for the bulk copies
+    final ByteBuffer view;
+
+    Ring(int writePositionOffset, int readPositionOffset, int dataOffset, int capacity) {
+      this.writePositionAddress = _address + writePositionOffset;
+      this.readPositionAddress = _address + readPositionOffset;
+      this.dataOffset = dataOffset;
+      this.capacity = capacity;
+      this.view = _buffer.duplicate();
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+      // only this side writes the write position
+      long writePosition = _getLongVolatile(writePositionAddress);
+      int idle = 0;
+      while (len > 0) {
+        if (_state() == _STATE_CLOSED) {
+          throw new EOFException("The debugger closed the shared memory transport");
+        }
+        long free = capacity - (writePosition - _getLongVolatile(readPositionAddress));
+        if (free == 0) {
+          idle = _idle(idle);
+          continue;
+        }
+        idle = 0;
+
+        int n = (int) Math.min(len, free);
+        int index = (int) (writePosition % capacity);
+        int first = Math.min(n, capacity - index);
+        view.position(dataOffset + index);
+        view.put(b, off, first);
+        if (first < n) {
+          view.position(dataOffset);
+          view.put(b, off + first, n - first);
+        }
+
+        writePosition += n;
+        off += n;
+        len -= n;
+
+        // publishes the data written above
+        _putOrderedLong(writePositionAddress, writePosition);
+      }
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+      // only this side writes the read position
+      long readPosition = _getLongVolatile(readPositionAddress);
+      int idle = 0;
+      while (true) {
+        // read the state first so that no data written before closing is lost
+        boolean peerClosed = _state() == _STATE_CLOSED;
+        long available = _getLongVolatile(writePositionAddress) - readPosition;
+
+        if (available > 0) {
+          int n = (int) Math.min(len, available);
+          int index = (int) (readPosition % capacity);
+          int first = Math.min(n, capacity - index);
+          view.position(dataOffset + index);
+          view.get(b, off, first);
+          if (first < n) {
+            view.position(dataOffset);
+            view.get(b, off + first, n - first);
+          }
+
+          // the space is handed back only once the data are copied out
+          _putOrderedLong(readPositionAddress, readPosition + n);
+          return n;
+        }
+        if (peerClosed) {
+          return -1;
+        }
+        idle = _idle(idle);
+      }
+    }
+  }
+
+  private class RingInputStream extends InputStream {
+
+    private final byte[] single = new byte[1];
+
+    @Override
+    public synchronized int read() throws IOException {
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      return _inRing.read(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      ShmemChannel.this.close();
+    }
+  }
+
+  private class RingOutputStream extends OutputStream {
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      _outRing.write(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      ShmemChannel.this.close();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The debugger side of the shared memory transport ({@link ShmemTransport}).<br/>
+ * Tools running on the same machine as JPF attach to the agent by the path of
+ * the shared file.
+ * 
+ * <pre>
+ * ShmemConnector connector = ShmemConnector.attach("/dev/shm/jpf-jdwp", 10000);
+ * </pre>
+ * 
+ * @author stepan
+ * 
+ */
+public class ShmemConnector extends AbstractConnector {
+
+  private final ShmemChannel _channel;
+
+  private ShmemConnector(ShmemChannel channel) {
+    super(channel.getInputStream(), channel.getOutputStream());
+    _channel = channel;
+  }
+
+  /**
+   * Attaches to the JDWP agent and performs the JDWP handshake.
+   * 
+   * @param path
+   *          The path of the shared file the agent is configured with.
+   * @param timeoutMillis
+   *          How long to wait for the agent.
+   * @return The connector.
+   * @throws IOException
+   *           If the agent is not found or the handshake fails.
+   */
+  public static ShmemConnector attach(String path, long timeoutMillis) throws IOException {
+    ShmemConnector connector = new ShmemConnector(ShmemChannel.attach(new File(path), timeoutMillis));
+    connector._doHandshake();
+    return connector;
+  }
+
+  @Override
+  public void close() {
+    _channel.close();
+  }
+}
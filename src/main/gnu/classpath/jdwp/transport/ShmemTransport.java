@@ -0,0 +1,181 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * A shared memory transport for debuggers running on the same machine. This
+ * transport uses configury string that looks like
+ * "name=dt_shmem, address=/dev/shm/jpf-jdwp,server=y" where the address is the
+ * path of the memory mapped file that is shared with the debugger.
+ * 
+ * <p>
+ * Additionally, <tt>bufsize=&lt;bytes&gt;</tt> sets the capacity of each of
+ * the two ring buffers (1MB by default). The capacity is decided by the agent,
+ * the debugger takes it from the file.
+ * </p>
+ * <p>
+ * This is not the Windows shared memory transport of the JDK; debuggers attach
+ * to it using {@link ShmemConnector}. See {@link ShmemChannel} for the details
+ * of the shared memory layout.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class ShmemTransport implements ITransport {
+  /**
+   * Name of this transport
+   */
+  public static final String NAME = "dt_shmem";
+
+  // Configure properties
+  private static final String _PROPERTY_ADDRESS = "address";
+  private static final String _PROPERTY_SERVER = "server";
+  private static final String _PROPERTY_BUFSIZE = "bufsize";
+
+  // How long the debugger side waits for the agent to create the file
+  private static final long _ATTACH_TIMEOUT_MILLIS = 10000;
+
+  // Path to the shared file
+  private File _path;
+
+  // Are we acting as a server?
+  private boolean _server = false;
+
+  // Capacity of the ring buffers
+  private int _capacity = ShmemChannel.DEFAULT_CAPACITY;
+
+  // The shared memory
+  private volatile ShmemChannel _channel;
+
+  // Shutdown flag (the channel may not exist yet)
+  private volatile boolean _shutdown = false;
+
+  /**
+   * Setup the connection configuration from the given properties
+   * 
+   * @param properties
+   *          the properties of the JDWP session
+   * @throws TransportException
+   *           for any configury errors
+   */
+  public void configure(HashMap properties) throws TransportException {
+    // Get server [form: "y" or "n"]
+    String p = (String) properties.get(_PROPERTY_SERVER);
+    if (p != null) {
+      if (p.toLowerCase().equals("y"))
+        _server = true;
+    }
+
+    // Get address [form: "/path/to/file"]
+    p = (String) properties.get(_PROPERTY_ADDRESS);
+    if (p == null || p.length() == 0) {
+      throw new TransportException(NAME + " requires the shared file path as the address");
+    }
+    _path = new File(p);
+
+    p = (String) properties.get(_PROPERTY_BUFSIZE);
+    if (p != null) {
+      try {
+        _capacity = Integer.parseInt(p);
+      } catch (NumberFormatException nfe) {
+        throw new TransportException("invalid " + _PROPERTY_BUFSIZE + " value: " + p, nfe);
+      }
+      if (_capacity <= 0) {
+        throw new TransportException("invalid " + _PROPERTY_BUFSIZE + " value: " + p);
+      }
+    }
+  }
+
+  /**
+   * Initialize the shared memory. The agent creates the file and waits for the
+   * debugger to attach.
+   * 
+   * @throws TransportException
+   *           if a transport-related error occurs
+   */
+  public void initialize() throws TransportException {
+    try {
+      if (_server) {
+        // published before waiting for the debugger so that shutdown() can
+        // cancel the wait
+        _channel = ShmemChannel.create(_path, _capacity);
+        if (_shutdown) {
+          shutdown();
+        }
+        _channel.awaitAttach();
+      } else {
+        _channel = ShmemChannel.attach(_path, _ATTACH_TIMEOUT_MILLIS);
+      }
+    } catch (IOException ioe) {
+      throw new TransportException(ioe);
+    }
+    if (_shutdown) {
+      shutdown();
+    }
+  }
+
+  /**
+   * Shutdown the shared memory. Anyone blocked on the transport i/o gets an
+   * end of stream.
+   */
+  public void shutdown() {
+    _shutdown = true;
+    ShmemChannel channel = _channel;
+    if (channel != null) {
+      channel.close();
+      if (_server) {
+        _path.delete();
+      }
+    }
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return _channel.getInputStream();
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    return _channel.getOutputStream();
+  }
+
+  @Override
+  public boolean isServer() {
+    return _server;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getAddress() {
+    return _path.getPath();
+  }
+}
@@ -44,6 +44,7 @@ import gnu.classpath.jdwp.transport.TransportException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.HashMap;
@@ -55,6 +56,17 @@ import javax.net.SocketFactory;
  * A socket-based transport. This transport uses configury string that looks
  * like "name=dt_socket, address=localhost:1234,server=y".
  * 
+ * <p>
+ * Additionally, the socket can be tuned by the following options:
+ * <ul>
+ * <li><tt>nodelay=y|n</tt> - whether to disable Nagle's algorithm (TCP_NODELAY),
+ * <tt>y</tt> by default since every packet is written at once</li>
+ * <li><tt>sndbuf=&lt;bytes&gt;</tt> - the socket send buffer size</li>
+ * <li><tt>rcvbuf=&lt;bytes&gt;</tt> - the socket receive buffer size</li>
+ * </ul>
+ * The system defaults are used for the buffer sizes if not specified.
+ * </p>
+ * 
  * @author Keith Seitz (keiths@redhat.com)
  */
 class SocketTransport implements ITransport {
@@ -66,15 +78,25 @@ class SocketTransport implements ITransport {
   // Configure properties
   private static final String _PROPERTY_ADDRESS = "address";
   private static final String _PROPERTY_SERVER = "server";
+  private static final String _PROPERTY_NODELAY = "nodelay";
+  private static final String _PROPERTY_SNDBUF = "sndbuf";
+  private static final String _PROPERTY_RCVBUF = "rcvbuf";
 
   // Port number
-  private int _port;
+  protected int _port;
 
   // Host name
-  private String _host;
+  protected String _host;
 
   // Are we acting as a server?
-  private boolean _server = false;
+  protected boolean _server = false;
+
+  // Disable Nagle's algorithm?
+  protected boolean _tcpNoDelay = true;
+
+  // Socket buffer sizes (0 means the system default)
+  protected int _sendBufferSize = 0;
+  protected int _receiveBufferSize = 0;
 
   // Socket
   private Socket _socket;
@@ -112,6 +134,31 @@ class SocketTransport implements ITransport {
       }
     }
 
+    // Get nodelay [form: "y" or "n"]
+    p = (String) properties.get(_PROPERTY_NODELAY);
+    if (p != null) {
+      _tcpNoDelay = !p.toLowerCase().equals("n");
+    }
+
+    _sendBufferSize = _parseBufferSize(properties, _PROPERTY_SNDBUF);
+    _receiveBufferSize = _parseBufferSize(properties, _PROPERTY_RCVBUF);
+  }
+
+  // Reads a socket buffer size from the properties
+  private static int _parseBufferSize(HashMap properties, String property) throws TransportException {
+    String p = (String) properties.get(property);
+    if (p == null) {
+      return 0;
+    }
+    try {
+      int size = Integer.parseInt(p);
+      if (size < 0) {
+        throw new TransportException("invalid " + property + " value: " + p);
+      }
+      return size;
+    } catch (NumberFormatException nfe) {
+      throw new TransportException("invalid " + property + " value: " + p, nfe);
+    }
   }
 
   /**
@@ -126,12 +173,21 @@ class SocketTransport implements ITransport {
       if (_server) {
         // Get a server socket
         ServerSocketFactory ssf = ServerSocketFactory.getDefault();
-        ServerSocket ss = ssf.createServerSocket(_port, 1);
+        ServerSocket ss = ssf.createServerSocket();
+        if (_receiveBufferSize > 0) {
+          // accepted sockets inherit the receive buffer size and it has to
+          // be set before the bind for the big sizes to take effect
+          ss.setReceiveBufferSize(_receiveBufferSize);
+        }
+        ss.bind(new InetSocketAddress(_port), 1);
         _socket = ss.accept();
+        _configureSocket(_socket);
       } else {
-        // Get a client socket (the factory will connect it)
+        // Get a client socket and connect it once it is configured
         SocketFactory sf = SocketFactory.getDefault();
-        _socket = sf.createSocket(_host, _port);
+        _socket = sf.createSocket();
+        _configureSocket(_socket);
+        _socket.connect(new InetSocketAddress(_host, _port));
       }
     } catch (IOException ioe) {
       // This will grab UnknownHostException, too.
@@ -139,6 +195,17 @@ class SocketTransport implements ITransport {
     }
   }
 
+  // Applies the configured options to the given socket
+  protected void _configureSocket(Socket socket) throws IOException {
+    socket.setTcpNoDelay(_tcpNoDelay);
+    if (_sendBufferSize > 0) {
+      socket.setSendBufferSize(_sendBufferSize);
+    }
+    if (_receiveBufferSize > 0) {
+      socket.setReceiveBufferSize(_receiveBufferSize);
+    }
+  }
+
   /**
    * Shutdown the socket. This could cause SocketExceptions for anyone blocked
    * on socket i/o
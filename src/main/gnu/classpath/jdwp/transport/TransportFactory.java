@@ -61,9 +61,12 @@ public class TransportFactory {
   }
 
   // List of all supported transport methods
-  private static TransportMethod[] _transportMethods = new TransportMethod[] { new TransportMethod(SocketTransport.NAME,
-      SocketTransport.class)
-  // new TransportMethod (ShmemTransport.NAME, ShmemTransport.class)
+  private static TransportMethod[] _transportMethods = new TransportMethod[] {
+      new TransportMethod(SocketTransport.NAME, SocketTransport.class),
+      new TransportMethod(NioSocketTransport.NAME, NioSocketTransport.class),
+      new TransportMethod(UnixSocketTransport.NAME, UnixSocketTransport.class),
+      new TransportMethod(ShmemTransport.NAME, ShmemTransport.class),
+      new TransportMethod(InProcessTransport.NAME, InProcessTransport.class)
   };
 
   /**
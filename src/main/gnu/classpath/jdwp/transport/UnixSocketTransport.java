@@ -0,0 +1,198 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+
+/**
+ * A Unix domain socket transport for debuggers running on the same machine.
+ * This transport uses configury string that looks like
+ * "name=dt_unix, address=/tmp/jpf-jdwp.sock,server=y" where the address is
+ * the path of the socket file.
+ * 
+ * <p>
+ * The packets bypass the TCP/IP stack completely which results in lower round
+ * trip times than {@link SocketTransport} over the loopback interface. The
+ * packets are framed the same way as in {@link NioSocketTransport}.
+ * </p>
+ * <p>
+ * Unix domain socket channels are available since Java 16; the API is
+ * accessed reflectively so that the agent still builds and runs on older
+ * runtimes where this transport just fails to configure.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class UnixSocketTransport extends NioSocketTransport {
+  /**
+   * Name of this transport
+   */
+  public static final String NAME = "dt_unix";
+
+  // Configure properties
+  private static final String _PROPERTY_ADDRESS = "address";
+  private static final String _PROPERTY_SERVER = "server";
+
+  // Path to the socket file
+  private String _path;
+
+  /**
+   * Setup the connection configuration from the given properties
+   * 
+   * @param properties
+   *          the properties of the JDWP session
+   * @throws TransportException
+   *           for any configury errors or if Unix domain sockets are not
+   *           supported by the runtime
+   */
+  public void configure(HashMap properties) throws TransportException {
+    if (!isSupported()) {
+      throw new TransportException(NAME + " requires Unix domain socket channels (Java 16 or newer)");
+    }
+
+    // Get server [form: "y" or "n"]
+    String p = (String) properties.get(_PROPERTY_SERVER);
+    if (p != null) {
+      if (p.toLowerCase().equals("y"))
+        _server = true;
+    }
+
+    // Get address [form: "/path/to/socket"]
+    _path = (String) properties.get(_PROPERTY_ADDRESS);
+    if (_path == null || _path.length() == 0) {
+      throw new TransportException(NAME + " requires the socket path as the address");
+    }
+  }
+
+  /**
+   * Whether Unix domain socket channels are supported by the runtime.
+   * 
+   * @return true if this transport can be used
+   */
+  public static boolean isSupported() {
+    try {
+      _unixProtocolFamily();
+      Class.forName("java.net.UnixDomainSocketAddress");
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Override
+  protected SocketChannel _openChannel() throws IOException {
+    SocketAddress address = _socketAddress(_path);
+    if (_server) {
+      // a socket file left behind by a previous run would prevent the bind
+      _deleteSocketFile(Paths.get(_path));
+
+      ServerSocketChannel ssc = (ServerSocketChannel) _open(ServerSocketChannel.class);
+      try {
+        ssc.bind(address, 1);
+        return ssc.accept();
+      } finally {
+        ssc.close();
+        _deleteSocketFile(Paths.get(_path));
+      }
+    } else {
+      SocketChannel channel = (SocketChannel) _open(SocketChannel.class);
+      channel.connect(address);
+      return channel;
+    }
+  }
+
+  // Deletes the socket file at the path if there's one; anything else at the
+  // path is most likely a mistyped address and is left alone
+  static void _deleteSocketFile(Path path) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      return;
+    }
+    // sockets are neither regular files, directories nor links
+    if (!attributes.isOther()) {
+      throw new IOException("Cannot use " + path + " as the socket path, the file exists and is not a socket");
+    }
+    Files.deleteIfExists(path);
+  }
+
+  // java.net.StandardProtocolFamily.UNIX
+  private static ProtocolFamily _unixProtocolFamily() {
+    return StandardProtocolFamily.valueOf("UNIX");
+  }
+
+  // java.net.UnixDomainSocketAddress.of(path)
+  static SocketAddress _socketAddress(String path) throws IOException {
+    try {
+      Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+      return (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+    } catch (InvocationTargetException e) {
+      throw new IOException("Invalid socket path: " + path, e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported", e);
+    }
+  }
+
+  // ServerSocketChannel.open(UNIX) or SocketChannel.open(UNIX)
+  static Object _open(Class<?> channelClass) throws IOException {
+    try {
+      Method open = channelClass.getMethod("open", ProtocolFamily.class);
+      return open.invoke(null, _unixProtocolFamily());
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported", e);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getAddress() {
+    return _path;
+  }
+}
@@ -23,16 +23,17 @@ package gov.nasa.jpf.jdwp;
 
 import gnu.classpath.jdwp.Jdwp;
 import gov.nasa.jpf.JPF;
-import gov.nasa.jpf.jdwp.event.BreakpointEvent;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jdwp.event.BreakpointInstruction;
 import gov.nasa.jpf.jdwp.event.ClassPrepareEvent;
 import gov.nasa.jpf.jdwp.event.Event;
 import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
 import gov.nasa.jpf.jdwp.event.EventRequestManager;
 import gov.nasa.jpf.jdwp.event.ExceptionEvent;
+import gov.nasa.jpf.jdwp.event.LocationEventProbes;
 import gov.nasa.jpf.jdwp.event.MethodEntryEvent;
 import gov.nasa.jpf.jdwp.event.MethodExitEvent;
 import gov.nasa.jpf.jdwp.event.MethodExitWithReturnValueEvent;
-import gov.nasa.jpf.jdwp.event.SingleStepEvent;
 import gov.nasa.jpf.jdwp.event.ThreadDeathEvent;
 import gov.nasa.jpf.jdwp.event.ThreadStartEvent;
 import gov.nasa.jpf.jdwp.exception.special.NoPropertyViolationException;
@@ -63,7 +64,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -98,6 +98,14 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
   private VirtualMachine virtualMachine;
   private FieldVisitor fieldVisitor = new FieldVisitor();
 
+  private InstructionEvents instructionEvents = new InstructionEvents();
+
+  /**
+   * The event generating delegates that are attached to the VM only if the
+   * debugger requested their events.
+   */
+  private ListenerSubscriptions subscriptions = createSubscriptions();
+
   private boolean runningAsListenerOnly = false;
   // this is here TEMPORARILLY until we solve the JDWP singleton problem
   private Jdwp jdwp;
@@ -161,111 +169,6 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
     this.virtualMachine = virtualMachine;
   }
 
-  @Override
-  public void methodEntered(VM vm, ThreadInfo currentThread, MethodInfo enteredMethod) {
-    if (hasNonnullEventRequests(EventKind.METHOD_ENTRY)) {
-      Instruction instruction = enteredMethod.getInstruction(0);
-      if (instruction.getMethodInfo() != null && instruction.getMethodInfo().getClassInfo() != null) {
-        MethodEntryEvent methodEntryEvent = new MethodEntryEvent(currentThread, Location.factory(instruction));
-        dispatchEvent(methodEntryEvent);
-      }
-    }
-  }
-
-  /*
-   * (non-Javadoc)
-   * 
-   * @see gov.nasa.jpf.jdwp.JDWPListenerBase#methodExited(gov.nasa.jpf.vm.VM,
-   * gov.nasa.jpf.vm.ThreadInfo, gov.nasa.jpf.vm.MethodInfo)
-   */
-  @Override
-  public void methodExited(VM vm, ThreadInfo currentThread, MethodInfo exitedMethod) {
-    if (hasNonnullEventRequests(EventKind.METHOD_EXIT, EventKind.METHOD_EXIT_WITH_RETURN_VALUE)) {
-      if (currentThread.getPendingException() != null) {
-        // according to the specification, if exception is thrown, no
-        // method exit events are generated
-        return;
-      }
-      Instruction instruction = exitedMethod.getInstruction(0);
-      if (instruction.getMethodInfo() != null && instruction.getMethodInfo().getClassInfo() != null) {
-        Event methodExitEvent;
-
-        // The specification isn't clear whether these two events are
-        // exclusive or not and thus we let decide the debugger which
-        // ones are requested.
-
-        if (hasNonnullEventRequests(EventKind.METHOD_EXIT_WITH_RETURN_VALUE)) {
-          Value returnValue = ValueUtils.methodReturnValue(exitedMethod, currentThread.getTopFrame());
-          methodExitEvent = new MethodExitWithReturnValueEvent(currentThread, Location.factory(instruction), returnValue);
-          dispatchEvent(methodExitEvent);
-        }
-
-        if (hasNonnullEventRequests(EventKind.METHOD_EXIT)) {
-          methodExitEvent = new MethodExitEvent(currentThread, Location.factory(instruction));
-          dispatchEvent(methodExitEvent);
-        }
-      }
-    }
-  }
-
-  /**
-   * Thread start handler. <br/>
-   * Thread starts work without any problems.
-   * 
-   * @see JDWPListener#threadTerminated(VM, ThreadInfo)
-   */
-  @Override
-  public void threadStarted(VM vm, ThreadInfo startedThread) {
-    if (hasNonnullEventRequests(EventKind.THREAD_START)) {
-      // TODO Waiting for fix in JPF - already submitted to Peter
-      startedThread.setState(State.RUNNING);
-      lastKnownThreadStates.put(startedThread.getThreadObjectRef(), State.RUNNING);
-      logger.info("Started thread: " + startedThread);
-
-      ThreadStartEvent threadStartEvent = new ThreadStartEvent(startedThread);
-      dispatchEvent(threadStartEvent);
-    }
-  }
-
-  /**
-   * Thread termination handler.<br/>
-   * Note that there is not 1:1 relation between thread terminates and starts if
-   * states are traversed by JPF. Because of that a custom behavior needs to be
-   * implemented if not debugging a single trace.<br/>
-   * <h2>Eclipse debugger</h2>
-   * <ul>
-   * <li>Thread starts are ok - doesn't matter how many times a thread start is
-   * received (unless a race occurs which happens with Eclipse Juno for
-   * instance). In that case a thread can be shown multiple times in the Debug
-   * view.</li>
-   * <li>Thread deaths are so not ok. Eclipse implements deferred thread deaths
-   * handling if a thread is not known which makes thread disappear right after
-   * it is created and thread start event is received. Needs to be investigated
-   * more ... seems to be very tricky.<br/>
-   * As a workaround for those weird deferred deaths handling, we're always
-   * sending thread start event right before thread death event is sent - it
-   * helps but doesn't avoid all the problems.</li>
-   * </ul>
-   * 
-   * @see JDWPListener#threadStarted(VM, ThreadInfo)
-   * 
-   */
-  @Override
-  public void threadTerminated(VM vm, ThreadInfo terminatedThread) {
-    if (hasNonnullEventRequests(EventKind.THREAD_DEATH)) {
-      // this is the workaround for Eclipse and it's deferred thread
-      // deaths handling
-      ThreadStartEvent ts = new ThreadStartEvent(terminatedThread);
-      dispatchEvent(ts);
-
-      lastKnownThreadStates.put(terminatedThread.getThreadObjectRef(), State.TERMINATED);
-      logger.debug("Thread terminated: {}", terminatedThread);
-
-      ThreadDeathEvent td = new ThreadDeathEvent(terminatedThread);
-      dispatchEvent(td);
-    }
-  }
-
   /**
    * This list is populated with all the classes that were loaded during the JPF
    * startup prior the time it was allowed to start sending events because no
@@ -297,11 +200,19 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
   public void instructionExecuted(VM vm, ThreadInfo currentThread, Instruction nextInstruction, Instruction executedInstruction) {
     // just to let the other thread run the jdwp commands
     virtualMachine.getExecutionManager().executionHook();
+    subscriptions.update(vm);
+  }
+
+  @Override
+  public void executeInstruction(VM vm, ThreadInfo currentThread, Instruction instructionToExecute) {
+    virtualMachine.getExecutionManager().executionHook();
+    subscriptions.update(vm);
   }
 
   @Override
   public void vmInitialized(VM vm) {
     virtualMachine.startHook(vm, postponedLoadedClasses);
+    subscriptions.update(vm);
 
     // we also need to send thread start event which is not generated
     // by design by JPF
@@ -311,55 +222,29 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
     dispatchEvent(threadStartEvent);
   }
 
-  private List<Event> addAndConditionallyInit(Event event, List<Event> events) {
-    if (events == null) {
-      events = new LinkedList<>();
-    }
-    events.add(event);
-    return events;
-  }
-
   @Override
-  public void executeInstruction(VM vm, ThreadInfo currentThread, Instruction instructionToExecute) {
-
-    virtualMachine.getExecutionManager().executionHook();
-
-    if (instructionToExecute.getMethodInfo() != null && instructionToExecute.getMethodInfo().getClassInfo() != null) {
-
-      List<Event> locationGroupEvents = null;
-
-      if (logger.isTraceEnabled()) {
-        if (instructionToExecute instanceof InvokeInstruction) {
-          // This requires InvokeInstruction#arguments to be
-          // public .. since this is just for debugging it has to be
-          // removed
-          // logger.trace("Instruction: '{}' args: {} line: {}",
-          // instructionToExecute, ((InvokeInstruction)
-          // instructionToExecute).arguments,
-          // instructionToExecute.getFileLocation());
-        } else {
-          logger.trace("Instruction: '{}' line: {}", instructionToExecute, instructionToExecute.getFileLocation());
-        }
-      }
-      Location locationOfInstructionToExecute = Location.factory(instructionToExecute);
-
-      if (hasNonnullEventRequests(EventKind.BREAKPOINT)) {
-        BreakpointEvent breakpointEvent = new BreakpointEvent(currentThread, locationOfInstructionToExecute);
-        locationGroupEvents = addAndConditionallyInit(breakpointEvent, locationGroupEvents);
-      }
+  public void threadTerminated(VM vm, ThreadInfo terminatedThread) {
+    // a dead thread must not be counted as suspended forever
+    virtualMachine.getExecutionManager().threadTerminated(terminatedThread);
+  }
 
-      if (hasNonnullEventRequests(EventKind.FIELD_ACCESS, EventKind.FIELD_MODIFICATION) && instructionToExecute instanceof FieldInstruction) {
-        fieldVisitor.initalize(currentThread);
-        ((FieldInstruction) instructionToExecute).accept(fieldVisitor);
-      }
+  private ListenerSubscriptions createSubscriptions() {
+    ListenerSubscriptions subscriptions = new ListenerSubscriptions(Jdwp.getEventRequestManager());
 
-      if (hasNonnullEventRequests(EventKind.SINGLE_STEP)) {
-        SingleStepEvent singleStepEvent = new SingleStepEvent(currentThread, locationOfInstructionToExecute);
-        locationGroupEvents = addAndConditionallyInit(singleStepEvent, locationGroupEvents);
+    subscriptions.add(new ListenerSubscriptions.EventKindSubscription(instructionEvents, EventKind.SINGLE_STEP,
+        EventKind.FIELD_ACCESS, EventKind.FIELD_MODIFICATION) {
+      @Override
+      boolean isNeeded(EventRequestManager eventRequestManager) {
+        return eventRequestManager.hasIndexedBreakpoints() || super.isNeeded(eventRequestManager);
       }
-
-      dispatchEvent(locationGroupEvents);
-    }
+    });
+    subscriptions.add(new ListenerSubscriptions.EventKindSubscription(new MethodEvents(), EventKind.METHOD_ENTRY, EventKind.METHOD_EXIT,
+        EventKind.METHOD_EXIT_WITH_RETURN_VALUE));
+    subscriptions.add(new ListenerSubscriptions.EventKindSubscription(new ThreadEvents(), EventKind.THREAD_START,
+        EventKind.THREAD_DEATH));
+    subscriptions.add(new ListenerSubscriptions.EventKindSubscription(new ExceptionEvents(), EventKind.EXCEPTION));
+
+    return subscriptions;
   }
 
   /**
@@ -440,19 +325,6 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
     }
   }
 
-  @Override
-  public void exceptionThrown(VM vm, ThreadInfo currentThread, ElementInfo thrownException) {
-    logger.trace("Exception thrown: {}", thrownException);
-
-    HandlerContext handlerContext = currentThread.getHandlerContextFor(thrownException.getClassInfo());
-
-    if (handlerContext != null) {
-      caughtExceptionThrown(vm, currentThread, thrownException, handlerContext.getFrame(), handlerContext.getHandler());
-    } else {
-      uncaughtExceptionThrown(vm, currentThread, thrownException);
-    }
-  }
-
   /**
    * A helper method for dispatching events.<br/>
    * Note that this is not the only point where events are dispatched.
@@ -525,6 +397,7 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
   @Override
   public void stateBacktracked(Search search) {
     logger.trace("State backtracked: {}");
+    instructionEvents.locationEventProbes.stateRestored();
     fixThreadNotificationState();
   }
 
@@ -555,6 +428,7 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
   @Override
   public void stateRestored(Search search) {
     logger.trace("Processing search");
+    instructionEvents.locationEventProbes.stateRestored();
     fixThreadNotificationState();
   }
 
@@ -653,4 +527,200 @@ public class JDWPListener extends JDWPSearchBase implements VMListener {
     throw new ClassParseException("Prepared buffer too short.");
   }
 
+  /**
+   * Generates the breakpoint, single step and field watch events.<br/>
+   * Not needed for the breakpoints if all of them are patched.
+   */
+  private class InstructionEvents extends ListenerAdapter {
+
+    private final LocationEventProbes locationEventProbes = new LocationEventProbes(Jdwp.getEventRequestManager());
+
+    @Override
+    public void executeInstruction(VM vm, ThreadInfo currentThread, Instruction instructionToExecute) {
+
+      if (instructionToExecute.getMethodInfo() != null && instructionToExecute.getMethodInfo().getClassInfo() != null) {
+
+        if (logger.isTraceEnabled()) {
+          if (instructionToExecute instanceof InvokeInstruction) {
+            // This requires InvokeInstruction#arguments to be
+            // public .. since this is just for debugging it has to be
+            // removed
+            // logger.trace("Instruction: '{}' args: {} line: {}",
+            // instructionToExecute, ((InvokeInstruction)
+            // instructionToExecute).arguments,
+            // instructionToExecute.getFileLocation());
+          } else {
+            logger.trace("Instruction: '{}' line: {}", instructionToExecute, instructionToExecute.getFileLocation());
+          }
+        }
+        Instruction instruction = instructionToExecute;
+        boolean breakpointSite;
+
+        if (instruction instanceof BreakpointInstruction) {
+          // a patched breakpoint site reports the breakpoint on its own unless
+          // it has to be in the same composite as the single step event
+          BreakpointInstruction breakpointInstruction = (BreakpointInstruction) instruction;
+          instruction = breakpointInstruction.getOriginal();
+          breakpointSite = hasNonnullEventRequests(EventKind.SINGLE_STEP) && breakpointInstruction.claim(currentThread);
+        } else {
+          breakpointSite = Jdwp.getEventRequestManager().isBreakpointSite(instruction);
+        }
+
+        // the probes create the events only if they match some requests
+        locationEventProbes.begin(currentThread, instruction);
+
+        if (breakpointSite) {
+          locationEventProbes.probeBreakpoint();
+        }
+
+        if (hasNonnullEventRequests(EventKind.FIELD_ACCESS, EventKind.FIELD_MODIFICATION) && instruction instanceof FieldInstruction) {
+          fieldVisitor.initalize(currentThread);
+          ((FieldInstruction) instruction).accept(fieldVisitor);
+        }
+
+        if (hasNonnullEventRequests(EventKind.SINGLE_STEP)) {
+          locationEventProbes.probeSingleStep();
+        }
+
+        locationEventProbes.dispatch();
+      }
+    }
+  }
+
+  /**
+   * Generates the method entry and exit events.
+   */
+  private class MethodEvents extends ListenerAdapter {
+
+    @Override
+    public void methodEntered(VM vm, ThreadInfo currentThread, MethodInfo enteredMethod) {
+      if (hasNonnullEventRequests(EventKind.METHOD_ENTRY)) {
+        Instruction instruction = enteredMethod.getInstruction(0);
+        if (instruction.getMethodInfo() != null && instruction.getMethodInfo().getClassInfo() != null) {
+          MethodEntryEvent methodEntryEvent = new MethodEntryEvent(currentThread, Location.factory(instruction));
+          dispatchEvent(methodEntryEvent);
+        }
+      }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see gov.nasa.jpf.jdwp.JDWPListenerBase#methodExited(gov.nasa.jpf.vm.VM,
+     * gov.nasa.jpf.vm.ThreadInfo, gov.nasa.jpf.vm.MethodInfo)
+     */
+    @Override
+    public void methodExited(VM vm, ThreadInfo currentThread, MethodInfo exitedMethod) {
+      if (hasNonnullEventRequests(EventKind.METHOD_EXIT, EventKind.METHOD_EXIT_WITH_RETURN_VALUE)) {
+        if (currentThread.getPendingException() != null) {
+          // according to the specification, if exception is thrown, no
+          // method exit events are generated
+          return;
+        }
+        Instruction instruction = exitedMethod.getInstruction(0);
+        if (instruction.getMethodInfo() != null && instruction.getMethodInfo().getClassInfo() != null) {
+          Event methodExitEvent;
+
+          // The specification isn't clear whether these two events are
+          // exclusive or not and thus we let decide the debugger which
+          // ones are requested.
+
+          if (hasNonnullEventRequests(EventKind.METHOD_EXIT_WITH_RETURN_VALUE)) {
+            Value returnValue = ValueUtils.methodReturnValue(exitedMethod, currentThread.getTopFrame());
+            methodExitEvent = new MethodExitWithReturnValueEvent(currentThread, Location.factory(instruction), returnValue);
+            dispatchEvent(methodExitEvent);
+          }
+
+          if (hasNonnullEventRequests(EventKind.METHOD_EXIT)) {
+            methodExitEvent = new MethodExitEvent(currentThread, Location.factory(instruction));
+            dispatchEvent(methodExitEvent);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Generates the thread start and death events.
+   */
+  private class ThreadEvents extends ListenerAdapter {
+
+    /**
+     * Thread start handler. <br/>
+     * Thread starts work without any problems.
+     * 
+     * @see #threadTerminated(VM, ThreadInfo)
+     */
+    @Override
+    public void threadStarted(VM vm, ThreadInfo startedThread) {
+      if (hasNonnullEventRequests(EventKind.THREAD_START)) {
+        // TODO Waiting for fix in JPF - already submitted to Peter
+        startedThread.setState(State.RUNNING);
+        lastKnownThreadStates.put(startedThread.getThreadObjectRef(), State.RUNNING);
+        logger.info("Started thread: " + startedThread);
+
+        ThreadStartEvent threadStartEvent = new ThreadStartEvent(startedThread);
+        dispatchEvent(threadStartEvent);
+      }
+    }
+
+    /**
+     * Thread termination handler.<br/>
+     * Note that there is not 1:1 relation between thread terminates and starts if
+     * states are traversed by JPF. Because of that a custom behavior needs to be
+     * implemented if not debugging a single trace.<br/>
+     * <h2>Eclipse debugger</h2>
+     * <ul>
+     * <li>Thread starts are ok - doesn't matter how many times a thread start is
+     * received (unless a race occurs which happens with Eclipse Juno for
+     * instance). In that case a thread can be shown multiple times in the Debug
+     * view.</li>
+     * <li>Thread deaths are so not ok. Eclipse implements deferred thread deaths
+     * handling if a thread is not known which makes thread disappear right after
+     * it is created and thread start event is received. Needs to be investigated
+     * more ... seems to be very tricky.<br/>
+     * As a workaround for those weird deferred deaths handling, we're always
+     * sending thread start event right before thread death event is sent - it
+     * helps but doesn't avoid all the problems.</li>
+     * </ul>
+     * 
+     * @see #threadStarted(VM, ThreadInfo)
+     * 
+     */
+    @Override
+    public void threadTerminated(VM vm, ThreadInfo terminatedThread) {
+      if (hasNonnullEventRequests(EventKind.THREAD_DEATH)) {
+        // this is the workaround for Eclipse and it's deferred thread
+        // deaths handling
+        ThreadStartEvent ts = new ThreadStartEvent(terminatedThread);
+        dispatchEvent(ts);
+
+        lastKnownThreadStates.put(terminatedThread.getThreadObjectRef(), State.TERMINATED);
+        logger.debug("Thread terminated: {}", terminatedThread);
+
+        ThreadDeathEvent td = new ThreadDeathEvent(terminatedThread);
+        dispatchEvent(td);
+      }
+    }
+  }
+
+  /**
+   * Generates the exception events.
+   */
+  private class ExceptionEvents extends ListenerAdapter {
+
+    @Override
+    public void exceptionThrown(VM vm, ThreadInfo currentThread, ElementInfo thrownException) {
+      logger.trace("Exception thrown: {}", thrownException);
+
+      HandlerContext handlerContext = currentThread.getHandlerContextFor(thrownException.getClassInfo());
+
+      if (handlerContext != null) {
+        caughtExceptionThrown(vm, currentThread, thrownException, handlerContext.getFrame(), handlerContext.getHandler());
+      } else {
+        uncaughtExceptionThrown(vm, currentThread, thrownException);
+      }
+    }
+  }
+
 }
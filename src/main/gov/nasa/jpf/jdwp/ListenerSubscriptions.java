@@ -0,0 +1,154 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp;
+
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.EventRequestManager;
+import gov.nasa.jpf.vm.VM;
+import gov.nasa.jpf.vm.VMListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Attaches and detaches listener delegates to and from the JPF {@link VM}
+ * according to the registered event requests.<br/>
+ * A delegate is attached only while there is an event request it generates
+ * events for so that the JPF doesn't notify it for nothing.
+ * </p>
+ * <p>
+ * The subscriptions are updated only from the VM thread. The event request
+ * changes are detected by the {@link EventRequestManager#getGeneration()
+ * generation} of the requests which makes the check cheap enough to be done
+ * for every instruction.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+class ListenerSubscriptions {
+
+  final static Logger logger = LoggerFactory.getLogger(ListenerSubscriptions.class);
+
+  /**
+   * A listener delegate and the condition it is needed under.
+   */
+  static abstract class Subscription {
+
+    private final VMListener delegate;
+    private boolean attached = false;
+
+    Subscription(VMListener delegate) {
+      this.delegate = delegate;
+    }
+
+    /**
+     * Whether the delegate has to be attached.
+     * 
+     * @param eventRequestManager
+     *          The event request manager.
+     * @return true or false
+     */
+    abstract boolean isNeeded(EventRequestManager eventRequestManager);
+
+    @Override
+    public String toString() {
+      return delegate.getClass().getSimpleName();
+    }
+  }
+
+  /**
+   * A subscription that is needed if there is a request for any of the given
+   * event kinds.
+   */
+  static class EventKindSubscription extends Subscription {
+
+    private final EventKind[] eventKinds;
+
+    EventKindSubscription(VMListener delegate, EventKind... eventKinds) {
+      super(delegate);
+      this.eventKinds = eventKinds;
+    }
+
+    @Override
+    boolean isNeeded(EventRequestManager eventRequestManager) {
+      for (EventKind eventKind : eventKinds) {
+        if (eventRequestManager.eventRequestCount(eventKind) > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final EventRequestManager eventRequestManager;
+  private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+  /**
+   * The generation of the event requests the subscriptions were updated for.
+   */
+  private int generation;
+
+  ListenerSubscriptions(EventRequestManager eventRequestManager) {
+    this.eventRequestManager = eventRequestManager;
+    this.generation = eventRequestManager.getGeneration() - 1;
+  }
+
+  void add(Subscription subscription) {
+    subscriptions.add(subscription);
+  }
+
+  /**
+   * Attaches the delegates that are needed and detaches the ones that are
+   * not if the event requests changed since the last update.<br/>
+   * Must be called from the VM thread.
+   * 
+   * @param vm
+   *          The VM to attach the delegates to.
+   */
+  void update(VM vm) {
+    int currentGeneration = eventRequestManager.getGeneration();
+    if (currentGeneration == generation) {
+      return;
+    }
+    generation = currentGeneration;
+
+    for (Subscription subscription : subscriptions) {
+      boolean needed = subscription.isNeeded(eventRequestManager);
+      if (needed && !subscription.attached) {
+        vm.addListener(subscription.delegate);
+        subscription.attached = true;
+        logger.debug("Listener delegate attached: {}", subscription);
+      } else if (!needed && subscription.attached) {
+        vm.removeListener(subscription.delegate);
+        subscription.attached = false;
+        logger.debug("Listener delegate detached: {}", subscription);
+      }
+    }
+  }
+
+}
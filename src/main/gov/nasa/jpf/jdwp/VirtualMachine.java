@@ -38,11 +38,10 @@ import gov.nasa.jpf.vm.ThreadInfo.State;
 import gov.nasa.jpf.vm.VM;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,6 +102,8 @@ public class VirtualMachine {
 
   public VirtualMachine(JPF jpf) {
     this.jpf = jpf;
+    this.runLock = new SafeLock("run-lock", jpf.getConfig().getBoolean("jpf-jdwp.runlock.fair", false));
+    this.commandLockTimeout = jpf.getConfig().getLong("jpf-jdwp.commands.lockTimeout", 0);
   }
 
   public synchronized void startHook(VM vm, List<ClassInfo> postponedLoadedClasses) {
@@ -141,7 +142,8 @@ public class VirtualMachine {
    * 
    */
   public class ExecutionManager {
-    boolean allThreadsSuspended = false;
+    // read by the JPF thread without locking for every instruction
+    volatile boolean allThreadsSuspended = false;
 
     public boolean isAllThreadsSuspended() {
       return allThreadsSuspended;
@@ -150,15 +152,18 @@ public class VirtualMachine {
     /**
      * Should be called when JPF is not in the middle of instruction execution.<br/>
      * Should be called as often as possible so that JDWP commands can be run by
-     * releasing the runlock.
+     * releasing the runlock.<br/>
+     * Unless the VM is suspended, exiting or a command waits for the runlock,
+     * this is just a few volatile reads.
      */
     public void executionHook() {
-      suspendIfSuspended();
+      if (allThreadsSuspended) {
+        suspendIfSuspended();
+      }
       exitIfInExit();
 
       // It is important to voluntarily let others to access and run JPF
-      runLock.unlock();
-      runLock.lock();
+      runLock.yieldToWaitingThreads();
     }
 
     /**
@@ -174,17 +179,13 @@ public class VirtualMachine {
      * thread must be higher than its number of suspensions.
      */
     private synchronized void conditionallyResumeVM() {
-      boolean resume = true;
-
-      for (ThreadInfo liveThreadInfo : jpf.getVM().getLiveThreads()) {
-        if (threadManager.suspensionCount(liveThreadInfo) > 0) {
-          resume = false;
-          logger.debug("Not resuming because of thread: {}", liveThreadInfo);
-        }
-      }
-
-      if (resume) {
+      // the terminated threads are forgotten, hence the suspended threads are
+      // all alive
+      int suspendedThreads = threadManager.suspendedThreads();
+      if (suspendedThreads == 0) {
         resumeAllThreads();
+      } else {
+        logger.debug("Not resuming because of {} suspended threads", suspendedThreads);
       }
     }
 
@@ -254,6 +255,16 @@ public class VirtualMachine {
       conditionallyResumeVM();
     }
 
+    /**
+     * Forgets the suspensions of a thread that terminated.
+     * 
+     * @param threadInfo
+     *          The terminated thread.
+     */
+    public void threadTerminated(ThreadInfo threadInfo) {
+      threadManager.threadTerminated(threadInfo);
+    }
+
     /**
      * Suspend count for a thread.
      * 
@@ -464,7 +475,7 @@ public class VirtualMachine {
   }
 
   private int exitCode = 0;
-  private boolean inExit = false;
+  private volatile boolean inExit = false;
 
   /**
    * Checks whether a proper thread is running the code.
@@ -475,58 +486,111 @@ public class VirtualMachine {
     }
   }
 
-  public class ThreadManager {
+  /**
+   * Keeps the suspension counts of the threads.<br/>
+   * The counts are kept in an array indexed by the (dense) thread id together
+   * with the number of threads whose count is not zero. The counts are changed
+   * under the lock of this manager, yet they are read without any locking.
+   */
+  public static class ThreadManager {
 
-    private final Map<Integer, Integer> threadContextDataMap = new HashMap<Integer, Integer>();
+    // replaced by a bigger copy once a thread id doesn't fit
+    private volatile AtomicIntegerArray suspensionCounts = new AtomicIntegerArray(64);
 
-    public synchronized void suspensionCountInc(ThreadInfo threadInfo) {
-      int suspensionCount = 1;
-      int threadIntId = threadInfo.getThreadObjectRef();
-      
-      if (threadContextDataMap.containsKey(threadIntId)) {
-        suspensionCount = threadContextDataMap.get(threadIntId);
-        threadContextDataMap.put(threadIntId, ++suspensionCount);
-      } else {
-        threadContextDataMap.put(threadIntId, suspensionCount);
-      }
-      
+    // the number of threads with a non zero suspension count
+    private volatile int suspendedThreads = 0;
+
+    public void suspensionCountInc(ThreadInfo threadInfo) {
+      int suspensionCount = increment(threadInfo.getId());
       logger.debug("Suspension count of thread {} increased to: {}", threadInfo, suspensionCount);
     }
 
-    public synchronized void suspensionCountDec(ThreadInfo threadInfo) {
+    public void suspensionCountDec(ThreadInfo threadInfo) {
+      int suspensionCount = decrement(threadInfo.getId());
+      logger.debug("Suspension count of thread {} decreased to: {}", threadInfo, suspensionCount);
+    }
+
+    public int suspensionCount(ThreadInfo threadInfo) {
+      return count(threadInfo.getId());
+    }
+
+    /**
+     * Forgets the suspension count of a thread that is not alive anymore so
+     * that it doesn't count as suspended.
+     * 
+     * @param threadInfo
+     *          The terminated thread.
+     */
+    public void threadTerminated(ThreadInfo threadInfo) {
+      clear(threadInfo.getId());
+    }
+
+    /**
+     * The number of threads whose suspension count is not zero.
+     * 
+     * @return The number of suspended threads.
+     */
+    public int suspendedThreads() {
+      return suspendedThreads;
+    }
+
+    synchronized int increment(int threadId) {
+      int suspensionCount = ensureCapacity(threadId).incrementAndGet(threadId);
+      if (suspensionCount == 1) {
+        ++suspendedThreads;
+      }
+      return suspensionCount;
+    }
+
+    synchronized int decrement(int threadId) {
       int suspensionCount = 0;
-      int threadIntId = threadInfo.getThreadObjectRef();
-      
-      if (threadContextDataMap.containsKey(threadIntId)) {
-        suspensionCount = threadContextDataMap.get(threadIntId);
+      AtomicIntegerArray counts = suspensionCounts;
+
+      // a thread may be missing here - if a thread is started after some
+      // other thread was suspended, it has no count yet when all threads are
+      // resumed
+      if (threadId < counts.length()) {
+        suspensionCount = counts.get(threadId);
         if (suspensionCount > 0) {
-          threadContextDataMap.put(threadIntId, --suspensionCount);
+          counts.set(threadId, --suspensionCount);
+          if (suspensionCount == 0) {
+            --suspendedThreads;
+          }
         }
-      } else {
-        // this can really happen - we don't have a thread and it is being suspended
-        // if a thread is started it's not here yet, then some other thread is suspended
-        // this new thread is not here yet and then all threads are resumed and bang
-        // we're here
-        threadContextDataMap.put(threadIntId, suspensionCount);
       }
-      
-      logger.debug("Suspension count of thread {} decreased to: {}", threadInfo, suspensionCount);
+      return suspensionCount;
     }
 
-    public synchronized int suspensionCount(ThreadInfo threadInfo) {
-      int threadIntId = threadInfo.getThreadObjectRef();
-      if (threadContextDataMap.containsKey(threadIntId)) {
-        return threadContextDataMap.get(threadIntId);
-      } else {
-        return 0;
+    synchronized void clear(int threadId) {
+      AtomicIntegerArray counts = suspensionCounts;
+      if (threadId < counts.length() && counts.getAndSet(threadId, 0) > 0) {
+        --suspendedThreads;
       }
     }
 
+    int count(int threadId) {
+      AtomicIntegerArray counts = suspensionCounts;
+      return threadId < counts.length() ? counts.get(threadId) : 0;
+    }
+
+    private AtomicIntegerArray ensureCapacity(int threadId) {
+      AtomicIntegerArray counts = suspensionCounts;
+      if (threadId >= counts.length()) {
+        AtomicIntegerArray grown = new AtomicIntegerArray(Math.max(threadId + 1, counts.length() * 2));
+        for (int i = 0; i < counts.length(); ++i) {
+          grown.set(i, counts.get(i));
+        }
+        suspensionCounts = counts = grown;
+      }
+      return counts;
+    }
+
   }
 
   public int lastCreatedString = -1;
 
-  private SafeLock runLock = new SafeLock("run-lock");
+  private SafeLock runLock;
+  private long commandLockTimeout;
   private Thread executionThread;
   private Jdwp jdwp;
 
@@ -534,6 +598,16 @@ public class VirtualMachine {
     return runLock;
   }
 
+  /**
+   * How long a command waits for the run lock before it fails.
+   * 
+   * @return The timeout in milliseconds or 0 if the commands wait as long as
+   *         it takes.
+   */
+  public long getCommandLockTimeout() {
+    return commandLockTimeout;
+  }
+
   /**
    * Instructs JPF and JDWP threads to exit. This method is only a trigger of
    * all shutdown sequences.
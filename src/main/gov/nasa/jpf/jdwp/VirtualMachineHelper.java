@@ -22,6 +22,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package gov.nasa.jpf.jdwp;
 
 import gov.nasa.jpf.jdwp.command.CommandContextProvider;
+import gov.nasa.jpf.jdwp.event.BreakpointInstruction;
 import gov.nasa.jpf.jdwp.id.JdwpIdManager;
 import gov.nasa.jpf.jdwp.id.object.ObjectId;
 import gov.nasa.jpf.jdwp.id.object.special.NullObjectId;
@@ -293,6 +294,7 @@ public class VirtualMachineHelper {
       value.push(frame);
     }
 
+    BreakpointInstruction.beginHiddenExecution();
     try {
       thread.executeMethodHidden(frame);
       // ti.advancePC();
@@ -306,6 +308,7 @@ public class VirtualMachineHelper {
       // want to continue execution
       return new MethodResult(NullObjectId.getInstance(), exception);
     } finally {
+      BreakpointInstruction.endHiddenExecution();
       if (noTopFrame) {
         thread.popDirectCallFrame();
       }
@@ -22,14 +22,22 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package gov.nasa.jpf.jdwp.command;
 
 import gov.nasa.jpf.JPF.Status;
+import gov.nasa.jpf.jdwp.VirtualMachine;
 import gov.nasa.jpf.jdwp.exception.IllegalArgumentException;
 import gov.nasa.jpf.jdwp.exception.InternalException;
 import gov.nasa.jpf.jdwp.exception.JdwpException;
 import gov.nasa.jpf.jdwp.exception.VmDeadException;
+import gov.nasa.jpf.jdwp.stats.CommandStatistics;
+import gov.nasa.jpf.jdwp.util.SafeLock;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -198,8 +206,32 @@ public enum CommandSet implements ConvertibleEnum<Byte, CommandSet> {
     // block
     Throwable chainError = null;
 
+    // null unless the statistics are enabled
+    CommandStatistics statistics = CommandStatistics.getInstance();
+    long lockRequested = 0;
+    long lockAcquired = 0;
+    int replySizeBefore = 0;
+    boolean locked = false;
+    // the VM cannot change while all the threads are suspended unless a
+    // mutating command runs, hence the read-only commands may run in parallel;
+    // the urgent ones only read a thread and its suspension count, which no
+    // read-only command changes, so they share the lock even if the VM runs
+    boolean shared = isReadOnly(command)
+        && (isUrgent(command) || contextProvider.getVirtualMachine().getExecutionManager().isAllThreadsSuspended());
+
     try {
-      contextProvider.getVirtualMachine().getRunLock().lock();
+      if (statistics != null) {
+        replySizeBefore = os.size();
+        lockRequested = System.nanoTime();
+      }
+      if (!lockRunLock(contextProvider.getVirtualMachine(), shared)) {
+        throw new InternalException("The run lock was not obtained within " + contextProvider.getVirtualMachine().getCommandLockTimeout()
+            + " ms, command: " + command);
+      }
+      locked = true;
+      if (statistics != null) {
+        lockAcquired = System.nanoTime();
+      }
       logger.info("Running command: {} (class: {})", command, command.getClass());
       command.execute(bytes, os, contextProvider);
     } catch (RuntimeException e) {
@@ -212,7 +244,18 @@ public enum CommandSet implements ConvertibleEnum<Byte, CommandSet> {
       chainError = e;
     } finally {
       logger.trace("Command ended: {} (class: {})", command, command.getClass());
-      contextProvider.getVirtualMachine().getRunLock().unlock();
+      if (locked) {
+        if (shared) {
+          contextProvider.getVirtualMachine().getRunLock().unlockShared();
+        } else {
+          contextProvider.getVirtualMachine().getRunLock().unlock();
+        }
+      }
+
+      if (statistics != null && lockAcquired != 0) {
+        int replySize = chainError == null ? os.size() - replySizeBefore : -1;
+        statistics.record(command, lockAcquired - lockRequested, System.nanoTime() - lockAcquired, replySize);
+      }
 
       // This is how we detect JPF has terminated
       if (contextProvider.getJPF().getStatus() == Status.DONE) {
@@ -242,4 +285,104 @@ public enum CommandSet implements ConvertibleEnum<Byte, CommandSet> {
     }
   }
 
+  /**
+   * Obtains the run lock for a command.
+   * 
+   * @param virtualMachine
+   *          The VM.
+   * @param shared
+   *          Whether the lock is obtained in the shared mode.
+   * @return false if the lock wasn't obtained within the configured timeout
+   */
+  private static boolean lockRunLock(VirtualMachine virtualMachine, boolean shared) {
+    long timeout = virtualMachine.getCommandLockTimeout();
+    SafeLock runLock = virtualMachine.getRunLock();
+    if (timeout <= 0) {
+      if (shared) {
+        runLock.lockShared();
+      } else {
+        runLock.lock();
+      }
+      return true;
+    }
+    return shared ? runLock.tryLockShared(timeout, TimeUnit.MILLISECONDS) : runLock.tryLock(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The commands that only read the state of the VM and the JDWP agent.
+   */
+  private static final Set<Command> READ_ONLY_COMMANDS = Collections.unmodifiableSet(new HashSet<Command>(Arrays.<Command> asList(
+      VirtualMachineCommand.VERSION, VirtualMachineCommand.CLASSESBYSIGNATURE, VirtualMachineCommand.ALLCLASSES,
+      VirtualMachineCommand.ALLTHREADS, VirtualMachineCommand.TOPLEVELTHREADGROUPS, VirtualMachineCommand.IDSIZES,
+      VirtualMachineCommand.CAPABILITIES, VirtualMachineCommand.CLASSPATHS, VirtualMachineCommand.CAPABILITIESNEW,
+      VirtualMachineCommand.ALLCLASSESWITHGENERIC, VirtualMachineCommand.INSTANCECOUNTS,
+
+      ReferenceTypeCommand.SIGNATURE, ReferenceTypeCommand.CLASSLOADER, ReferenceTypeCommand.MODIFIERS, ReferenceTypeCommand.FIELDS,
+      ReferenceTypeCommand.METHODS, ReferenceTypeCommand.GETVALUES, ReferenceTypeCommand.SOURCEFILE, ReferenceTypeCommand.NESTEDTYPES,
+      ReferenceTypeCommand.STATUS, ReferenceTypeCommand.INTERFACES, ReferenceTypeCommand.CLASSOBJECT,
+      ReferenceTypeCommand.SOURCEDEBUGEXTENSION, ReferenceTypeCommand.SIGNATUREWITHGENERIC, ReferenceTypeCommand.FIELDSWITHGENERIC,
+      ReferenceTypeCommand.METHODSWITHGENERIC, ReferenceTypeCommand.INSTANCES, ReferenceTypeCommand.CLASSFILEVERSION,
+      ReferenceTypeCommand.CONSTANTPOOL,
+
+      ClassTypeCommand.SUPERCLASS,
+
+      MethodCommand.LINETABLE, MethodCommand.VARIABLETABLE, MethodCommand.BYTECODES, MethodCommand.ISOBSOLETE,
+      MethodCommand.VARIABLETABLEWITHGENERIC,
+
+      ObjectReferenceCommand.REFERENCETYPE, ObjectReferenceCommand.GETVALUES, ObjectReferenceCommand.MONITORINFO,
+      ObjectReferenceCommand.ISCOLLECTED, ObjectReferenceCommand.REFERRINGOBJECTS,
+
+      StringReferenceCommand.VALUE,
+
+      ThreadReferenceCommand.NAME, ThreadReferenceCommand.STATUS, ThreadReferenceCommand.THREADGROUP, ThreadReferenceCommand.FRAMES,
+      ThreadReferenceCommand.FRAMECOUNT, ThreadReferenceCommand.OWNEDMONITORS, ThreadReferenceCommand.CURRENTCONTENDEDMONITOR,
+      ThreadReferenceCommand.SUSPENDCOUNT, ThreadReferenceCommand.OWNEDMONITORSSTACKDEPTHINFO,
+
+      ThreadGroupReferenceCommand.NAME, ThreadGroupReferenceCommand.PARENT, ThreadGroupReferenceCommand.CHILDREN,
+
+      ArrayReferenceCommand.LENGTH, ArrayReferenceCommand.GETVALUES,
+
+      ClassLoaderReferenceCommand.VISIBLECLASSES,
+
+      StackFrameCommand.GETVALUES, StackFrameCommand.THISOBJECT,
+
+      ClassObjectReferenceCommand.REFLECTEDTYPE)));
+
+  /**
+   * Whether the given command only reads the state of the VM and the JDWP
+   * agent.<br/>
+   * Such commands may run in parallel with each other; any other command is
+   * considered to be mutating and must run alone.
+   * 
+   * @param command
+   *          The command.
+   * @return true or false
+   */
+  public static boolean isReadOnly(Command command) {
+    return READ_ONLY_COMMANDS.contains(command);
+  }
+
+  /**
+   * The commands a debugger expects to be answered even while a long command
+   * runs.
+   */
+  private static final Set<Command> URGENT_COMMANDS = Collections.unmodifiableSet(new HashSet<Command>(Arrays.<Command> asList(
+      VirtualMachineCommand.SUSPEND, ThreadReferenceCommand.SUSPEND, ThreadReferenceCommand.STATUS, ThreadReferenceCommand.SUSPENDCOUNT)));
+
+  /**
+   * Whether the given command doesn't wait for the read-only commands received
+   * before it.<br/>
+   * Such commands still take the run lock (the suspensions exclusively, the
+   * queries in the shared mode) so that they never run along with the JPF
+   * thread, yet the packet processor doesn't hold them behind a long command
+   * (a heap scan for instance) that runs in parallel.
+   * 
+   * @param command
+   *          The command.
+   * @return true or false
+   */
+  public static boolean isUrgent(Command command) {
+    return URGENT_COMMANDS.contains(command);
+  }
+
 }
@@ -0,0 +1,264 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import gnu.classpath.jdwp.Jdwp;
+import gov.nasa.jpf.jdwp.type.Location;
+import gov.nasa.jpf.jvm.bytecode.GOTO;
+import gov.nasa.jpf.jvm.bytecode.IfInstruction;
+import gov.nasa.jpf.jvm.bytecode.SwitchInstruction;
+import gov.nasa.jpf.vm.ExceptionHandler;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+/**
+ * <p>
+ * An instruction that replaces a breakpoint site in the code of its method.<br/>
+ * It reports the breakpoint event on its own and executes the original
+ * instruction afterwards so that no per instruction breakpoint check is needed
+ * in the listener.
+ * </p>
+ * <p>
+ * The code array of a method is modified only while the VM thread doesn't
+ * execute (i.e. from the commands that hold the run lock). A stack frame may
+ * still point to this instruction after it was removed from the code, that's
+ * why it is disarmed instead of just dropped.<br/>
+ * The jumps cache their target instructions once they run, hence the jump
+ * targets are never patched (they would be skipped by such jumps).
+ * </p>
+ * <p>
+ * Everything that turns an instruction into a {@link Location} has to use
+ * {@link #unwrap(Instruction)} so that the locations keep pointing to the
+ * original instructions.
+ * </p>
+ * 
+ * @see EventRequestManager#setPatchingBreakpoints(boolean)
+ * 
+ * @author stepan
+ * 
+ */
+public class BreakpointInstruction extends Instruction {
+
+  /**
+   * The number of methods executed on behalf of the debugger. The breakpoints
+   * hit by such methods are not reported the same way the listener doesn't
+   * receive any notifications for them.
+   */
+  private static int hiddenExecutions = 0;
+
+  private final Instruction original;
+  private volatile boolean armed = true;
+
+  /**
+   * The thread the listener already reported this breakpoint for (together
+   * with a single step event) so that it's not reported twice.
+   */
+  private ThreadInfo claimedBy;
+
+  private BreakpointInstruction(Instruction original) {
+    this.original = original;
+
+    setMethodInfo(original.getMethodInfo());
+    setLocation(original.getInstructionIndex(), original.getPosition());
+  }
+
+  /**
+   * Replaces the given instruction in the code of its method.
+   * 
+   * @param original
+   *          The breakpoint site.
+   * @return The patched instruction or null if the instruction is not in the
+   *         code of its method or it's a jump target (and thus cannot be
+   *         patched)
+   */
+  static BreakpointInstruction patch(Instruction original) {
+    MethodInfo methodInfo = original.getMethodInfo();
+    if (methodInfo == null) {
+      return null;
+    }
+    Instruction[] code = methodInfo.getInstructions();
+    int index = original.getInstructionIndex();
+    if (code == null || index < 0 || index >= code.length || code[index] != original) {
+      return null;
+    }
+    if (isJumpTarget(methodInfo, original.getPosition())) {
+      return null;
+    }
+
+    BreakpointInstruction breakpointInstruction = new BreakpointInstruction(original);
+    code[index] = breakpointInstruction;
+    return breakpointInstruction;
+  }
+
+  /**
+   * Whether any branch, switch or exception handler of the method jumps to the
+   * given position.
+   * 
+   * @param methodInfo
+   *          The method.
+   * @param position
+   *          The bytecode position.
+   * @return true or false
+   */
+  static boolean isJumpTarget(MethodInfo methodInfo, int position) {
+    for (Instruction instruction : methodInfo.getInstructions()) {
+      instruction = unwrap(instruction);
+      if (instruction instanceof IfInstruction) {
+        if (((IfInstruction) instruction).getTarget().getPosition() == position) {
+          return true;
+        }
+      } else if (instruction instanceof GOTO) {
+        if (((GOTO) instruction).getTarget().getPosition() == position) {
+          return true;
+        }
+      } else if (instruction instanceof SwitchInstruction) {
+        SwitchInstruction switchInstruction = (SwitchInstruction) instruction;
+        if (switchInstruction.getTarget() == position) {
+          return true;
+        }
+        for (int target : switchInstruction.getTargets()) {
+          if (target == position) {
+            return true;
+          }
+        }
+      }
+    }
+
+    ExceptionHandler[] handlers = methodInfo.getExceptions();
+    if (handlers != null) {
+      for (ExceptionHandler handler : handlers) {
+        if (handler.getHandler() == position) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Puts the original instruction back to the code of its method.
+   */
+  void restore() {
+    armed = false;
+
+    Instruction[] code = original.getMethodInfo().getInstructions();
+    int index = original.getInstructionIndex();
+    if (code[index] == this) {
+      code[index] = original;
+    }
+  }
+
+  /**
+   * Returns the original instruction if the given one is a patched breakpoint
+   * site.
+   * 
+   * @param instruction
+   *          The instruction.
+   * @return The instruction as it was loaded.
+   */
+  public static Instruction unwrap(Instruction instruction) {
+    if (instruction instanceof BreakpointInstruction) {
+      return ((BreakpointInstruction) instruction).original;
+    }
+    return instruction;
+  }
+
+  public Instruction getOriginal() {
+    return original;
+  }
+
+  /**
+   * Takes over reporting of this breakpoint for the next execution by the
+   * given thread.<br/>
+   * Used by the listener if the breakpoint has to be reported in the same
+   * composite as other events at this location.
+   * 
+   * @param threadInfo
+   *          The thread that is about to execute this instruction.
+   * @return Whether the breakpoint is still armed and should be reported by
+   *         the caller.
+   */
+  public boolean claim(ThreadInfo threadInfo) {
+    if (!armed) {
+      return false;
+    }
+    claimedBy = threadInfo;
+    return true;
+  }
+
+  /**
+   * Marks the beginning of a method execution on behalf of the debugger.<br/>
+   * Must be paired with {@link #endHiddenExecution()}, both are called while
+   * the run lock is held.
+   */
+  public static void beginHiddenExecution() {
+    ++hiddenExecutions;
+  }
+
+  /**
+   * Marks the end of a method execution on behalf of the debugger.
+   */
+  public static void endHiddenExecution() {
+    --hiddenExecutions;
+  }
+
+  @Override
+  public Instruction execute(ThreadInfo threadInfo) {
+    if (claimedBy == threadInfo) {
+      claimedBy = null;
+    } else if (armed && hiddenExecutions == 0) {
+      Jdwp.notify(new BreakpointEvent(threadInfo, Location.factory(original)));
+    }
+
+    // if the original instruction is re-executed, it's the original that is
+    // returned and the breakpoint is not reported again
+    return original.execute(threadInfo);
+  }
+
+  @Override
+  public boolean isCompleted(ThreadInfo threadInfo) {
+    return original.isCompleted(threadInfo);
+  }
+
+  @Override
+  public boolean isBackJump() {
+    return original.isBackJump();
+  }
+
+  @Override
+  public int getByteCode() {
+    return original.getByteCode();
+  }
+
+  @Override
+  public String getMnemonic() {
+    return original.getMnemonic();
+  }
+
+  @Override
+  public String toString() {
+    return original.toString();
+  }
+
+}
@@ -89,7 +89,7 @@ public class ClassPrepareEvent extends ThreadableEvent implements Threadable, Cl
 
   @Override
   public boolean matches(ClassFilter classMatchFilter) {
-    return classMatchFilter.matches(classInfo.getName());
+    return classMatchFilter.matches(classInfo);
   }
 
   @Override
@@ -35,6 +35,7 @@ import gov.nasa.jpf.jdwp.exception.InvalidEventTypeException;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -58,7 +59,8 @@ import org.slf4j.LoggerFactory;
 public abstract class EventBase implements Event {
 
   private EventKind eventKind;
-  private List<EventRequest<? extends Event>> matchingEventRequests = new LinkedList<EventRequest<? extends Event>>();
+  // created once the first request matches, most of the events match nothing
+  private List<EventRequest<? extends Event>> matchingEventRequests = null;
 
   public EventBase(EventKind eventKind) {
     this.eventKind = eventKind;
@@ -73,6 +75,9 @@ public abstract class EventBase implements Event {
   public <T extends Event> boolean addIfMatches(EventRequest<T> eventRequest) {
     // this casts sucks
     if (eventRequest.matches((T) this)) {
+      if (matchingEventRequests == null) {
+        matchingEventRequests = new LinkedList<EventRequest<? extends Event>>();
+      }
       matchingEventRequests.add(eventRequest);
       return true;
     }
@@ -81,9 +86,30 @@ public abstract class EventBase implements Event {
 
   @Override
   public List<EventRequest<? extends Event>> matchingEventRequests() {
+    if (matchingEventRequests == null) {
+      return Collections.emptyList();
+    }
     return matchingEventRequests;
   }
 
+  /**
+   * Forgets the matching requests so that this event can be matched again.
+   */
+  void resetMatchingEventRequests() {
+    matchingEventRequests = null;
+  }
+
+  /**
+   * Takes over the requests the given event matched.
+   * 
+   * @param event
+   *          The event, its matching requests are reset.
+   */
+  void takeMatchingEventRequests(EventBase event) {
+    matchingEventRequests = event.matchingEventRequests;
+    event.matchingEventRequests = null;
+  }
+
   @Override
   public final void write(DataOutputStream os, int requestId) throws IOException {
     os.writeByte(eventKind.identifier());
@@ -265,6 +291,34 @@ public abstract class EventBase implements Event {
 
   final static Logger logger = LoggerFactory.getLogger(EventBase.class);
 
+  /**
+   * Writes the events, one for each matching request, as they appear in the
+   * JDWP {@link EventCommand#COMPOSITE} packet (without the leading suspend
+   * policy and the number of events).
+   * 
+   * @param dos
+   *          The stream to which to write data.
+   * @param matchedEvents
+   *          The events to write.
+   * @param suspendPolicy
+   *          The suspend policy enforced by the VM.
+   * @return The number of events written.
+   * @throws IOException
+   *           If an I/O error occurs.
+   */
+  public static int writeEvents(DataOutputStream dos, List<? extends Event> matchedEvents, SuspendPolicy suspendPolicy) throws IOException {
+    int events = 0;
+
+    for (Event event : matchedEvents) {
+      for (EventRequest<? extends Event> eventRequest : event.matchingEventRequests()) {
+        logger.info(" >>>>>>>>> Sending event: {} for request: {} ... suspend policy: {}", event, eventRequest, suspendPolicy);
+        event.write(dos, eventRequest.getId());
+        events++;
+      }
+    }
+    return events;
+  }
+
   /**
    * Converts the events into to a single JDWP {@link EventCommand#COMPOSITE}
    * packet.
@@ -290,15 +344,7 @@ public abstract class EventBase implements Event {
       ByteArrayOutputStream eventsOutputBytes = new ByteArrayOutputStream(0);
       DataOutputStream eventsOutputStream = new DataOutputStream(eventsOutputBytes);
 
-      int events = 0;
-
-      for (Event event : matchedEvents) {
-        for (EventRequest<? extends Event> eventRequest : event.matchingEventRequests()) {
-          logger.info(" >>>>>>>>> Sending event: {} for request: {} ... suspend policy: {}", event, eventRequest, suspendPolicy);
-          event.write(eventsOutputStream, eventRequest.getId());
-          events++;
-        }
-      }
+      int events = writeEvents(eventsOutputStream, matchedEvents, suspendPolicy);
 
       dos.writeInt(events);
       dos.write(eventsOutputBytes.toByteArray());
@@ -28,9 +28,11 @@ import gov.nasa.jpf.jdwp.command.EventRequestCommand;
 import gov.nasa.jpf.jdwp.command.ReverseEnumMap;
 import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
 import gov.nasa.jpf.jdwp.event.filter.Filter;
+import gov.nasa.jpf.jdwp.event.filter.Filter.FrameMatching;
 import gov.nasa.jpf.jdwp.exception.IllegalArgumentException;
 import gov.nasa.jpf.jdwp.exception.JdwpException;
 import gov.nasa.jpf.jdwp.exception.id.InvalidIdentifierException;
+import gov.nasa.jpf.vm.Instruction;
 import gov.nasa.jpf.vm.ThreadInfo;
 
 import java.nio.ByteBuffer;
@@ -157,9 +159,55 @@ public class EventRequest<T extends Event> {
     this.eventKind = eventKind;
     this.suspendPolicy = suspendPolicy;
     this.filters = filters;
+    this.compiledFilters = compile(filters);
     this.id = eventRequestId;
   }
 
+  /**
+   * Orders the given filters for the evaluation.<br/>
+   * The filters are sorted by their {@link Filter#cost() cost} but never moved
+   * across a {@link Filter#isStateful() stateful} filter. That is, a count
+   * filter is still reached only by the events that passed all the filters
+   * registered before it and it's still evaluated before all the filters
+   * registered after it. The filters of the same cost keep their order.
+   * 
+   * @param filters
+   *          The filters in the order they were registered.
+   * @return The filters in the order they are evaluated or null if there are
+   *         none.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T extends Event> Filter<T>[] compile(List<Filter<T>> filters) {
+    if (filters == null || filters.isEmpty()) {
+      return null;
+    }
+    Filter<T>[] compiled = filters.toArray((Filter<T>[]) new Filter<?>[filters.size()]);
+
+    int segmentStart = 0;
+    for (int i = 0; i <= compiled.length; ++i) {
+      if (i == compiled.length || compiled[i].isStateful()) {
+        sortByCost(compiled, segmentStart, i);
+        segmentStart = i + 1;
+      }
+    }
+    return compiled;
+  }
+
+  /**
+   * A stable insertion sort, there are just a few filters.
+   */
+  private static <T extends Event> void sortByCost(Filter<T>[] filters, int from, int to) {
+    for (int i = from + 1; i < to; ++i) {
+      Filter<T> filter = filters[i];
+      int j = i - 1;
+      while (j >= from && filters[j].cost() > filter.cost()) {
+        filters[j + 1] = filters[j];
+        --j;
+      }
+      filters[j + 1] = filter;
+    }
+  }
+
   /**
    * Creates synthetic event request required by this JDWP for JPF
    * implementation for Events with request ID set to 0. This is used only and
@@ -184,12 +232,14 @@ public class EventRequest<T extends Event> {
   }
 
   private List<Filter<T>> filters;
+  private Filter<T>[] compiledFilters;
   private EventKind eventKind;
 
   /**
    * <p>
    * Event filters are applied in the same order as they were registered by the
-   * debugger.<br/>
+   * debugger except that the cheap ones are evaluated first among the filters
+   * between two count filters (see {@link #compile(List)}).<br/>
    * If filter doesn't match given event, no more filters are processed and this
    * method return immediately.<br/>
    * This is how count filter works even though it's not clear from the
@@ -201,10 +251,10 @@ public class EventRequest<T extends Event> {
    * @return Whether given event matches this request.
    */
   boolean matches(T event) {
-    if (filters == null) {
+    if (compiledFilters == null) {
       return true;
     }
-    for (Filter<T> filter : filters) {
+    for (Filter<T> filter : compiledFilters) {
       try {
         if (!filter.matches(event)) {
           return false;
@@ -219,6 +269,47 @@ public class EventRequest<T extends Event> {
     return true;
   }
 
+  /**
+   * Whether the locatable events of the top frame of the given thread may
+   * match this request.<br/>
+   * Only the filters evaluated before the first stateful filter are asked since
+   * skipping an event that would have reached a count filter changes the
+   * outcome of the later events.
+   * 
+   * @see Filter#frameMatching(ThreadInfo, Instruction)
+   * 
+   * @param thread
+   *          The thread.
+   * @param instruction
+   *          The instruction of the top frame of the thread.
+   * @return The strongest answer of the filters.
+   */
+  FrameMatching frameMatching(ThreadInfo thread, Instruction instruction) {
+    FrameMatching frameMatching = FrameMatching.POSSIBLE;
+    if (compiledFilters == null) {
+      return frameMatching;
+    }
+    for (Filter<T> filter : compiledFilters) {
+      if (filter.isStateful()) {
+        break;
+      }
+      frameMatching = frameMatching.and(filter.frameMatching(thread, instruction));
+      if (frameMatching == FrameMatching.NOT_UNTIL_RETURN) {
+        break;
+      }
+    }
+    return frameMatching;
+  }
+
+  /**
+   * The filters of this request in the order they were registered.
+   * 
+   * @return The filters or null if the request has none
+   */
+  List<Filter<T>> getFilters() {
+    return filters;
+  }
+
   public EventKind getEventKind() {
     return eventKind;
   }
@@ -24,9 +24,19 @@ package gov.nasa.jpf.jdwp.event;
 import gnu.classpath.jdwp.Jdwp;
 import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
 import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
-
+import gov.nasa.jpf.jdwp.event.filter.ClassFilter;
+import gov.nasa.jpf.jdwp.event.filter.ClassPatternMatcher;
+import gov.nasa.jpf.jdwp.event.filter.Filter;
+import gov.nasa.jpf.jdwp.event.filter.Filter.FrameMatching;
+import gov.nasa.jpf.jdwp.event.filter.LocationOnlyFilter;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +54,32 @@ public class EventRequestManager {
 
   private EnumMap<EventKind, EventRequestTable<Event>> eventRequestMap = new EnumMap<EventKind, EventRequestTable<Event>>(EventKind.class);
 
+  /**
+   * Instructions that carry at least one breakpoint request. The map is never
+   * modified once published, it is replaced as a whole whenever the breakpoint
+   * requests change so that the instruction hook can read it without locking.
+   * It's null if there is no such instruction.
+   */
+  private volatile Map<Instruction, Boolean> breakpointSites = null;
+
+  /**
+   * Whether there is a breakpoint request without a location only filter. Such
+   * a request cannot be indexed and any instruction is a potential site.
+   */
+  private volatile boolean unindexedBreakpoints = false;
+
+  /**
+   * Whether the breakpoint sites are patched in the code of the methods
+   * instead of being looked up by the listener.
+   */
+  private boolean patchingBreakpoints = false;
+  private Map<Instruction, BreakpointInstruction> patchedSites = new IdentityHashMap<Instruction, BreakpointInstruction>();
+
+  /**
+   * Incremented whenever the registered event requests change.
+   */
+  private volatile int generation = 0;
+
   /**
    * Creates Event Request Manager instance.
    */
@@ -130,6 +166,7 @@ public class EventRequestManager {
    */
   public void removeEventRequest(EventKind eventKind, int requestId) {
     eventRequestMap.get(eventKind).deleteRequest(requestId);
+    requestsChanged(eventKind);
   }
 
   /**
@@ -140,6 +177,7 @@ public class EventRequestManager {
    */
   public void clearEventRequests(EventKind eventKind) {
     eventRequestMap.get(eventKind).clearRequests();
+    requestsChanged(eventKind);
   }
 
   /**
@@ -161,6 +199,159 @@ public class EventRequestManager {
    */
   public void requestEvent(EventRequest<Event> eventRequest) {
     eventRequestMap.get(eventRequest.getEventKind()).requestEvent(eventRequest);
+    requestsChanged(eventRequest.getEventKind());
+  }
+
+  /**
+   * Whether a breakpoint event might be reported for the given instruction.<br/>
+   * This is a single identity lookup so that it can be called for every
+   * executed instruction. A positive answer still has to be confirmed by
+   * matching the event against the requests.
+   * 
+   * @param instruction
+   *          The instruction about to be executed.
+   * @return true if there is a breakpoint request for the instruction
+   */
+  public boolean isBreakpointSite(Instruction instruction) {
+    Map<Instruction, Boolean> sites = breakpointSites;
+    return unindexedBreakpoints || (sites != null && sites.containsKey(instruction));
+  }
+
+  /**
+   * Switches between the two breakpoint engines.<br/>
+   * If enabled, the breakpoint sites are replaced by
+   * {@link BreakpointInstruction}s that report the breakpoints on their own
+   * and the listener doesn't have to check the executed instructions. The
+   * sites that cannot be patched are still looked up in the index.
+   * 
+   * @param patchingBreakpoints
+   *          Whether to patch the breakpoint sites.
+   */
+  public synchronized void setPatchingBreakpoints(boolean patchingBreakpoints) {
+    this.patchingBreakpoints = patchingBreakpoints;
+    rebuildBreakpointIndex();
+    ++generation;
+  }
+
+  /**
+   * Whether the executed instructions have to be checked for breakpoints.<br/>
+   * This is not the case if there are no breakpoint requests or all of them
+   * have their sites patched.
+   * 
+   * @return true if {@link #isBreakpointSite(Instruction)} might return true
+   */
+  public boolean hasIndexedBreakpoints() {
+    return unindexedBreakpoints || breakpointSites != null;
+  }
+
+  /**
+   * The generation of the event requests.<br/>
+   * It changes whenever an event request is registered or removed so that the
+   * observers can cheaply find out that the requests need to be inspected
+   * again.
+   * 
+   * @return The generation number.
+   */
+  public int getGeneration() {
+    return generation;
+  }
+
+  private synchronized void requestsChanged(EventKind eventKind) {
+    if (eventKind == EventKind.BREAKPOINT) {
+      rebuildBreakpointIndex();
+    }
+    compileClassPatterns();
+    ++generation;
+  }
+
+  /**
+   * Compiles the class patterns of all the registered event requests into a
+   * fresh {@link ClassPatternMatcher}. This also drops the class match results
+   * remembered by the previous one.
+   */
+  private synchronized void compileClassPatterns() {
+    List<ClassFilter> classFilters = new ArrayList<ClassFilter>();
+
+    for (Map.Entry<EventKind, EventRequestTable<Event>> entry : eventRequestMap.entrySet()) {
+      if (entry.getKey() == EventKind.VM_INIT || entry.getKey() == EventKind.THREAD_END) {
+        // aliases of other tables
+        continue;
+      }
+      for (EventRequest<Event> request : entry.getValue().getRequests()) {
+        List<Filter<Event>> filters = request.getFilters();
+        if (filters == null) {
+          continue;
+        }
+        for (Filter<?> filter : filters) {
+          if (filter instanceof ClassFilter) {
+            classFilters.add((ClassFilter) filter);
+          }
+        }
+      }
+    }
+
+    ClassPatternMatcher matcher = ClassPatternMatcher.compile(classFilters);
+    logger.debug("Class patterns compiled: {} filters, {} distinct patterns", classFilters.size(), matcher.getPatternCount());
+  }
+
+  /**
+   * Builds a fresh breakpoint index from the location only filters of the
+   * currently registered breakpoint requests.
+   */
+  private synchronized void rebuildBreakpointIndex() {
+    Map<Instruction, Boolean> sites = new IdentityHashMap<Instruction, Boolean>();
+    boolean unindexed = false;
+
+    for (EventRequest<Event> request : eventRequestMap.get(EventKind.BREAKPOINT).getRequests()) {
+      LocationOnlyFilter locationFilter = null;
+      List<Filter<Event>> filters = request.getFilters();
+      if (filters != null) {
+        for (Filter<?> filter : filters) {
+          if (filter instanceof LocationOnlyFilter) {
+            locationFilter = (LocationOnlyFilter) filter;
+            break;
+          }
+        }
+      }
+
+      if (locationFilter == null || locationFilter.getLocation() == null) {
+        unindexed = true;
+      } else {
+        sites.put(locationFilter.getLocation().getInstruction(), Boolean.TRUE);
+      }
+    }
+
+    patchBreakpointSites(sites);
+
+    breakpointSites = sites.isEmpty() ? null : sites;
+    unindexedBreakpoints = unindexed;
+    logger.debug("Breakpoint index rebuilt: {} indexed sites, {} patched sites, unindexed requests: {}", sites.size(), patchedSites.size(),
+                 unindexed);
+  }
+
+  /**
+   * Whether the locatable events of the given kind may match any of the
+   * requests while the current top frame of the given thread is executing.
+   * 
+   * @see EventRequest#frameMatching(ThreadInfo, Instruction)
+   * 
+   * @param eventKind
+   *          The event kind.
+   * @param thread
+   *          The thread.
+   * @param instruction
+   *          The instruction of the top frame of the thread.
+   * @return The weakest answer of the requests.
+   */
+  public FrameMatching frameMatching(EventKind eventKind, ThreadInfo thread, Instruction instruction) {
+    FrameMatching frameMatching = FrameMatching.NOT_UNTIL_RETURN;
+    for (EventRequest<Event> request : eventRequestMap.get(eventKind).getRequests()) {
+      frameMatching = frameMatching.or(request.frameMatching(thread, instruction));
+      if (frameMatching == FrameMatching.POSSIBLE) {
+        break;
+      }
+    }
+    return frameMatching;
   }
 
   public SuspendPolicy
@@ -168,9 +359,46 @@ public class EventRequestManager {
     return eventRequestMap.get(event.getEventKind()).populateMatchedEventsAndCalculateSuspension(event, matchedEvents, resultSuspendPolicy);
   }
 
+  /**
+   * Patches the given breakpoint sites and restores the ones that are no
+   * longer breakpoint sites.<br/>
+   * The patched sites are removed from the given index.
+   * 
+   * @param sites
+   *          The breakpoint sites.
+   */
+  private void patchBreakpointSites(Map<Instruction, Boolean> sites) {
+    for (Iterator<Map.Entry<Instruction, BreakpointInstruction>> iterator = patchedSites.entrySet().iterator(); iterator.hasNext();) {
+      Map.Entry<Instruction, BreakpointInstruction> patchedSite = iterator.next();
+      if (!patchingBreakpoints || !sites.containsKey(patchedSite.getKey())) {
+        patchedSite.getValue().restore();
+        iterator.remove();
+      }
+    }
+
+    if (!patchingBreakpoints) {
+      return;
+    }
+
+    for (Iterator<Instruction> iterator = sites.keySet().iterator(); iterator.hasNext();) {
+      Instruction site = iterator.next();
+      if (!patchedSites.containsKey(site)) {
+        BreakpointInstruction breakpointInstruction = BreakpointInstruction.patch(site);
+        if (breakpointInstruction == null) {
+          logger.debug("Breakpoint site cannot be patched: {}", site);
+          continue;
+        }
+        patchedSites.put(site, breakpointInstruction);
+      }
+      iterator.remove();
+    }
+  }
+
   /**
    * This class holds all event requests for a specific event kind.<br/>
-   * This table is thread safe.
+   * This table is thread safe. The modifications are synchronized and publish
+   * a new immutable snapshot of the requests. The snapshot is what the events
+   * are matched against, without any locking.
    * 
    * @author stepan
    * 
@@ -182,6 +410,18 @@ public class EventRequestManager {
 
     private Map<Integer, EventRequest<T>> requests = new HashMap<Integer, EventRequest<T>>();
 
+    // never modified once published
+    private volatile EventRequest<T>[] snapshot = newSnapshot(0);
+
+    @SuppressWarnings("unchecked")
+    private EventRequest<T>[] newSnapshot(int length) {
+      return (EventRequest<T>[]) new EventRequest<?>[length];
+    }
+
+    private void publish() {
+      snapshot = requests.values().toArray(newSnapshot(requests.size()));
+    }
+
     /**
      * For the given event a matching requests (note that there might be
      * multiple matching requests) are found. These matching requests are paired
@@ -202,13 +442,12 @@ public class EventRequestManager {
      * @return Updated suspend policy if it is more restrictive than the
      *         incoming one
      */
-    public synchronized SuspendPolicy populateMatchedEventsAndCalculateSuspension(T event, List<Event> matchedEvents,
-                                                                                  SuspendPolicy suspendPolicy) {
+    public SuspendPolicy populateMatchedEventsAndCalculateSuspension(T event, List<Event> matchedEvents, SuspendPolicy suspendPolicy) {
       boolean eventMatched = false;
 
       // There might be more than one matching requests and thus loop
       // over all of them
-      for (EventRequest<T> eventRequest : requests.values()) {
+      for (EventRequest<T> eventRequest : snapshot) {
         if (event.addIfMatches(eventRequest)) {
           eventMatched = true;
 
@@ -237,6 +476,7 @@ public class EventRequestManager {
      */
     private synchronized void requestEvent(EventRequest<T> request) {
       requests.put(request.getId(), request);
+      publish();
 
       logger.info("Registered event request: {}", request);
     }
@@ -248,18 +488,28 @@ public class EventRequestManager {
      *          The ID of the event request.
      */
     private synchronized void deleteRequest(int requestId) {
-      EventRequest<T> request = requests.get(requestId);
+      EventRequest<T> request = requests.remove(requestId);
       if (request != null) {
-        requests.remove(requestId);
+        publish();
         logger.info("Removed event request: {}", request);
       }
     }
 
+    /**
+     * Returns the registered event requests.
+     * 
+     * @return The event requests, the array must not be modified.
+     */
+    private EventRequest<T>[] getRequests() {
+      return snapshot;
+    }
+
     /**
      * Clears all event requests.
      */
     private synchronized void clearRequests() {
       requests.clear();
+      publish();
     }
 
     /**
@@ -268,7 +518,7 @@ public class EventRequestManager {
      * @return The number of event requests .
      */
     private int getEventRequestCount() {
-      return requests.size();
+      return snapshot.length;
     }
 
   }
@@ -77,8 +77,8 @@ public abstract class LocatableEvent extends ThreadableEvent implements Locatabl
 
   @Override
   public boolean matches(ClassFilter classMatchFilter) {
-    String className = location.getInstruction().getMethodInfo().getClassName();
-    return classMatchFilter.matches(className);
+    ClassInfo classInfo = location.getInstruction().getMethodInfo().getClassInfo();
+    return classMatchFilter.matches(classInfo);
   }
 
   @Override
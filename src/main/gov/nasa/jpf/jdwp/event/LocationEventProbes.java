@@ -0,0 +1,190 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import gnu.classpath.jdwp.Jdwp;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.type.Location;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Reusable probes of the events that may be generated for every executed
+ * instruction (i.e. breakpoints and single steps).<br/>
+ * The probes are matched against the event requests instead of newly created
+ * events. A real event (and its location) is created only if a probe matches
+ * some request since only then it is sent to the debugger and possibly held by
+ * the event sender.
+ * </p>
+ * <p>
+ * The probes are meant to be used by the VM thread only and they must never
+ * leave the matching of the events.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class LocationEventProbes {
+
+  /**
+   * A location that is moved from one instruction to another.
+   */
+  private static class ProbeLocation extends Location {
+
+    ProbeLocation() {
+      super(null, -1, null);
+    }
+
+    @Override
+    protected void moveTo(Instruction instruction) {
+      super.moveTo(instruction);
+    }
+  }
+
+  private final EventRequestManager eventRequestManager;
+
+  private final ProbeLocation location = new ProbeLocation();
+  private final BreakpointEvent breakpointProbe = new BreakpointEvent(null, location);
+  private final SingleStepEvent singleStepProbe = new SingleStepEvent(null, location);
+  private final SingleStepGate singleStepGate;
+
+  // only the probe is put there by the event request manager
+  private final List<Event> probeMatches = new ArrayList<Event>(1);
+
+  private ThreadInfo thread;
+  private Instruction instruction;
+  private Location materializedLocation;
+
+  private List<Event> matchedEvents;
+  private SuspendPolicy suspendPolicy;
+
+  /**
+   * Creates the probes.
+   * 
+   * @param eventRequestManager
+   *          The manager of the requests the probes are matched against.
+   */
+  public LocationEventProbes(EventRequestManager eventRequestManager) {
+    this.eventRequestManager = eventRequestManager;
+    this.singleStepGate = new SingleStepGate(eventRequestManager);
+  }
+
+  /**
+   * Starts probing the events of the given instruction.
+   * 
+   * @param thread
+   *          The thread that is about to execute the instruction.
+   * @param instruction
+   *          The instruction.
+   */
+  public void begin(ThreadInfo thread, Instruction instruction) {
+    this.thread = thread;
+    this.instruction = instruction;
+    location.moveTo(instruction);
+    materializedLocation = null;
+
+    matchedEvents = null;
+    suspendPolicy = SuspendPolicy.NONE;
+  }
+
+  /**
+   * Matches a breakpoint event at the current instruction.
+   */
+  public void probeBreakpoint() {
+    breakpointProbe.setThread(thread);
+    if (match(breakpointProbe)) {
+      BreakpointEvent breakpointEvent = new BreakpointEvent(thread, materializedLocation());
+      breakpointEvent.takeMatchingEventRequests(breakpointProbe);
+      matchedEvents.add(breakpointEvent);
+    }
+  }
+
+  /**
+   * Matches a single step event at the current instruction.<br/>
+   * Nothing is matched in the frames where no single step can match.
+   * 
+   * @see SingleStepGate
+   */
+  public void probeSingleStep() {
+    if (singleStepGate.isClosed(thread)) {
+      return;
+    }
+
+    singleStepProbe.setThread(thread);
+    if (match(singleStepProbe)) {
+      SingleStepEvent singleStepEvent = new SingleStepEvent(thread, materializedLocation());
+      singleStepEvent.takeMatchingEventRequests(singleStepProbe);
+      matchedEvents.add(singleStepEvent);
+    } else {
+      singleStepGate.rejected(thread, instruction);
+    }
+  }
+
+  /**
+   * Forgets what is known about the frames of the threads.<br/>
+   * Has to be called whenever the JPF restores another state.
+   */
+  public void stateRestored() {
+    singleStepGate.clear();
+  }
+
+  /**
+   * Sends the matched events of the current instruction (if any) in one
+   * composite and suspends as requested.
+   */
+  public void dispatch() {
+    if (matchedEvents != null) {
+      Jdwp.notifyMatched(matchedEvents, suspendPolicy);
+    }
+    thread = null;
+    instruction = null;
+    breakpointProbe.setThread(null);
+    singleStepProbe.setThread(null);
+  }
+
+  private boolean match(EventBase probe) {
+    probe.resetMatchingEventRequests();
+    suspendPolicy = eventRequestManager.populateMatchedEventsAndCalculateSuspension(probe, probeMatches, suspendPolicy);
+    if (probeMatches.isEmpty()) {
+      return false;
+    }
+
+    probeMatches.clear();
+    if (matchedEvents == null) {
+      matchedEvents = new ArrayList<Event>(2);
+    }
+    return true;
+  }
+
+  private Location materializedLocation() {
+    if (materializedLocation == null) {
+      materializedLocation = Location.factory(instruction);
+    }
+    return materializedLocation;
+  }
+
+}
@@ -0,0 +1,160 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.filter.Filter.FrameMatching;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.StackFrame;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Stops the probing of the single step events in the frames where no single
+ * step request can match.<br/>
+ * Once a single step event is rejected, the requests are asked whether any
+ * event of the rest of the frame may match (see
+ * {@link EventRequestManager#frameMatching(EventKind, ThreadInfo, Instruction)}
+ * ). If not, the thread is not probed until it leaves the frame or, for a step
+ * out or over, until the frame returns. Stepping over a method that executes
+ * many instructions then costs a depth comparison per instruction instead of
+ * an event match.
+ * </p>
+ * <p>
+ * The frame is remembered together with the stack depth of the thread. The
+ * frame has returned once the thread executes at a lower depth which is
+ * noticed at the next instruction of the thread. The answers are dropped
+ * whenever the event requests change or the JPF restores another state.
+ * </p>
+ * <p>
+ * Meant to be used by the VM thread only.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class SingleStepGate {
+
+  private static class Gate {
+    private StackFrame frame;
+    private int depth;
+    private FrameMatching frameMatching;
+  }
+
+  private final EventRequestManager eventRequestManager;
+  private final Map<ThreadInfo, Gate> gates = new IdentityHashMap<ThreadInfo, Gate>();
+
+  // the generation of the requests the gates were computed for
+  private int generation;
+
+  // the threads are switched rarely
+  private ThreadInfo lastThread;
+  private Gate lastGate;
+
+  public SingleStepGate(EventRequestManager eventRequestManager) {
+    this.eventRequestManager = eventRequestManager;
+  }
+
+  /**
+   * Whether the single step events of the given thread cannot match in the
+   * current frame and need not be probed.
+   * 
+   * @param thread
+   *          The thread about to execute an instruction.
+   * @return true if the event can be skipped
+   */
+  public boolean isClosed(ThreadInfo thread) {
+    Gate gate = gate(thread);
+    if (gate.frameMatching == null) {
+      return false;
+    }
+
+    switch (gate.frameMatching) {
+    case NOT_UNTIL_RETURN:
+      int depth = thread.getStackDepth();
+      return depth > gate.depth || (depth == gate.depth && thread.getTopFrame() == gate.frame);
+    case NOT_IN_FRAME:
+      return thread.getTopFrame() == gate.frame;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Notes that the single step event of the given instruction didn't match so
+   * that the requests are asked about the rest of the frame unless they
+   * already have been.
+   * 
+   * @param thread
+   *          The thread.
+   * @param instruction
+   *          The instruction whose single step event was rejected.
+   */
+  public void rejected(ThreadInfo thread, Instruction instruction) {
+    Gate gate = gate(thread);
+    StackFrame topFrame = thread.getTopFrame();
+
+    if (gate.frameMatching == FrameMatching.POSSIBLE && gate.frame == topFrame) {
+      // already asked for this frame
+      return;
+    }
+
+    gate.frame = topFrame;
+    gate.depth = thread.getStackDepth();
+    gate.frameMatching = eventRequestManager.frameMatching(EventKind.SINGLE_STEP, thread, instruction);
+  }
+
+  /**
+   * Forgets everything about all the threads.<br/>
+   * This has to be done whenever the JPF restores a state since the frames
+   * and depths of the threads are not the ones the gates were computed for.
+   */
+  public void clear() {
+    gates.clear();
+    lastThread = null;
+    lastGate = null;
+  }
+
+  private Gate gate(ThreadInfo thread) {
+    int currentGeneration = eventRequestManager.getGeneration();
+    if (currentGeneration != generation) {
+      clear();
+      generation = currentGeneration;
+    }
+
+    if (thread != lastThread) {
+      Gate gate = gates.get(thread);
+      if (gate == null) {
+        gate = new Gate();
+        gates.put(thread, gate);
+      }
+      lastThread = thread;
+      lastGate = gate;
+    }
+    return lastGate;
+  }
+
+}
@@ -69,6 +69,16 @@ public abstract class ThreadableEvent extends EventBase implements Event {
     return threadInfo;
   }
 
+  /**
+   * Moves the event to another thread. Only for the reusable event probes.
+   * 
+   * @param threadInfo
+   *          The thread.
+   */
+  void setThread(ThreadInfo threadInfo) {
+    this.threadInfo = threadInfo;
+  }
+
   @Override
   public String toString() {
     return super.toString() + ", thread: " + threadInfo;
@@ -21,6 +21,8 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package gov.nasa.jpf.jdwp.event.filter;
 
+import gov.nasa.jpf.vm.ClassInfo;
+
 /**
  * <p>
  * <h2>JDWP Specification</h2>
@@ -59,4 +61,9 @@ public class ClassExcludeFilter extends ClassFilter {
     return !compare(className);
   }
 
+  @Override
+  public boolean matches(ClassInfo classInfo) {
+    return !compare(classInfo);
+  }
+
 }
@@ -24,6 +24,10 @@ package gov.nasa.jpf.jdwp.event.filter;
 import gov.nasa.jpf.jdwp.command.EventRequestCommand;
 import gov.nasa.jpf.jdwp.event.ClassFilterable;
 import gov.nasa.jpf.jdwp.exception.JdwpException.ErrorType;
+import gov.nasa.jpf.vm.ClassInfo;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.ThreadInfo;
 
 /**
  * Class filters allow only certain classes, matching the provided pattern, to
@@ -66,8 +70,19 @@ public abstract class ClassFilter extends Filter<ClassFilterable> {
 
   private String classPattern;
 
+  /**
+   * The pattern as compiled by the {@link ClassPatternMatcher} of the
+   * registered event requests or null if this filter is not registered yet.
+   */
+  private volatile ClassPatternMatcher.Pattern compiledPattern;
+
   private static final char ASTERISK = '*';
 
+  @Override
+  public int cost() {
+    return COST_PATTERN;
+  }
+
   @Override
   public boolean matches(ClassFilterable event) {
     return event.matches(this);
@@ -83,14 +98,59 @@ public abstract class ClassFilter extends Filter<ClassFilterable> {
    */
   public abstract boolean matches(String className);
 
+  /**
+   * Whether the given class is accepted by this filter according to the
+   * provided pattern.<br/>
+   * Unlike {@link #matches(String)} the decision is remembered for the class.
+   * 
+   * @param classInfo
+   *          The class.
+   * @return True or false as a result of filtering.
+   */
+  public abstract boolean matches(ClassInfo classInfo);
+
+  /**
+   * The frame executes the code of a single class and so either all of its
+   * events are accepted by this filter or none of them.
+   */
+  @Override
+  public FrameMatching frameMatching(ThreadInfo thread, Instruction instruction) {
+    MethodInfo methodInfo = instruction.getMethodInfo();
+    if (methodInfo == null || methodInfo.getClassInfo() == null) {
+      return FrameMatching.POSSIBLE;
+    }
+    return matches(methodInfo.getClassInfo()) ? FrameMatching.POSSIBLE : FrameMatching.NOT_IN_FRAME;
+  }
+
+  public String getClassPattern() {
+    return classPattern;
+  }
+
+  void bind(ClassPatternMatcher.Pattern compiledPattern) {
+    this.compiledPattern = compiledPattern;
+  }
+
+  protected boolean compare(ClassInfo classInfo) {
+    ClassPatternMatcher.Pattern pattern = compiledPattern;
+    if (pattern == null) {
+      return compare(classInfo.getName());
+    }
+    return pattern.matches(classInfo);
+  }
+
   protected boolean compare(String className) {
+    ClassPatternMatcher.Pattern pattern = compiledPattern;
+    if (pattern != null) {
+      return pattern.matches(className);
+    }
+
+    int length = classPattern.length();
     if (classPattern.charAt(0) == ASTERISK) {
-      return className.endsWith(classPattern.substring(1));
+      return className.regionMatches(className.length() - length + 1, classPattern, 1, length - 1);
     }
 
-    int end = classPattern.length() - 1;
-    if (classPattern.charAt(end) == ASTERISK) {
-      return className.startsWith(classPattern.substring(0, end));
+    if (classPattern.charAt(length - 1) == ASTERISK) {
+      return className.regionMatches(0, classPattern, 0, length - 1);
     }
 
     return className.equals(classPattern);
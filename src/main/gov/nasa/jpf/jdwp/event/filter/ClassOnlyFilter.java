@@ -54,6 +54,9 @@ public class ClassOnlyFilter extends Filter<ClassOnlyFilterable> {
 
   private ReferenceTypeId referenceTypeId;
 
+  // resolved on the first use, classes are never unloaded
+  private ClassInfo classInfo;
+
   /**
    * Creates Class Only filter.
    * 
@@ -65,13 +68,21 @@ public class ClassOnlyFilter extends Filter<ClassOnlyFilterable> {
     this.referenceTypeId = clazz;
   }
 
+  @Override
+  public int cost() {
+    return COST_LOOKUP;
+  }
+
   @Override
   public boolean matches(ClassOnlyFilterable event) throws InvalidIdentifierException {
     return event.matches(this);
   }
 
   public boolean matches(ClassInfo referenceType) throws InvalidIdentifierException {
-    return referenceType.isInstanceOf(referenceTypeId.get());
+    if (classInfo == null) {
+      classInfo = referenceTypeId.get();
+    }
+    return referenceType.isInstanceOf(classInfo);
   }
 
 }
@@ -0,0 +1,222 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event.filter;
+
+import gov.nasa.jpf.vm.ClassInfo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches class names against all the class patterns of the registered
+ * {@link ClassFilter}s at once.<br/>
+ * The patterns are compiled into a trie of the prefixes (<tt>java.*</tt>), a
+ * trie of the reversed suffixes (<tt>*.Foo</tt>) and a table of the exact
+ * names. A class name is therefore walked once no matter how many patterns
+ * there are.
+ * 
+ * <p>
+ * The result for a {@link ClassInfo} is remembered so that repeated events
+ * from the same class cost a single identity lookup. The matcher is immutable
+ * (except for the memo) and a new one is compiled whenever the event requests
+ * change which also drops the remembered results.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class ClassPatternMatcher {
+
+  private static final char ASTERISK = '*';
+
+  private final int patternCount;
+  private final Map<String, Integer> exactPatterns = new HashMap<String, Integer>();
+  private final Node prefixes = new Node();
+  private final Node suffixes = new Node();
+
+  private final Map<ClassInfo, BitSet> memo = new IdentityHashMap<ClassInfo, BitSet>();
+
+  private ClassPatternMatcher(List<String> patterns) {
+    patternCount = patterns.size();
+
+    for (int index = 0; index < patterns.size(); ++index) {
+      String pattern = patterns.get(index);
+
+      if (pattern.length() > 0 && pattern.charAt(0) == ASTERISK) {
+        suffixes.insert(pattern, pattern.length() - 1, 0, -1).pattern = index;
+      } else if (pattern.length() > 0 && pattern.charAt(pattern.length() - 1) == ASTERISK) {
+        prefixes.insert(pattern, 0, pattern.length() - 1, 1).pattern = index;
+      } else {
+        exactPatterns.put(pattern, index);
+      }
+    }
+  }
+
+  /**
+   * Compiles the patterns of the given class filters into a new matcher and
+   * binds the filters to it.
+   * 
+   * @param classFilters
+   *          The class filters of all the registered event requests.
+   * @return The compiled matcher.
+   */
+  public static ClassPatternMatcher compile(List<ClassFilter> classFilters) {
+    Map<String, Integer> indexes = new HashMap<String, Integer>();
+    List<String> patterns = new ArrayList<String>();
+
+    for (ClassFilter classFilter : classFilters) {
+      if (!indexes.containsKey(classFilter.getClassPattern())) {
+        indexes.put(classFilter.getClassPattern(), patterns.size());
+        patterns.add(classFilter.getClassPattern());
+      }
+    }
+
+    ClassPatternMatcher matcher = new ClassPatternMatcher(patterns);
+    for (ClassFilter classFilter : classFilters) {
+      classFilter.bind(matcher.new Pattern(indexes.get(classFilter.getClassPattern())));
+    }
+    return matcher;
+  }
+
+  /**
+   * Finds all the patterns that match the given class.
+   * 
+   * @param classInfo
+   *          The class.
+   * @return The indexes of the matching patterns. Must not be modified.
+   */
+  BitSet match(ClassInfo classInfo) {
+    synchronized (memo) {
+      BitSet matched = memo.get(classInfo);
+      if (matched == null) {
+        matched = match(classInfo.getName());
+        memo.put(classInfo, matched);
+      }
+      return matched;
+    }
+  }
+
+  /**
+   * Finds all the patterns that match the given class name.
+   * 
+   * @param className
+   *          The class name.
+   * @return The indexes of the matching patterns.
+   */
+  BitSet match(String className) {
+    BitSet matched = new BitSet(patternCount);
+
+    Integer exact = exactPatterns.get(className);
+    if (exact != null) {
+      matched.set(exact);
+    }
+
+    int length = className.length();
+    Node node = prefixes;
+    for (int i = 0; node != null; ++i) {
+      node.collect(matched);
+      node = i < length ? node.child(className.charAt(i)) : null;
+    }
+
+    node = suffixes;
+    for (int i = length - 1; node != null; --i) {
+      node.collect(matched);
+      node = i >= 0 ? node.child(className.charAt(i)) : null;
+    }
+
+    return matched;
+  }
+
+  /**
+   * The number of distinct patterns.
+   * 
+   * @return The pattern count.
+   */
+  public int getPatternCount() {
+    return patternCount;
+  }
+
+  /**
+   * A single pattern of this matcher as seen by the {@link ClassFilter} it
+   * belongs to.
+   */
+  class Pattern {
+
+    private final int index;
+
+    private Pattern(int index) {
+      this.index = index;
+    }
+
+    boolean matches(ClassInfo classInfo) {
+      return match(classInfo).get(index);
+    }
+
+    boolean matches(String className) {
+      return match(className).get(index);
+    }
+  }
+
+  private static class Node {
+
+    private Map<Character, Node> children;
+
+    /** the index of the pattern that ends in this node or -1 */
+    private int pattern = -1;
+
+    Node child(char c) {
+      return children == null ? null : children.get(c);
+    }
+
+    /**
+     * Inserts the characters of the given string walking from
+     * <tt>start</tt> (inclusive) to <tt>end</tt> (exclusive) in the given
+     * direction.
+     */
+    Node insert(String string, int start, int end, int step) {
+      Node node = this;
+      for (int i = start; i != end; i += step) {
+        if (node.children == null) {
+          node.children = new HashMap<Character, Node>();
+        }
+        Node next = node.children.get(string.charAt(i));
+        if (next == null) {
+          next = new Node();
+          node.children.put(string.charAt(i), next);
+        }
+        node = next;
+      }
+      return node;
+    }
+
+    void collect(BitSet matched) {
+      if (pattern >= 0) {
+        matched.set(pattern);
+      }
+    }
+  }
+}
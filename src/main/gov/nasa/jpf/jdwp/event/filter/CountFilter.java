@@ -75,6 +75,11 @@ public class CountFilter extends Filter<Event> {
     this.expired = false;
   }
 
+  @Override
+  public boolean isStateful() {
+    return true;
+  }
+
   @Override
   public boolean matches(Event event) {
     assert expired == false;
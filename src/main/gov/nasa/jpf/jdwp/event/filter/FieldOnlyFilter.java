@@ -60,6 +60,11 @@ public class FieldOnlyFilter extends Filter<FieldOnlyFilterable> {
     this.fieldId = fieldId;
   }
 
+  @Override
+  public int cost() {
+    return COST_IDENTITY;
+  }
+
   @Override
   public boolean matches(FieldOnlyFilterable event) {
     try {
@@ -27,6 +27,7 @@ import gov.nasa.jpf.jdwp.command.CommandContextProvider;
 import gov.nasa.jpf.jdwp.command.ConvertibleEnum;
 import gov.nasa.jpf.jdwp.command.ReverseEnumMap;
 import gov.nasa.jpf.jdwp.event.Event;
+import gov.nasa.jpf.jdwp.event.EventRequest;
 import gov.nasa.jpf.jdwp.event.SourceNameMatchFilterable;
 import gov.nasa.jpf.jdwp.exception.IllegalArgumentException;
 import gov.nasa.jpf.jdwp.exception.JdwpException;
@@ -40,6 +41,7 @@ import gov.nasa.jpf.jdwp.id.type.ReferenceTypeId;
 import gov.nasa.jpf.jdwp.type.Location;
 import gov.nasa.jpf.jdwp.value.JdwpString;
 import gov.nasa.jpf.vm.ElementInfo;
+import gov.nasa.jpf.vm.Instruction;
 import gov.nasa.jpf.vm.ThreadInfo;
 
 import java.nio.ByteBuffer;
@@ -49,7 +51,17 @@ import java.nio.ByteBuffer;
  * Here, in the filter facility, we want to use only and only JDWP internal
  * wrappers so that GC of JPF itself isn't affected. Therefore all Filter
  * instances never keep references to {@link ThreadInfo} or {@link ElementInfo}
- * (or any other JPF specific) instances.
+ * instances.<br/>
+ * The only JPF references allowed are the ones that don't keep anything alive
+ * that JPF would collect while the request exists:
+ * <ul>
+ * <li>{@link StepFilter} remembers the stack frames of the stepping thread
+ * (and the methods they run) so that it doesn't walk the whole stack for every
+ * instruction. The frames are dropped once they are found popped, and a step
+ * request is deleted by the debugger as soon as the step completes.</li>
+ * <li>{@link ClassOnlyFilter} keeps the class it resolved; classes are never
+ * unloaded in JPF.</li>
+ * </ul>
  * <p>
  * <h2>JDWP Specification for modifiers/filters</h2>
  * Constraints used to control the number of generated events. Modifiers specify
@@ -279,6 +291,55 @@ public abstract class Filter<T extends Event> {
     public abstract Filter<? extends Event> createFilter(ByteBuffer bytes, CommandContextProvider contextProvider) throws JdwpException;
   }
 
+  /**
+   * Tells whether the locatable events (such as single steps) of the top frame
+   * of a thread may match a filter.
+   * 
+   * @see Filter#frameMatching(ThreadInfo, Instruction)
+   */
+  public static enum FrameMatching {
+
+    /** An event of the frame may match. */
+    POSSIBLE,
+
+    /**
+     * No event of the remaining instructions of the frame matches. The events
+     * of the methods the frame calls may match.
+     */
+    NOT_IN_FRAME,
+
+    /**
+     * No event matches until the frame returns, including the events of the
+     * methods the frame calls.
+     */
+    NOT_UNTIL_RETURN;
+
+    /**
+     * The stronger of the two.
+     */
+    public FrameMatching and(FrameMatching other) {
+      return compareTo(other) >= 0 ? this : other;
+    }
+
+    /**
+     * The weaker of the two.
+     */
+    public FrameMatching or(FrameMatching other) {
+      return compareTo(other) <= 0 ? this : other;
+    }
+  }
+
+  /** An identity comparison of the event properties. */
+  protected static final int COST_IDENTITY = 0;
+  /** A lookup of an identifier or a simple navigation of the event data. */
+  protected static final int COST_LOOKUP = 1;
+  /** The cost of the filters that don't tell. */
+  protected static final int COST_DEFAULT = 2;
+  /** A string pattern match. */
+  protected static final int COST_PATTERN = 3;
+  /** A walk of the stack of a thread. */
+  protected static final int COST_STACK = 4;
+
   private ModKind modKind;
   private Class<T> genericClazz;
 
@@ -304,6 +365,48 @@ public abstract class Filter<T extends Event> {
     return false;
   }
 
+  /**
+   * The relative cost of {@link #matches(Event)}.<br/>
+   * The filters of a request are evaluated from the cheapest one since the
+   * cheap identity filters (thread, instance, location) tend to be the most
+   * selective ones as well.
+   * 
+   * @see EventRequest
+   * 
+   * @return The cost, the lower the cheaper.
+   */
+  public int cost() {
+    return COST_DEFAULT;
+  }
+
+  /**
+   * Whether the result of {@link #matches(Event)} depends on the number of the
+   * previous evaluations (as for the {@link CountFilter}). The filters of a
+   * request are never moved across such a filter.
+   * 
+   * @return true or false
+   */
+  public boolean isStateful() {
+    return false;
+  }
+
+  /**
+   * Whether the locatable events of the given thread may match this filter
+   * while the current top frame of the thread is executing.<br/>
+   * It's asked once an event at the given instruction was rejected so that
+   * the events of the frame don't have to be created and matched again. The
+   * answer must not depend on anything else than the frame and this filter.
+   * 
+   * @param thread
+   *          The thread.
+   * @param instruction
+   *          The instruction of the top frame of the thread.
+   * @return {@link FrameMatching#POSSIBLE} unless the filter knows better
+   */
+  public FrameMatching frameMatching(ThreadInfo thread, Instruction instruction) {
+    return FrameMatching.POSSIBLE;
+  }
+
   public String toString() {
     return "class: " + this.getClass() + "; modKind: " + modKind.toString();
   }
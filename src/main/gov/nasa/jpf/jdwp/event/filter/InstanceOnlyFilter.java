@@ -59,6 +59,11 @@ public class InstanceOnlyFilter extends Filter<InstanceOnlyFilterable> {
     this.objectId = objectId;
   }
 
+  @Override
+  public int cost() {
+    return COST_LOOKUP;
+  }
+
   @Override
   public boolean matches(InstanceOnlyFilterable event) {
     ElementInfo eventInstance = event.instance();
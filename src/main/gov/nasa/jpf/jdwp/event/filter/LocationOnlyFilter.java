@@ -76,6 +76,20 @@ public class LocationOnlyFilter extends Filter<LocationOnlyFilterable> {
     this.location = location;
   }
 
+  /**
+   * The location this filter restricts events to.
+   * 
+   * @return The required location
+   */
+  public Location getLocation() {
+    return location;
+  }
+
+  @Override
+  public int cost() {
+    return COST_IDENTITY;
+  }
+
   @Override
   public boolean matches(LocationOnlyFilterable event) {
     return location.equals(event.getLocation());
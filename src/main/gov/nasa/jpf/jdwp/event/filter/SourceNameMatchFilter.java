@@ -57,6 +57,11 @@ public class SourceNameMatchFilter extends Filter<SourceNameMatchFilterable> {
     this.sourceNamePattern = sourceNamePattern;
   }
 
+  @Override
+  public int cost() {
+    return COST_PATTERN;
+  }
+
   @Override
   public boolean matches(SourceNameMatchFilterable event) {
     throw new RuntimeException("NOT IMPLEMENTED YET " + event + " ... " + sourceNamePattern);
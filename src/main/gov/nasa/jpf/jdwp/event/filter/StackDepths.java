@@ -0,0 +1,120 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+package gov.nasa.jpf.jdwp.event.filter;
+
+import gov.nasa.jpf.vm.StackFrame;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the depths of the non-synthetic frames of one thread so that the
+ * depth of the current frame is found by walking only the frames pushed since
+ * the last query.<br/>
+ * A frame stays at the same depth for its whole life; a frame that is not
+ * known anymore (e.g. a frame that was replaced by its copy) is just walked
+ * over as a new one.
+ * 
+ * @author stepan
+ * 
+ */
+class StackDepths {
+
+  /**
+   * The known frames, the frame at the depth <tt>d</tt> is at the index
+   * <tt>d - 1</tt>.
+   */
+  private final List<StackFrame> knownFrames = new ArrayList<StackFrame>();
+  private final Map<StackFrame, Integer> knownDepths = new IdentityHashMap<StackFrame, Integer>();
+
+  /**
+   * Calculates the depth of the given frame.<br/>
+   * Only the non-synthetic frames are counted.
+   * 
+   * @param stackFrame
+   *          The stack frame from where to start the calculation.
+   * @return The number of non-synthetic frames from the given one down to the
+   *         bottom of the stack.
+   */
+  int depthOf(StackFrame stackFrame) {
+    int unknownFrames = 0;
+    int knownDepth = 0;
+
+    for (StackFrame frame = stackFrame; frame != null; frame = frame.getPrevious()) {
+      if (!frame.isSynthetic()) {
+        Integer depth = knownDepths.get(frame);
+        if (depth != null) {
+          knownDepth = depth;
+          break;
+        }
+        ++unknownFrames;
+      }
+    }
+
+    // forget the frames that have been popped since
+    for (int depth = knownFrames.size(); depth > knownDepth; --depth) {
+      knownDepths.remove(knownFrames.remove(depth - 1));
+    }
+
+    int currentDepth = knownDepth + unknownFrames;
+    if (unknownFrames > 0) {
+      StackFrame[] newFrames = new StackFrame[unknownFrames];
+      int i = unknownFrames;
+      for (StackFrame frame = stackFrame; i > 0; frame = frame.getPrevious()) {
+        if (!frame.isSynthetic()) {
+          newFrames[--i] = frame;
+        }
+      }
+      for (StackFrame frame : newFrames) {
+        remember(frame, knownFrames.size() + 1);
+      }
+    }
+    return currentDepth;
+  }
+
+  /**
+   * Remembers the depth of a frame. The frames have to be remembered from the
+   * bottom of the stack up.
+   * 
+   * @param frame
+   *          The non-synthetic frame.
+   * @param depth
+   *          Its depth.
+   */
+  void remember(StackFrame frame, int depth) {
+    assert knownFrames.size() == depth - 1;
+
+    knownFrames.add(frame);
+    knownDepths.put(frame, depth);
+  }
+
+  /**
+   * The number of the frames whose depth is known.
+   * 
+   * @return The number of the remembered frames.
+   */
+  int knownFrames() {
+    return knownFrames.size();
+  }
+}
@@ -24,20 +24,28 @@ package gov.nasa.jpf.jdwp.event.filter;
 import gov.nasa.jpf.jdwp.command.CommandContextProvider;
 import gov.nasa.jpf.jdwp.command.ConvertibleEnum;
 import gov.nasa.jpf.jdwp.command.ReverseEnumMap;
+import gov.nasa.jpf.jdwp.event.BreakpointInstruction;
 import gov.nasa.jpf.jdwp.event.StepFilterable;
 import gov.nasa.jpf.jdwp.exception.IllegalArgumentException;
 import gov.nasa.jpf.jdwp.exception.id.object.InvalidObjectException;
 import gov.nasa.jpf.jdwp.exception.id.object.InvalidThreadException;
 import gov.nasa.jpf.jdwp.id.JdwpIdManager;
 import gov.nasa.jpf.jdwp.id.object.ThreadId;
+import gov.nasa.jpf.jdwp.util.LineTable;
+import gov.nasa.jpf.jvm.bytecode.InvokeInstruction;
 import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
 import gov.nasa.jpf.vm.StackFrame;
 import gov.nasa.jpf.vm.ThreadInfo;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -167,24 +175,39 @@ public abstract class StepFilter extends Filter<StepFilterable> {
   private StepSize size;
 
   /**
-   * A stack frame snapshot to refer when detecting a current program state.
-   * 
-   * @author stepan
-   * 
+   * The lines of the non-synthetic frames at the time the step was requested,
+   * the top frame first.
    */
-  private class StackFrameSnapshot {
-    private Instruction pc;
+  private final int[] snapshotLines;
 
-    private StackFrameSnapshot(StackFrame frame) {
-      pc = frame.getPC();
+  /**
+   * The instruction of the top non-synthetic frame at the time the step was
+   * requested.
+   */
+  private final Instruction snapshotInstruction;
 
-      log.finest("Adding frame snapshot of " + frame + ", instruction: " + pc + " (location: " + pc.getFileLocation() + ")");
+  /**
+   * The number of non-synthetic frames at the time the step was requested.
+   */
+  protected final int snapshotDepth;
 
-      stackSnapshot.add(this);
-    }
-  }
+  /**
+   * The depths of the non-synthetic frames of the stepping thread.
+   */
+  private final StackDepths stackDepths = new StackDepths();
+
+  /**
+   * The line starts of the methods (see {@link LineTable#lineStarts(MethodInfo)}).
+   */
+  private final Map<MethodInfo, BitSet> lineStarts = new IdentityHashMap<MethodInfo, BitSet>();
 
-  protected List<StackFrameSnapshot> stackSnapshot = new ArrayList<StepFilter.StackFrameSnapshot>();
+  /**
+   * The frame and the instruction of the last rejected step. The rest of the
+   * line in the same frame is rejected as well.
+   */
+  private StackFrame rejectedFrame;
+  private int rejectedInstructionIndex;
+  private BitSet rejectedLineStarts;
 
   /**
    * 
@@ -205,55 +228,109 @@ public abstract class StepFilter extends Filter<StepFilterable> {
     this.thread = threadId;
     this.size = size;
 
+    List<StackFrame> frames = new ArrayList<StackFrame>();
     Iterator<StackFrame> stackFrameIterator = threadId.getThreadInfo().iterator();
 
     while (stackFrameIterator.hasNext()) {
       StackFrame frame = stackFrameIterator.next();
       if (!frame.isSynthetic()) {
-        new StackFrameSnapshot(frame);
+        frames.add(frame);
       }
+    }
 
+    snapshotDepth = frames.size();
+    snapshotLines = new int[snapshotDepth];
+    snapshotInstruction = snapshotDepth > 0 ? BreakpointInstruction.unwrap(frames.get(0).getPC()) : null;
+
+    for (int i = 0; i < snapshotDepth; ++i) {
+      StackFrame frame = frames.get(i);
+      snapshotLines[i] = frame.getPC().getLineNumber();
+
+      if (log.isLoggable(Level.FINEST)) {
+        log.finest("Adding frame snapshot of " + frame + ", instruction: " + frame.getPC() + " (location: "
+            + frame.getPC().getFileLocation() + ")");
+      }
+    }
+
+    for (int i = snapshotDepth - 1; i >= 0; --i) {
+      stackDepths.remember(frames.get(i), snapshotDepth - i);
+    }
+  }
+
+  @Override
+  public int cost() {
+    return COST_STACK;
+  }
+
+  @Override
+  public boolean matches(StepFilterable event) throws InvalidObjectException {
+    Instruction currentInstruction = event.getLocation().getInstruction();
+    ThreadInfo currentThread = event.getThread();
+
+    if (onRejectedLine(currentInstruction, currentThread)) {
+      return false;
+    }
+    if (matches(currentInstruction, currentThread)) {
+      rejectedFrame = null;
+      return true;
     }
 
+    if (size == StepSize.LINE && currentInstruction.getMethodInfo() != null) {
+      MethodInfo methodInfo = currentInstruction.getMethodInfo();
+      rejectedLineStarts = lineStarts.get(methodInfo);
+      if (rejectedLineStarts == null) {
+        rejectedLineStarts = LineTable.lineStarts(methodInfo);
+        lineStarts.put(methodInfo, rejectedLineStarts);
+      }
+      rejectedFrame = currentThread.getTopFrame();
+      rejectedInstructionIndex = currentInstruction.getInstructionIndex();
+    }
+    return false;
   }
 
   /**
-   * Calculates size of a stack from the given {@link StackFrame} instance.
+   * Whether the given instruction is at the same line and in the same frame as
+   * the last rejected one so that it would be rejected for the same reasons.<br/>
+   * The line starts and the invocations are never skipped since the step
+   * filters accept them regardless of the line.
    * 
-   * @param stackFrame
-   *          The stack frame from where to start the calculation.
-   * @return the calculated size.
+   * @param currentInstruction
+   *          The instruction to match.
+   * @param currentThread
+   *          The thread to match.
+   * @return true if the instruction can be rejected right away
    */
-  private int stackSize(StackFrame stackFrame) {
-    int depth = 1;
-    while (previousNonSyntheticStackFrame(stackFrame) != null) {
-      stackFrame = previousNonSyntheticStackFrame(stackFrame);
-      ++depth;
+  private boolean onRejectedLine(Instruction currentInstruction, ThreadInfo currentThread) {
+    if (rejectedFrame == null || currentThread.getTopFrame() != rejectedFrame) {
+      return false;
     }
-    return depth;
+    return onSameLine(rejectedLineStarts, rejectedInstructionIndex, currentInstruction);
   }
 
   /**
-   * Lookups previous non-synthetic frame for the given {@link StackFrame}
-   * instance.
+   * Whether the given instruction belongs to the same line table entry as the
+   * rejected instruction of the same method and it's neither a line start nor
+   * an invocation.
    * 
-   * @param stackFrame
-   *          The stack frame from where to start the calculation.
-   * @return
+   * @param lineStarts
+   *          The line starts of the method (see
+   *          {@link LineTable#lineStarts(MethodInfo)}).
+   * @param rejectedInstructionIndex
+   *          The index of the rejected instruction.
+   * @param instruction
+   *          The instruction to match.
+   * @return true if the instruction can be rejected right away
    */
-  private StackFrame previousNonSyntheticStackFrame(StackFrame stackFrame) {
-    while (stackFrame.getPrevious() != null) {
-      stackFrame = stackFrame.getPrevious();
-      if (!stackFrame.isSynthetic()) {
-        return stackFrame;
-      }
+  static boolean onSameLine(BitSet lineStarts, int rejectedInstructionIndex, Instruction instruction) {
+    int index = instruction.getInstructionIndex();
+    if (lineStarts.get(index) || instruction instanceof InvokeInstruction) {
+      return false;
     }
-    return null;
-  }
 
-  @Override
-  public boolean matches(StepFilterable event) throws InvalidObjectException {
-    return matches(event.getLocation().getInstruction(), event.getThread());
+    // no line starts between the two instructions (either way, the
+    // instruction may be reached by a back jump)
+    int nextLineStart = lineStarts.nextSetBit(Math.min(index, rejectedInstructionIndex) + 1);
+    return nextLineStart < 0 || nextLineStart > Math.max(index, rejectedInstructionIndex);
   }
 
   /**
@@ -277,24 +354,31 @@ public abstract class StepFilter extends Filter<StepFilterable> {
       /* There is no way to go */
       return false;
     }
-    int currentStackFrameSize = stackSize(currentStackFrame);
+    int currentStackFrameSize = stackDepths.depthOf(currentStackFrame);
 
-    /* If we're in a synthetic method, return immediately */
-    if (currentInstruction != currentStackFrame.getPC()) {
-      log.finest("Skip encountered for a synthetic instruction (or instruction from a synthetic frame): " + currentInstruction
-          + ", (fileresource: " + currentInstruction.getFileLocation() + ")");
+    /*
+     * If we're in a synthetic method, return immediately (a patched breakpoint
+     * site is the original instruction as far as the locations are concerned)
+     */
+    if (currentInstruction != BreakpointInstruction.unwrap(currentStackFrame.getPC())) {
+      if (log.isLoggable(Level.FINEST)) {
+        log.finest("Skip encountered for a synthetic instruction (or instruction from a synthetic frame): " + currentInstruction
+            + ", (fileresource: " + currentInstruction.getFileLocation() + ")");
+      }
       return false;
     }
 
-    log.finest("Current instruction: " + currentInstruction + ", current frame: " + currentStackFrame + " (filesource: "
-        + currentInstruction.getFileLocation() + "), stack size: " + currentStackFrameSize);
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest("Current instruction: " + currentInstruction + ", current frame: " + currentStackFrame + " (filesource: "
+          + currentInstruction.getFileLocation() + "), stack size: " + currentStackFrameSize);
+    }
 
     switch (size) {
     case LINE:
       return matches(currentStackFrameSize, currentInstruction);
 
     case MIN:
-      if (stackSnapshot.get(0).pc != currentInstruction) {
+      if (snapshotInstruction != currentInstruction) {
         return true;
       }
       break;
@@ -318,7 +402,7 @@ public abstract class StepFilter extends Filter<StepFilterable> {
    *         given stack depth is located at a different line.
    */
   protected boolean lineDiffers(int snapshotStackDepth, Instruction instruction) {
-    return stackSnapshot.get(snapshotStackDepth).pc.getLineNumber() != instruction.getLineNumber();
+    return snapshotLines[snapshotStackDepth] != instruction.getLineNumber();
   }
 
   /**
@@ -335,6 +419,35 @@ public abstract class StepFilter extends Filter<StepFilterable> {
 
   protected abstract boolean matches(int currentStackFrameSize, Instruction currentInstruction);
 
+  @Override
+  public FrameMatching frameMatching(ThreadInfo currentThread, Instruction currentInstruction) {
+    if (JdwpIdManager.getInstance().getThreadId(currentThread) != thread) {
+      return FrameMatching.NOT_UNTIL_RETURN;
+    }
+
+    StackFrame topFrame = currentThread.getTopFrame();
+    if (topFrame == null) {
+      return FrameMatching.POSSIBLE;
+    }
+    if (topFrame.isSynthetic()) {
+      /* nothing is reported from the synthetic frames */
+      return FrameMatching.NOT_IN_FRAME;
+    }
+    if (size != StepSize.LINE) {
+      return FrameMatching.POSSIBLE;
+    }
+    return frameMatching(stackDepths.depthOf(topFrame));
+  }
+
+  /**
+   * Whether a step may end in a frame at the given depth.
+   * 
+   * @param currentStackFrameSize
+   *          The depth of the frame.
+   * @return The depth based answer for {@link #frameMatching(ThreadInfo, Instruction)}.
+   */
+  protected abstract FrameMatching frameMatching(int currentStackFrameSize);
+
   /**
    * Creates the {@link StepFilter} subtype that implements the actual
    * filtering.
@@ -43,7 +43,7 @@ public class StepIntoFilter extends StepFilter {
   @Override
   protected boolean matches(int currentStackFrameSize, Instruction currentInstruction) {
     /* we just stepped in some method */
-    if (currentStackFrameSize > stackSnapshot.size()) {
+    if (currentStackFrameSize > snapshotDepth) {
 
       /*
        * we're accepting only method very beginnings and we don't step into
@@ -56,7 +56,7 @@ public class StepIntoFilter extends StepFilter {
     }
 
     /* we're in the same method */
-    if (currentStackFrameSize == stackSnapshot.size()) {
+    if (currentStackFrameSize == snapshotDepth) {
 
       /* we're already on different line */
       if (currentLineDiffers(currentInstruction)) {
@@ -66,10 +66,10 @@ public class StepIntoFilter extends StepFilter {
     }
 
     /* we're in the caller's method */
-    if (currentStackFrameSize < stackSnapshot.size()) {
+    if (currentStackFrameSize < snapshotDepth) {
 
       /* we're already on a different line */
-      if (lineDiffers(stackSnapshot.size() - currentStackFrameSize, currentInstruction)) {
+      if (lineDiffers(snapshotDepth - currentStackFrameSize, currentInstruction)) {
         return true;
       }
 
@@ -102,4 +102,13 @@ public class StepIntoFilter extends StepFilter {
     return false;
   }
 
+  @Override
+  protected FrameMatching frameMatching(int currentStackFrameSize) {
+    if (currentStackFrameSize > snapshotDepth) {
+      // only the beginnings of the methods are accepted in the called frames
+      return FrameMatching.NOT_IN_FRAME;
+    }
+    return FrameMatching.POSSIBLE;
+  }
+
 }
@@ -42,10 +42,10 @@ public class StepOutFilter extends StepFilter {
   @Override
   protected boolean matches(int currentStackFrameSize, Instruction currentInstruction) {
     /* we just stepped out of some method */
-    if (currentStackFrameSize < stackSnapshot.size()) {
+    if (currentStackFrameSize < snapshotDepth) {
 
       /* we're already on a different line */
-      if (lineDiffers(stackSnapshot.size() - currentStackFrameSize, currentInstruction)) {
+      if (lineDiffers(snapshotDepth - currentStackFrameSize, currentInstruction)) {
         return true;
       }
 
@@ -58,4 +58,12 @@ public class StepOutFilter extends StepFilter {
     return false;
   }
 
+  @Override
+  protected FrameMatching frameMatching(int currentStackFrameSize) {
+    if (currentStackFrameSize >= snapshotDepth) {
+      return FrameMatching.NOT_UNTIL_RETURN;
+    }
+    return FrameMatching.POSSIBLE;
+  }
+
 }
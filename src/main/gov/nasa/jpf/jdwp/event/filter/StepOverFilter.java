@@ -42,7 +42,7 @@ public class StepOverFilter extends StepFilter {
   @Override
   protected boolean matches(int currentStackFrameSize, Instruction currentInstruction) {
     /* we're at the same stack depth as when step was requested */
-    if (currentStackFrameSize == stackSnapshot.size()) {
+    if (currentStackFrameSize == snapshotDepth) {
 
       /* we're already on a different line */
       if (currentLineDiffers(currentInstruction)) {
@@ -51,10 +51,10 @@ public class StepOverFilter extends StepFilter {
     }
 
     /* we just stepped out of some method */
-    if (currentStackFrameSize < stackSnapshot.size()) {
+    if (currentStackFrameSize < snapshotDepth) {
 
       /* we're already on a different line */
-      if (lineDiffers(stackSnapshot.size() - currentStackFrameSize, currentInstruction)) {
+      if (lineDiffers(snapshotDepth - currentStackFrameSize, currentInstruction)) {
         return true;
       }
 
@@ -66,4 +66,12 @@ public class StepOverFilter extends StepFilter {
     return false;
   }
 
+  @Override
+  protected FrameMatching frameMatching(int currentStackFrameSize) {
+    if (currentStackFrameSize > snapshotDepth) {
+      return FrameMatching.NOT_UNTIL_RETURN;
+    }
+    return FrameMatching.POSSIBLE;
+  }
+
 }
@@ -24,6 +24,9 @@ package gov.nasa.jpf.jdwp.event.filter;
 import gov.nasa.jpf.jdwp.event.Threadable;
 import gov.nasa.jpf.jdwp.exception.id.object.InvalidObjectException;
 import gov.nasa.jpf.jdwp.id.object.ThreadId;
+import gov.nasa.jpf.vm.ElementInfo;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MJIEnv;
 import gov.nasa.jpf.vm.ThreadInfo;
 
 /**
@@ -43,6 +46,10 @@ public class ThreadOnlyFilter extends Filter<Threadable> {
 
   private ThreadId threadId;
 
+  // the reference of the thread object, the events of the other threads are
+  // rejected by comparing it without resolving the thread
+  private int threadObjectRef = MJIEnv.NULL;
+
   /**
    * Creates Thread Only filter.
    * 
@@ -52,14 +59,36 @@ public class ThreadOnlyFilter extends Filter<Threadable> {
   public ThreadOnlyFilter(ThreadId threadId) {
     super(ModKind.THREAD_ONLY, Threadable.class);
     this.threadId = threadId;
+
+    try {
+      ElementInfo threadObject = threadId.get();
+      if (threadObject != null) {
+        threadObjectRef = threadObject.getObjectRef();
+      }
+    } catch (InvalidObjectException e) {
+      // the filter matches nothing anyway
+    }
+  }
+
+  @Override
+  public int cost() {
+    return COST_IDENTITY;
   }
 
   @Override
   public boolean matches(Threadable event) {
+    return isEventThread(event.getThread());
+  }
+
+  private boolean isEventThread(ThreadInfo eventThread) {
+    if (threadObjectRef != MJIEnv.NULL && eventThread != null && eventThread.getThreadObjectRef() != threadObjectRef) {
+      return false;
+    }
+
     ThreadInfo threadInfo;
     try {
       threadInfo = threadId.getThreadInfo();
-      return event.getThread() == threadInfo;
+      return eventThread == threadInfo;
     } catch (InvalidObjectException e) {
       // info object is not accessible and therefore this filter is not
       // effective
@@ -67,4 +96,9 @@ public class ThreadOnlyFilter extends Filter<Threadable> {
     }
   }
 
+  @Override
+  public FrameMatching frameMatching(ThreadInfo thread, Instruction instruction) {
+    return isEventThread(thread) ? FrameMatching.POSSIBLE : FrameMatching.NOT_UNTIL_RETURN;
+  }
+
 }
@@ -141,7 +141,9 @@ public class ObjectIdManager {
    * A set of Object ID Identifiers that are used in this JDWP session.<br/>
    * This map shouldn't cause {@link OutOfMemoryError} error if it grows too
    * much. If it does though the JDWP back-end will start to produce
-   * {@link InvalidObjectException} errors to the debugger.
+   * {@link InvalidObjectException} errors to the debugger.<br/>
+   * The map is guarded by this manager since the read-only commands may run
+   * concurrently (and even {@link WeakHashMap#get(Object)} modifies the map).
    */
   private Map<ObjectId, SoftReference<ObjectId>> idMap = new WeakHashMap<>();
 
@@ -150,7 +152,7 @@ public class ObjectIdManager {
     idMap.put(NullObjectId.getInstance(), new SoftReference<ObjectId>(NullObjectId.getInstance()));
   }
 
-  private <I extends ObjectId> ObjectId get(IdentifierPointer pointer) throws InvalidObjectException {
+  private synchronized <I extends ObjectId> ObjectId get(IdentifierPointer pointer) throws InvalidObjectException {
     Reference<? extends ObjectId> ref = idMap.get(pointer);
     if (ref == null) {
       // there is no such ID registered by this ID manager
@@ -246,35 +248,37 @@ public class ObjectIdManager {
         
         IdentifierPointer pointer = new IdentifierPointer((long) object.getObjectRef());
   
-        if (idMap.containsKey(pointer)) {
-          // this ID is already managed
+        synchronized (ObjectIdManager.this) {
+          if (idMap.containsKey(pointer)) {
+            // this ID is already managed
   
-          try {
-            objectId = get(pointer);
-          } catch (InvalidObjectException e) {
-            // the table contains this ID; however, an exception occurred which
-            // should not happened
-            // this is probably programmer's fault
-            throw new IllegalStateException("The Object ID manager contains incompatible identifier for object: '" + object + "'", e);
-          }
+            try {
+              objectId = get(pointer);
+            } catch (InvalidObjectException e) {
+              // the table contains this ID; however, an exception occurred which
+              // should not happened
+              // this is probably programmer's fault
+              throw new IllegalStateException("The Object ID manager contains incompatible identifier for object: '" + object + "'", e);
+            }
   
-          try {
-            if (!object.equals(objectId.get())) {
-              // this exception proves that we cannot compare element infos ...
-              // if this happens a redesign is required
-              throw new IllegalStateException(String.format("Object '%s' is not object '%s' for objectId '%s'", object, objectId.get(),
-                                                            objectId));
+            try {
+              if (!object.equals(objectId.get())) {
+                // this exception proves that we cannot compare element infos ...
+                // if this happens a redesign is required
+                throw new IllegalStateException(String.format("Object '%s' is not object '%s' for objectId '%s'", object, objectId.get(),
+                                                              objectId));
+              }
+            } catch (InvalidObjectException e) {
+              throw new IllegalStateException("This should be a dead code since the null object is processed in a different if clause. Null objectId: " + objectId, e);
             }
-          } catch (InvalidObjectException e) {
-            throw new IllegalStateException("This should be a dead code since the null object is processed in a different if clause. Null objectId: " + objectId, e);
-          }
   
-        } else {
-          objectId = createIdentifier(pointer.getId(), object);
-          idMap.put(objectId, new SoftReference<ObjectId>(objectId));
+          } else {
+            objectId = createIdentifier(pointer.getId(), object);
+            idMap.put(objectId, new SoftReference<ObjectId>(objectId));
   
-          logger.debug("Created object ID: {}, (identifier: {}) object: {}, class: {}, classInfo: {}", pointer.getId(), objectId, object,
-                       object.getClass(), ((ElementInfo) object).getClassInfo());
+            logger.debug("Created object ID: {}, (identifier: {}) object: {}, class: {}, classInfo: {}", pointer.getId(), objectId, object,
+                         object.getClass(), ((ElementInfo) object).getClassInfo());
+          }
         }
       
       }
@@ -0,0 +1,198 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import gnu.classpath.jdwp.transport.EventSender;
+import gnu.classpath.jdwp.transport.JdwpConnection;
+import gov.nasa.jpf.jdwp.stats.CommandStatistics.CommandEntry;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the statistics of the JDWP agent over JMX and optionally dumps
+ * them to the log periodically.
+ * 
+ * @author stepan
+ * 
+ */
+public class AgentStatistics implements AgentStatisticsMXBean {
+
+  final static Logger logger = LoggerFactory.getLogger(AgentStatistics.class);
+
+  /**
+   * The name the bean is registered under.
+   */
+  public static final String OBJECT_NAME = "gov.nasa.jpf.jdwp:type=Agent";
+
+  private final CommandStatistics commandStatistics;
+  private final LockStatistics lockStatistics;
+  private final JdwpConnection connection;
+  private final EventSender eventSender;
+
+  private ObjectName registeredName;
+  private Timer dumpTimer;
+
+  /**
+   * Creates the statistics.
+   * 
+   * @param commandStatistics
+   *          The command statistics.
+   * @param lockStatistics
+   *          The statistics of the run lock.
+   * @param connection
+   *          The connection to the debugger.
+   * @param eventSender
+   *          The event sender or <code>null</code> if the events are written
+   *          synchronously.
+   */
+  public AgentStatistics(CommandStatistics commandStatistics, LockStatistics lockStatistics, JdwpConnection connection,
+      EventSender eventSender) {
+    this.commandStatistics = commandStatistics;
+    this.lockStatistics = lockStatistics;
+    this.connection = connection;
+    this.eventSender = eventSender;
+  }
+
+  /**
+   * Registers the bean in the platform MBean server. Any failure is just
+   * logged; the statistics are not essential.
+   */
+  public void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        // a previous session in this JVM
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      registeredName = name;
+    } catch (JMException e) {
+      logger.warn("Cannot register the JDWP agent statistics MBean", e);
+    }
+  }
+
+  /**
+   * Dumps the statistics to the log periodically.
+   * 
+   * @param intervalSeconds
+   *          The dump interval.
+   */
+  public synchronized void startDumping(long intervalSeconds) {
+    dumpTimer = new Timer("JDWP statistics dump", true);
+    dumpTimer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        logger.info("JDWP agent statistics:\n{}", dump());
+      }
+    }, intervalSeconds * 1000, intervalSeconds * 1000);
+  }
+
+  /**
+   * Stops the periodic dump (dumping the statistics one last time) and
+   * unregisters the bean.
+   */
+  public synchronized void shutdown() {
+    if (dumpTimer != null) {
+      dumpTimer.cancel();
+      dumpTimer = null;
+      logger.info("JDWP agent statistics:\n{}", dump());
+    }
+    if (registeredName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+      } catch (JMException e) {
+        logger.debug("Cannot unregister the JDWP agent statistics MBean", e);
+      }
+      registeredName = null;
+    }
+  }
+
+  @Override
+  public List<CommandSummary> getCommands() {
+    List<CommandSummary> commands = new ArrayList<CommandSummary>();
+    for (CommandEntry entry : commandStatistics.getEntries()) {
+      commands.add(new CommandSummary(entry));
+    }
+    return commands;
+  }
+
+  @Override
+  public long getTotalInvocations() {
+    long total = 0;
+    for (CommandEntry entry : commandStatistics.getEntries()) {
+      total += entry.getInvocations();
+    }
+    return total;
+  }
+
+  @Override
+  public int getCommandQueueDepth() {
+    return connection.getCommandQueueDepth();
+  }
+
+  @Override
+  public int getMaxCommandQueueDepth() {
+    return connection.getMaxCommandQueueDepth();
+  }
+
+  @Override
+  public int getEventQueueLength() {
+    return eventSender == null ? -1 : eventSender.getQueueLength();
+  }
+
+  @Override
+  public long getDroppedEvents() {
+    return eventSender == null ? -1 : eventSender.getDroppedPackets();
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder sb = new StringBuilder(commandStatistics.dump());
+    sb.append(lockStatistics.dump());
+    sb.append("command queue depth: ").append(getCommandQueueDepth()).append(" (max ").append(getMaxCommandQueueDepth()).append(")");
+    if (eventSender != null) {
+      sb.append(String.format("%nevent queue length: %d, sent: %d, dropped: %d, avg latency: %.1f us, max latency: %.1f us",
+          eventSender.getQueueLength(), eventSender.getSentPackets(), eventSender.getDroppedPackets(),
+          eventSender.getAverageLatencyNanos() / 1e3, eventSender.getMaxLatencyNanos() / 1e3));
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void reset() {
+    commandStatistics.reset();
+    lockStatistics.reset();
+  }
+}
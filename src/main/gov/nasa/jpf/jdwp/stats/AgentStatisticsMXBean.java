@@ -0,0 +1,78 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import java.util.List;
+
+/**
+ * The management interface of the JDWP agent statistics. The bean is
+ * registered as <tt>gov.nasa.jpf.jdwp:type=Agent</tt> if the statistics are
+ * enabled by <tt>jpf-jdwp.stats.enabled</tt>.
+ * 
+ * @author stepan
+ * 
+ */
+public interface AgentStatisticsMXBean {
+
+  /**
+   * The statistics of the executed commands, the most expensive first.
+   */
+  List<CommandSummary> getCommands();
+
+  /**
+   * The number of commands executed so far.
+   */
+  long getTotalInvocations();
+
+  /**
+   * The number of commands waiting for processing.
+   */
+  int getCommandQueueDepth();
+
+  /**
+   * The highest number of commands that were waiting for processing at once.
+   */
+  int getMaxCommandQueueDepth();
+
+  /**
+   * The number of event packets waiting to be written or -1 if the events are
+   * written synchronously.
+   */
+  int getEventQueueLength();
+
+  /**
+   * The number of dropped event packets or -1 if the events are written
+   * synchronously.
+   */
+  long getDroppedEvents();
+
+  /**
+   * The statistics formatted as a table.
+   */
+  String dump();
+
+  /**
+   * Forgets the command statistics collected so far.
+   */
+  void reset();
+}
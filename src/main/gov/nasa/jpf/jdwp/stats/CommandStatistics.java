@@ -0,0 +1,207 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import gov.nasa.jpf.jdwp.command.Command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics of the executed JDWP commands.<br/>
+ * For every command there is the number of invocations and histograms of the
+ * time spent waiting for the run lock, the execution time and the reply
+ * size.
+ * 
+ * <p>
+ * The statistics are collected only if enabled (see {@link #enable()}).
+ * Callers check {@link #getInstance()} for <code>null</code> first, hence a
+ * disabled instrumentation costs one static field read per command.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class CommandStatistics {
+
+  private static volatile CommandStatistics instance = null;
+
+  private final ConcurrentMap<Command, CommandEntry> entries = new ConcurrentHashMap<Command, CommandEntry>();
+
+  /**
+   * The statistics of a single command.
+   */
+  public static class CommandEntry {
+    private final String name;
+    private final Histogram lockWait = new Histogram();
+    private final Histogram execution = new Histogram();
+    private final Histogram replySize = new Histogram();
+
+    CommandEntry(String name) {
+      this.name = name;
+    }
+
+    /**
+     * The name of the command including its command set (e.g.
+     * <tt>VirtualMachineCommand.ALLCLASSES</tt>).
+     */
+    public String getName() {
+      return name;
+    }
+
+    public long getInvocations() {
+      return execution.getCount();
+    }
+
+    /**
+     * Time spent waiting for the run lock in nanoseconds.
+     */
+    public Histogram getLockWait() {
+      return lockWait;
+    }
+
+    /**
+     * Execution time in nanoseconds.
+     */
+    public Histogram getExecution() {
+      return execution;
+    }
+
+    /**
+     * Reply size in bytes (without the header).
+     */
+    public Histogram getReplySize() {
+      return replySize;
+    }
+
+    void reset() {
+      lockWait.reset();
+      execution.reset();
+      replySize.reset();
+    }
+  }
+
+  /**
+   * The statistics if enabled.
+   * 
+   * @return The statistics or <code>null</code> if disabled.
+   */
+  public static CommandStatistics getInstance() {
+    return instance;
+  }
+
+  /**
+   * Enables the collection of the statistics.
+   * 
+   * @return The statistics.
+   */
+  public static synchronized CommandStatistics enable() {
+    if (instance == null) {
+      instance = new CommandStatistics();
+    }
+    return instance;
+  }
+
+  /**
+   * Records a command execution.
+   * 
+   * @param command
+   *          The command.
+   * @param lockWaitNanos
+   *          How long the command waited for the run lock.
+   * @param executionNanos
+   *          How long the command ran.
+   * @param replySize
+   *          The reply size in bytes or a negative value if unknown.
+   */
+  public void record(Command command, long lockWaitNanos, long executionNanos, int replySize) {
+    CommandEntry entry = entries.get(command);
+    if (entry == null) {
+      CommandEntry created = new CommandEntry(name(command));
+      entry = entries.putIfAbsent(command, created);
+      if (entry == null) {
+        entry = created;
+      }
+    }
+    entry.lockWait.record(lockWaitNanos);
+    entry.execution.record(executionNanos);
+    if (replySize >= 0) {
+      entry.replySize.record(replySize);
+    }
+  }
+
+  private static String name(Command command) {
+    if (command instanceof Enum) {
+      Enum<?> constant = (Enum<?>) command;
+      return constant.getDeclaringClass().getSimpleName() + "." + constant.name();
+    }
+    return command.toString();
+  }
+
+  /**
+   * The statistics of the commands executed so far ordered by the total
+   * execution time (the most expensive first).
+   * 
+   * @return The entries.
+   */
+  public List<CommandEntry> getEntries() {
+    List<CommandEntry> list = new ArrayList<CommandEntry>(entries.values());
+    Collections.sort(list, new Comparator<CommandEntry>() {
+      @Override
+      public int compare(CommandEntry o1, CommandEntry o2) {
+        return Long.compare(o2.execution.getSum() + o2.lockWait.getSum(), o1.execution.getSum() + o1.lockWait.getSum());
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    for (CommandEntry entry : entries.values()) {
+      entry.reset();
+    }
+  }
+
+  /**
+   * Formats the statistics as a table.
+   * 
+   * @return The table.
+   */
+  public String dump() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-50s %10s %12s %12s %12s %12s %12s %12s%n", "command", "count", "lock avg us", "lock p99 us", "exec avg us",
+        "exec p99 us", "exec max us", "reply avg B"));
+    for (CommandEntry entry : getEntries()) {
+      sb.append(String.format("%-50s %10d %12.1f %12.1f %12.1f %12.1f %12.1f %12.0f%n", entry.getName(), entry.getInvocations(), entry.lockWait
+          .getMean() / 1e3, entry.lockWait.getPercentile(99) / 1e3, entry.execution.getMean() / 1e3,
+          entry.execution.getPercentile(99) / 1e3, entry.execution.getMax() / 1e3, entry.replySize.getMean()));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,98 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import gov.nasa.jpf.jdwp.stats.CommandStatistics.CommandEntry;
+
+/**
+ * A snapshot of the statistics of a single command as published over JMX.
+ * 
+ * @author stepan
+ * 
+ */
+public class CommandSummary {
+
+  private final String name;
+  private final long invocations;
+  private final double lockWaitMeanMicros;
+  private final double lockWaitP99Micros;
+  private final double executionMeanMicros;
+  private final double executionP50Micros;
+  private final double executionP99Micros;
+  private final double executionMaxMicros;
+  private final double replySizeMean;
+  private final long replySizeMax;
+
+  CommandSummary(CommandEntry entry) {
+    name = entry.getName();
+    invocations = entry.getInvocations();
+    lockWaitMeanMicros = entry.getLockWait().getMean() / 1e3;
+    lockWaitP99Micros = entry.getLockWait().getPercentile(99) / 1e3;
+    executionMeanMicros = entry.getExecution().getMean() / 1e3;
+    executionP50Micros = entry.getExecution().getPercentile(50) / 1e3;
+    executionP99Micros = entry.getExecution().getPercentile(99) / 1e3;
+    executionMaxMicros = entry.getExecution().getMax() / 1e3;
+    replySizeMean = entry.getReplySize().getMean();
+    replySizeMax = entry.getReplySize().getMax();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getInvocations() {
+    return invocations;
+  }
+
+  public double getLockWaitMeanMicros() {
+    return lockWaitMeanMicros;
+  }
+
+  public double getLockWaitP99Micros() {
+    return lockWaitP99Micros;
+  }
+
+  public double getExecutionMeanMicros() {
+    return executionMeanMicros;
+  }
+
+  public double getExecutionP50Micros() {
+    return executionP50Micros;
+  }
+
+  public double getExecutionP99Micros() {
+    return executionP99Micros;
+  }
+
+  public double getExecutionMaxMicros() {
+    return executionMaxMicros;
+  }
+
+  public double getReplySizeMean() {
+    return replySizeMean;
+  }
+
+  public long getReplySizeMax() {
+    return replySizeMax;
+  }
+}
@@ -0,0 +1,177 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative long values (latencies in
+ * nanoseconds, sizes in bytes) with a bounded relative error.<br/>
+ * The values are counted in log-linear buckets as in the HDR histogram; every
+ * power of two range is split into {@value #SUB_BUCKETS} buckets, hence the
+ * error of a reported percentile is within about 6%.
+ * 
+ * <p>
+ * Recording is lock-free and doesn't allocate.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  /**
+   * The number of buckets each power of two range is split into.
+   */
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records the value; negative values are recorded as zero.
+   * 
+   * @param value
+   *          The value.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+
+    long currentMax;
+    while (value > (currentMax = max.get())) {
+      if (max.compareAndSet(currentMax, value)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * The bucket the value is counted in.
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * The highest value counted in the bucket.
+   */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * The number of recorded values.
+   * 
+   * @return The count.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * The sum of the recorded values.
+   * 
+   * @return The sum.
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * The mean of the recorded values.
+   * 
+   * @return The mean or 0 if nothing was recorded.
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * The highest recorded value.
+   * 
+   * @return The maximum.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * The value below which the given percentage of the recorded values falls.
+   * 
+   * @param percentile
+   *          The percentile (0 - 100).
+   * @return The upper bound of the bucket containing the percentile or 0 if
+   *         nothing was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets all the recorded values. Values recorded concurrently may or may
+   * not be forgotten.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+}
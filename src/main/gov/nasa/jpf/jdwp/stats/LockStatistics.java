@@ -0,0 +1,155 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics of a lock.<br/>
+ * For every thread that owned the lock there are histograms of the time spent
+ * waiting for the lock and of the time the lock was held.
+ * 
+ * @see gov.nasa.jpf.jdwp.util.SafeLock#setStatistics(LockStatistics)
+ * 
+ * @author stepan
+ * 
+ */
+public class LockStatistics {
+
+  private final ConcurrentMap<String, OwnerEntry> entries = new ConcurrentHashMap<String, OwnerEntry>();
+
+  /**
+   * The statistics of a single owner thread.
+   */
+  public static class OwnerEntry {
+    private final String name;
+    private final Histogram wait = new Histogram();
+    private final Histogram hold = new Histogram();
+
+    OwnerEntry(String name) {
+      this.name = name;
+    }
+
+    /**
+     * The name of the owner thread.
+     */
+    public String getName() {
+      return name;
+    }
+
+    public long getAcquisitions() {
+      return hold.getCount();
+    }
+
+    /**
+     * Time spent waiting for the lock in nanoseconds.
+     */
+    public Histogram getWait() {
+      return wait;
+    }
+
+    /**
+     * Time the lock was held in nanoseconds.
+     */
+    public Histogram getHold() {
+      return hold;
+    }
+
+    void reset() {
+      wait.reset();
+      hold.reset();
+    }
+  }
+
+  /**
+   * Records that the given thread held the lock.
+   * 
+   * @param owner
+   *          The owner thread.
+   * @param waitNanos
+   *          How long the thread waited for the lock.
+   * @param holdNanos
+   *          How long the thread held the lock.
+   */
+  public void record(Thread owner, long waitNanos, long holdNanos) {
+    String name = owner.getName();
+    OwnerEntry entry = entries.get(name);
+    if (entry == null) {
+      OwnerEntry created = new OwnerEntry(name);
+      entry = entries.putIfAbsent(name, created);
+      if (entry == null) {
+        entry = created;
+      }
+    }
+    entry.wait.record(waitNanos);
+    entry.hold.record(holdNanos);
+  }
+
+  /**
+   * The statistics of the owners ordered by the total hold time (the longest
+   * first).
+   * 
+   * @return The entries.
+   */
+  public List<OwnerEntry> getEntries() {
+    List<OwnerEntry> list = new ArrayList<OwnerEntry>(entries.values());
+    Collections.sort(list, new Comparator<OwnerEntry>() {
+      @Override
+      public int compare(OwnerEntry o1, OwnerEntry o2) {
+        return Long.compare(o2.hold.getSum(), o1.hold.getSum());
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    for (OwnerEntry entry : entries.values()) {
+      entry.reset();
+    }
+  }
+
+  /**
+   * Formats the statistics as a table.
+   * 
+   * @return The table.
+   */
+  public String dump() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-30s %10s %12s %12s %12s %12s %12s %12s%n", "lock owner", "count", "wait avg us", "wait p99 us",
+        "wait max us", "hold avg us", "hold p99 us", "hold max us"));
+    for (OwnerEntry entry : getEntries()) {
+      sb.append(String.format("%-30s %10d %12.1f %12.1f %12.1f %12.1f %12.1f %12.1f%n", entry.getName(), entry.getAcquisitions(),
+          entry.wait.getMean() / 1e3, entry.wait.getPercentile(99) / 1e3, entry.wait.getMax() / 1e3, entry.hold.getMean() / 1e3,
+          entry.hold.getPercentile(99) / 1e3, entry.hold.getMax() / 1e3));
+    }
+    return sb.toString();
+  }
+}
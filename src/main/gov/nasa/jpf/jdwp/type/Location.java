@@ -22,6 +22,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package gov.nasa.jpf.jdwp.type;
 
 import gov.nasa.jpf.jdwp.command.CommandContextProvider;
+import gov.nasa.jpf.jdwp.event.BreakpointInstruction;
 import gov.nasa.jpf.jdwp.exception.InvalidLocationException;
 import gov.nasa.jpf.jdwp.exception.id.InvalidIdentifierException;
 import gov.nasa.jpf.jdwp.id.JdwpIdManager;
@@ -87,16 +88,31 @@ public class Location {
   /**
    * Locations should be create using a factory.
    */
-  private Location(MethodInfo methodInfo, int index, Instruction instruction) {
+  protected Location(MethodInfo methodInfo, int index, Instruction instruction) {
     this.methodInfo = methodInfo;
     this.index = index;
     this.instruction = instruction;
   }
 
+  /**
+   * Points this location to the given instruction.<br/>
+   * Locations are immutable, this is only for the reusable locations of the
+   * event probes which never leave the matching of the events.
+   * 
+   * @param instruction
+   *          The instruction.
+   */
+  protected void moveTo(Instruction instruction) {
+    this.methodInfo = instruction.getMethodInfo();
+    this.index = instruction.getInstructionIndex();
+    this.instruction = instruction;
+  }
+
   /**
    * Creates a location for the given instruction.<br/>
    * No check, whether given instruction is possible to transform in a
-   * <tt>location</tt>.
+   * <tt>location</tt>. A patched breakpoint site is replaced by its original
+   * instruction.
    * 
    * @see Location#factorySafe(Instruction, ThreadInfo)
    * 
@@ -105,6 +121,7 @@ public class Location {
    * @return The location
    */
   public static Location factory(Instruction instruction) {
+    instruction = BreakpointInstruction.unwrap(instruction);
     return new Location(instruction.getMethodInfo(), instruction.getInstructionIndex(), instruction);
   }
 
@@ -143,7 +160,7 @@ public class Location {
     MethodInfo methodInfo = methodId.get();
     
     long index = bytes.getLong();
-    Instruction instruction = methodInfo.getInstruction((int) index);
+    Instruction instruction = BreakpointInstruction.unwrap(methodInfo.getInstruction((int) index));
 
     if (instruction == null) {
       throw new InvalidLocationException(classInfo, methodInfo, instruction, index);
@@ -0,0 +1,297 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded multi-producer multi-consumer queue.<br/>
+ * The non-blocking operations ({@link #offer(Object)}, {@link #poll()}) are
+ * lock-free (it's the array based queue by Dmitry Vyukov where every slot has
+ * a sequence number telling whether it's ready to be written or read).
+ * 
+ * <p>
+ * The blocking operations ({@link #put(Object)}, {@link #take()}) fall back to
+ * a lock and conditions only if they have to wait. Producers and consumers
+ * touch the lock only if somebody is actually waiting on the other side. This
+ * gives an explicit backpressure; a producer that fills the queue up is
+ * blocked until a consumer makes room.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ * @param <E>
+ *          The type of the elements.
+ */
+public class BoundedQueue<E> {
+
+  private final int capacity;
+  private final int mask;
+
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  // The slow path for the blocking operations
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private volatile int waitingConsumers = 0;
+  private volatile int waitingProducers = 0;
+
+  /**
+   * Creates the queue.
+   * 
+   * @param capacity
+   *          The capacity; rounded up to the next power of two.
+   */
+  public BoundedQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.capacity = size;
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Inserts the element if there is room for it.
+   * 
+   * @param element
+   *          The element.
+   * @return Whether the element was inserted.
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          sequences.set(index, position + 1);
+          break;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // full
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+
+    if (waitingConsumers > 0) {
+      signal(notEmpty);
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves and removes the head of the queue if there is any.
+   * 
+   * @return The head or <code>null</code> if the queue is empty.
+   */
+  public E poll() {
+    E element;
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          element = elements.get(index);
+          elements.lazySet(index, null);
+          sequences.set(index, position + capacity);
+          break;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        // empty
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+
+    if (waitingProducers > 0) {
+      signal(notFull);
+    }
+    return element;
+  }
+
+  /**
+   * Inserts the element, waiting for room if the queue is full.
+   * 
+   * @param element
+   *          The element.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public void put(E element) throws InterruptedException {
+    if (offer(element)) {
+      return;
+    }
+    lock.lockInterruptibly();
+    try {
+      ++waitingProducers;
+      try {
+        // the consumers see the counter before they check the queue
+        while (!offer(element)) {
+          notFull.await();
+        }
+      } finally {
+        --waitingProducers;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves and removes the head of the queue, waiting for an element if
+   * the queue is empty.
+   * 
+   * @return The head.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public E take() throws InterruptedException {
+    E element = poll();
+    if (element != null) {
+      return element;
+    }
+    lock.lockInterruptibly();
+    try {
+      ++waitingConsumers;
+      try {
+        while ((element = poll()) == null) {
+          notEmpty.await();
+        }
+        return element;
+      } finally {
+        --waitingConsumers;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves and removes the head of the queue, waiting up to the given
+   * timeout for an element if the queue is empty.
+   * 
+   * @param timeout
+   *          How long to wait.
+   * @param unit
+   *          The unit of the timeout.
+   * @return The head or <code>null</code> if the timeout elapsed.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E element = poll();
+    if (element != null) {
+      return element;
+    }
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      ++waitingConsumers;
+      try {
+        while ((element = poll()) == null) {
+          if (nanos <= 0) {
+            return null;
+          }
+          nanos = notEmpty.awaitNanos(nanos);
+        }
+        return element;
+      } finally {
+        --waitingConsumers;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void signal(Condition condition) {
+    lock.lock();
+    try {
+      condition.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The number of elements in the queue.<br/>
+   * The value is just an estimate if the queue is concurrently modified.
+   * 
+   * @return The current depth of the queue.
+   */
+  public int size() {
+    while (true) {
+      long headBefore = head.get();
+      long currentTail = tail.get();
+      if (head.get() == headBefore) {
+        return (int) Math.max(0, Math.min(capacity, currentTail - headBefore));
+      }
+    }
+  }
+
+  /**
+   * Whether the queue is empty.
+   * 
+   * @return true if there is no element in the queue
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * The capacity of the queue.
+   * 
+   * @return The capacity.
+   */
+  public int capacity() {
+    return capacity;
+  }
+}
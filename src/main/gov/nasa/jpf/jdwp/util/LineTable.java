@@ -27,6 +27,7 @@ import gov.nasa.jpf.vm.MethodInfo;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -104,7 +105,7 @@ public class LineTable {
       end = -1;
     } else {
       if (methodInfo.getInstructions() != null) {
-        int lastLineEntry = -1;
+        BitSet lineStarts = lineStarts(methodInfo);
         
         for (Instruction instruction : methodInfo.getInstructions()) {
           
@@ -112,8 +113,7 @@ public class LineTable {
           start = lineCodeIndex < start ? lineCodeIndex : start;
           end = lineCodeIndex > end ? lineCodeIndex : end;
           
-          if (lastLineEntry != instruction.getLineNumber()) {
-            lastLineEntry = instruction.getLineNumber();
+          if (lineStarts.get(instruction.getInstructionIndex())) {
             new LineTableItem(instruction);
           }
         }
@@ -121,6 +121,32 @@ public class LineTable {
     }
   }
 
+  /**
+   * Finds the instructions that start a new line table entry, i.e. the ones
+   * whose line number differs from the line number of the instruction right
+   * before them.
+   * 
+   * @param methodInfo
+   *          The method.
+   * @return The set of the instruction indexes of the line starts (empty for
+   *         native methods).
+   */
+  public static BitSet lineStarts(MethodInfo methodInfo) {
+    BitSet lineStarts = new BitSet();
+
+    if (!methodInfo.isNative() && methodInfo.getInstructions() != null) {
+      int lastLineEntry = -1;
+
+      for (Instruction instruction : methodInfo.getInstructions()) {
+        if (lastLineEntry != instruction.getLineNumber()) {
+          lastLineEntry = instruction.getLineNumber();
+          lineStarts.set(instruction.getInstructionIndex());
+        }
+      }
+    }
+    return lineStarts;
+  }
+
   public void write(DataOutputStream os) throws IOException {
     os.writeLong(start);
     os.writeLong(end);
@@ -22,6 +22,12 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package gov.nasa.jpf.jdwp.util;
 
 import gov.nasa.jpf.jdwp.VirtualMachine;
+import gov.nasa.jpf.jdwp.stats.LockStatistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,34 +38,123 @@ import org.slf4j.LoggerFactory;
  * This lock is not recursive since and thus any recursion will be considered as
  * a programmer's fault.<br/>
  * 
+ * <p>
+ * The lock is built on a {@link ReentrantReadWriteLock} which may be fair (the
+ * longest waiting thread gets the lock first). The acquisition can be limited
+ * by a timeout (see {@link #tryLock(long, TimeUnit)}) and the time the threads
+ * wait for and hold the lock can be recorded (see
+ * {@link #setStatistics(LockStatistics)}).
+ * </p>
+ * <p>
+ * Besides the exclusive mode the lock can be obtained in a shared mode (see
+ * {@link #lockShared()}) by the threads that only read the state guarded by
+ * the lock. Any number of threads can hold the shared lock at once, none of
+ * them while the lock is owned exclusively. The shared holds are not recorded
+ * in the statistics.
+ * </p>
+ * 
  * @author stepan
  * 
  */
 public class SafeLock {
 
   public SafeLock(String name) {
+    this(name, false);
+  }
+
+  /**
+   * Creates the lock.
+   * 
+   * @param name
+   *          The name of the lock.
+   * @param fair
+   *          Whether the lock is granted to the longest waiting thread.
+   */
+  public SafeLock(String name, boolean fair) {
     this.name = name;
+    this.lock = new OwnedLock(fair);
+    this.exclusive = lock.writeLock();
+    this.shared = lock.readLock();
+    this.released = exclusive.newCondition();
   }
 
   private String name;
 
   static final Logger logger = LoggerFactory.getLogger(SafeLock.class);
 
-  private Thread threadOwner = null;
+  /**
+   * How often {@link #yieldToWaitingThreads()} checks whether the waiting
+   * threads are still there.
+   */
+  private static final long HAND_OVER_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static class OwnedLock extends ReentrantReadWriteLock {
+    private static final long serialVersionUID = 1L;
+
+    OwnedLock(boolean fair) {
+      super(fair);
+    }
+
+    Thread owner() {
+      return getOwner();
+    }
+  }
+
+  private final OwnedLock lock;
+  private final Lock exclusive;
+  private final Lock shared;
+
+  /**
+   * Signaled whenever the lock is released while the owner hands it over.
+   */
+  private final Condition released;
+
+  // the following fields are guarded by the lock
+
+  /** The number of times this lock has been obtained. */
+  private long acquisitions = 0;
+  private boolean handingOver = false;
+  private long waitNanos;
+  private long acquiredAt;
+
+  private volatile LockStatistics statistics = null;
 
   /**
    * Obtain the run lock.<br/>
    * 
    */
-  public synchronized void lock() {
-    while (threadOwner != null) {
-      try {
-        this.wait();
-      } catch (InterruptedException e) {
+  public void lock() {
+    checkNotOwned();
+
+    long requestedAt = statistics != null ? System.nanoTime() : 0;
+    exclusive.lock();
+    acquired(requestedAt);
+  }
+
+  /**
+   * Obtains the lock unless it takes longer than the given timeout.
+   * 
+   * @param timeout
+   *          The maximum time to wait for the lock.
+   * @param unit
+   *          The time unit of the timeout.
+   * @return true if the lock was obtained, false if the time elapsed or the
+   *         current thread was interrupted (the interrupt status is kept)
+   */
+  public boolean tryLock(long timeout, TimeUnit unit) {
+    checkNotOwned();
+
+    long requestedAt = statistics != null ? System.nanoTime() : 0;
+    try {
+      if (!exclusive.tryLock(timeout, unit)) {
+        return false;
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
-    threadOwner = Thread.currentThread();
-    logger.trace("[{}] RUN LOCK obtained", name);
+    acquired(requestedAt);
+    return true;
   }
 
   /**
@@ -68,19 +163,152 @@ public class SafeLock {
    * 
    * @see VirtualMachine#lockRunLock()
    */
-  public synchronized void unlock() {
-    if (threadOwner != Thread.currentThread()) {
-      throw new IllegalStateException("Trying to unlock not owned lock. Last owner: " + threadOwner);
+  public void unlock() {
+    if (!lock.isWriteLockedByCurrentThread()) {
+      throw new IllegalStateException("Trying to unlock not owned lock. Last owner: " + lock.owner());
+    }
+    releasing();
+    exclusive.unlock();
+  }
+
+  public void unlockIfOwned() {
+    if (lock.isWriteLockedByCurrentThread()) {
+      releasing();
+      exclusive.unlock();
     }
-    logger.trace("[{}] unlocking RUN LOCK", name);
-    threadOwner = null;
-    this.notify();
   }
 
-  public synchronized void unlockIfOwned() {
-    if (threadOwner == Thread.currentThread()) {
-      threadOwner = null;
-      this.notify();
+  /**
+   * Obtains the lock in the shared mode.<br/>
+   * The shared lock is not recursive either and it cannot be obtained by the
+   * exclusive owner.
+   */
+  public void lockShared() {
+    checkNotOwned();
+    shared.lock();
+  }
+
+  /**
+   * Obtains the lock in the shared mode unless it takes longer than the given
+   * timeout.
+   * 
+   * @param timeout
+   *          The maximum time to wait for the lock.
+   * @param unit
+   *          The time unit of the timeout.
+   * @return true if the lock was obtained, false if the time elapsed or the
+   *         current thread was interrupted (the interrupt status is kept)
+   * @see #tryLock(long, TimeUnit)
+   */
+  public boolean tryLockShared(long timeout, TimeUnit unit) {
+    checkNotOwned();
+    try {
+      return shared.tryLock(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Releases the shared lock.<br/>
+   * If the current thread doesn't hold the shared lock,
+   * {@link IllegalStateException} is thrown.
+   */
+  public void unlockShared() {
+    if (lock.getReadHoldCount() == 0) {
+      throw new IllegalStateException("Trying to unlock not owned shared lock: " + name);
+    }
+    shared.unlock();
+  }
+
+  /**
+   * Whether there is a thread waiting for this lock.<br/>
+   * This doesn't lock anything.
+   * 
+   * @return true or false
+   */
+  public boolean hasWaitingThreads() {
+    return lock.hasQueuedThreads();
+  }
+
+  /**
+   * Lets the threads that are waiting for this lock to obtain it and gets the
+   * lock back once at least one of them has released it.<br/>
+   * Nothing is locked unless there is such a thread which makes it cheap
+   * enough for the owner to call it as often as possible.<br/>
+   * If the lock is not owned by the current thread,
+   * {@link IllegalStateException} is thrown.
+   */
+  public void yieldToWaitingThreads() {
+    if (lock.hasQueuedThreads()) {
+      handOver();
+    }
+  }
+
+  private void handOver() {
+    if (!lock.isWriteLockedByCurrentThread()) {
+      throw new IllegalStateException("Trying to yield not owned lock. Last owner: " + lock.owner());
+    }
+    logger.trace("[{}] handing RUN LOCK over", name);
+
+    releasing();
+    long requestedAt = statistics != null ? System.nanoTime() : 0;
+    long acquired = acquisitions;
+
+    // unlike unlock() and lock() this doesn't let the current thread to take
+    // the lock back before the waiting ones had their turn
+    handingOver = true;
+    try {
+      while (acquisitions == acquired && lock.hasQueuedThreads()) {
+        released.awaitNanos(HAND_OVER_RECHECK_NANOS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      handingOver = false;
+    }
+    acquired(requestedAt);
+  }
+
+  /**
+   * Records the statistics of the lock for every owner thread from now on.
+   * 
+   * @param statistics
+   *          The statistics or null to stop the recording.
+   */
+  public void setStatistics(LockStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public LockStatistics getStatistics() {
+    return statistics;
+  }
+
+  private void checkNotOwned() {
+    if (lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0) {
+      throw new IllegalStateException("Trying to obtain already owned lock: " + name);
+    }
+  }
+
+  private void acquired(long requestedAt) {
+    ++acquisitions;
+    if (requestedAt != 0) {
+      acquiredAt = System.nanoTime();
+      waitNanos = acquiredAt - requestedAt;
+    } else {
+      acquiredAt = 0;
+    }
+  }
+
+  private void releasing() {
+    if (handingOver) {
+      released.signal();
+    }
+
+    LockStatistics statistics = this.statistics;
+    if (statistics != null && acquiredAt != 0) {
+      statistics.record(Thread.currentThread(), waitNanos, System.nanoTime() - acquiredAt);
     }
   }
 
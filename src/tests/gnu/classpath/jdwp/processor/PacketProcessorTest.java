@@ -0,0 +1,280 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gnu.classpath.jdwp.transport.JdwpCommandPacket;
+import gnu.classpath.jdwp.transport.JdwpConnection;
+import gnu.classpath.jdwp.transport.JdwpPacket;
+import gnu.classpath.jdwp.transport.JdwpReplyPacket;
+import gnu.classpath.jdwp.transport.PacketBuffer;
+import gov.nasa.jpf.jdwp.command.Command;
+import gov.nasa.jpf.jdwp.command.CommandSet;
+import gov.nasa.jpf.jdwp.command.VirtualMachineCommand;
+import gov.nasa.jpf.jdwp.exception.JdwpException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the order in which the commands run if every command runs in its own
+ * thread. The commands are stubs keyed by real commands so that
+ * {@link CommandSet#isReadOnly(Command)} decides which of them may run in
+ * parallel.
+ * 
+ * @author stepan
+ * 
+ */
+public class PacketProcessorTest {
+
+  // read-only commands
+  private static final Command READ_1 = VirtualMachineCommand.VERSION;
+  private static final Command READ_2 = VirtualMachineCommand.IDSIZES;
+  private static final Command READ_3 = VirtualMachineCommand.CAPABILITIES;
+
+  // a mutating command
+  private static final Command MUTATE = VirtualMachineCommand.HOLDEVENTS;
+
+  // an urgent command
+  private static final Command SUSPEND = VirtualMachineCommand.SUSPEND;
+
+  /**
+   * Passes the test packets to the processor and collects the replies.
+   */
+  private static class FakeConnection extends JdwpConnection {
+
+    final BlockingQueue<JdwpPacket> commands = new LinkedBlockingQueue<>();
+    final BlockingQueue<JdwpReplyPacket> replies = new LinkedBlockingQueue<>();
+
+    FakeConnection() {
+      super(Thread.currentThread().getThreadGroup(), null, null);
+    }
+
+    @Override
+    public JdwpPacket getPacket() {
+      try {
+        // returns null now and then so that the processor sees the shutdown
+        return commands.poll(10, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void sendBuffer(PacketBuffer buffer) throws IOException {
+      replies.add((JdwpReplyPacket) JdwpPacket.fromBytes(buffer.toByteArray()));
+    }
+  }
+
+  private final FakeConnection connection = new FakeConnection();
+
+  // what the stub commands did, in order
+  private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+  // the commands block here until released by the test
+  private final Map<Command, CountDownLatch> gates = new ConcurrentHashMap<>();
+  private final Map<Command, CountDownLatch> started = new ConcurrentHashMap<>();
+
+  private PacketProcessor processor;
+  private Thread dispatcher;
+
+  @Before
+  public void startProcessor() {
+    for (Command command : new Command[] { READ_1, READ_2, READ_3, MUTATE, SUSPEND }) {
+      gates.put(command, new CountDownLatch(1));
+      started.put(command, new CountDownLatch(1));
+    }
+
+    processor = new PacketProcessor(connection, 1, true) {
+      @Override
+      void executeCommand(Command command, ByteBuffer bb, DataOutputStream os) throws IOException, JdwpException {
+        log.add("start " + command);
+        started.get(command).countDown();
+        try {
+          gates.get(command).await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        log.add("end " + command);
+
+        // echo the command data
+        byte[] data = new byte[bb.remaining()];
+        bb.get(data);
+        os.write(data);
+      }
+    };
+
+    dispatcher = new Thread() {
+      @Override
+      public void run() {
+        processor.dispatchPackets();
+      }
+    };
+    dispatcher.start();
+  }
+
+  @After
+  public void stopProcessor() throws InterruptedException {
+    for (CountDownLatch gate : gates.values()) {
+      gate.countDown();
+    }
+    processor.shutdown();
+    dispatcher.join(5000);
+  }
+
+  private JdwpCommandPacket send(Command command, int data) {
+    JdwpCommandPacket packet = new JdwpCommandPacket(CommandSet.VIRTUALMACHINE, command);
+    packet.setData(ByteBuffer.allocate(4).putInt(data).array());
+    connection.commands.add(packet);
+    return packet;
+  }
+
+  private static void await(CountDownLatch latch) throws InterruptedException {
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+
+  // Gives the processor a chance to run what it must not run
+  private void settle() throws InterruptedException {
+    Thread.sleep(100);
+  }
+
+  private int position(String entry) {
+    int position = log.indexOf(entry);
+    assertTrue(entry + " missing in " + log, position >= 0);
+    return position;
+  }
+
+  @Test(timeout = 20000)
+  public void testMutatingCommandWaitsForReadOnlyOnes() throws Exception {
+    send(READ_1, 1);
+    send(READ_2, 2);
+    send(MUTATE, 3);
+    send(READ_3, 4);
+
+    // the read-only commands run in parallel
+    await(started.get(READ_1));
+    await(started.get(READ_2));
+
+    // the mutating command waits for both of them, the next one waits for it
+    settle();
+    assertFalse(log.contains("start " + MUTATE));
+    assertFalse(log.contains("start " + READ_3));
+
+    gates.get(READ_1).countDown();
+    settle();
+    assertFalse(log.contains("start " + MUTATE));
+
+    gates.get(READ_2).countDown();
+    await(started.get(MUTATE));
+    settle();
+    assertFalse(log.contains("start " + READ_3));
+
+    gates.get(MUTATE).countDown();
+    await(started.get(READ_3));
+    gates.get(READ_3).countDown();
+
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(connection.replies.poll(5, TimeUnit.SECONDS) != null);
+    }
+
+    assertTrue(position("end " + READ_1) < position("start " + MUTATE));
+    assertTrue(position("end " + READ_2) < position("start " + MUTATE));
+    assertTrue(position("end " + MUTATE) < position("start " + READ_3));
+  }
+
+  @Test(timeout = 20000)
+  public void testUrgentCommandPassesReadOnlyOnes() throws Exception {
+    JdwpCommandPacket read = send(READ_1, 1);
+    await(started.get(READ_1));
+
+    JdwpCommandPacket suspend = send(SUSPEND, 2);
+    await(started.get(SUSPEND));
+    gates.get(SUSPEND).countDown();
+
+    // replied while the read-only command still runs
+    assertEquals(suspend.getId(), connection.replies.poll(5, TimeUnit.SECONDS).getId());
+    assertFalse(log.contains("end " + READ_1));
+
+    gates.get(READ_1).countDown();
+    assertEquals(read.getId(), connection.replies.poll(5, TimeUnit.SECONDS).getId());
+  }
+
+  @Test(timeout = 20000)
+  public void testUrgentCommandWaitsForMutatingOne() throws Exception {
+    send(MUTATE, 1);
+    await(started.get(MUTATE));
+
+    send(SUSPEND, 2);
+    settle();
+    assertFalse(log.contains("start " + SUSPEND));
+
+    gates.get(MUTATE).countDown();
+    await(started.get(SUSPEND));
+    gates.get(SUSPEND).countDown();
+
+    for (int i = 0; i < 2; ++i) {
+      assertTrue(connection.replies.poll(5, TimeUnit.SECONDS) != null);
+    }
+    assertTrue(position("end " + MUTATE) < position("start " + SUSPEND));
+  }
+
+  @Test(timeout = 20000)
+  public void testRepliesKeepCommandIds() throws Exception {
+    for (CountDownLatch gate : gates.values()) {
+      gate.countDown();
+    }
+
+    Map<Integer, Integer> sent = new HashMap<>();
+    Command[] commands = { READ_1, READ_2, MUTATE, READ_3, SUSPEND, READ_1, MUTATE, SUSPEND, READ_2 };
+    for (int i = 0; i < commands.length; ++i) {
+      sent.put(send(commands[i], 100 + i).getId(), 100 + i);
+    }
+
+    Map<Integer, Integer> replied = new HashMap<>();
+    for (int i = 0; i < commands.length; ++i) {
+      JdwpReplyPacket reply = connection.replies.poll(5, TimeUnit.SECONDS);
+      assertEquals(0, reply.getErrorCode());
+      replied.put(reply.getId(), reply.getDataBuffer().getInt());
+    }
+    assertEquals(sent, replied);
+  }
+}
@@ -0,0 +1,210 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gnu.classpath.jdwp.transport.EventCoalescer.PacketSink;
+import gov.nasa.jpf.jdwp.command.EventCommand;
+import gov.nasa.jpf.jdwp.event.Event;
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.EventRequest;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.event.filter.Filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EventCoalescerTest {
+
+  private final RecordingSink sink = new RecordingSink();
+  private EventCoalescer coalescer;
+
+  @After
+  public void shutdown() {
+    if (coalescer != null) {
+      coalescer.shutdown();
+    }
+  }
+
+  private static class Sent {
+    final JdwpPacket packet;
+    final boolean suspending;
+
+    Sent(JdwpPacket packet, boolean suspending) {
+      this.packet = packet;
+      this.suspending = suspending;
+    }
+  }
+
+  private static class RecordingSink implements PacketSink {
+
+    final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+
+    @Override
+    public void send(JdwpPacket packet, boolean suspending) throws IOException {
+      sent.add(new Sent(packet, suspending));
+    }
+  }
+
+  /**
+   * A non-suspending event that writes its payload after the request id.
+   */
+  private static class TestEvent implements Event {
+
+    private final int payload;
+    private final EventRequest<Event> request = new EventRequest<Event>(EventKind.USER_DEFINED, SuspendPolicy.NONE,
+                                                                          new ArrayList<Filter<Event>>());
+
+    TestEvent(int payload) {
+      this.payload = payload;
+    }
+
+    @Override
+    public EventKind getEventKind() {
+      return EventKind.USER_DEFINED;
+    }
+
+    @Override
+    public void write(DataOutputStream dos, int requestId) throws IOException {
+      dos.writeByte(getEventKind().identifier());
+      dos.writeInt(requestId);
+      dos.writeInt(payload);
+    }
+
+    @Override
+    public <T extends Event> boolean addIfMatches(EventRequest<T> eventRequest) {
+      return false;
+    }
+
+    @Override
+    public List<EventRequest<? extends Event>> matchingEventRequests() {
+      return Collections.<EventRequest<? extends Event>> singletonList(request);
+    }
+  }
+
+  private static List<Event> events(int... payloads) {
+    List<Event> events = new ArrayList<>();
+    for (int payload : payloads) {
+      events.add(new TestEvent(payload));
+    }
+    return events;
+  }
+
+  // Checks the composite packet and returns the payloads of its events
+  private static List<Integer> payloads(Sent sent) {
+    assertFalse(sent.suspending);
+    assertSame(EventCommand.COMPOSITE, ((JdwpCommandPacket) sent.packet).getCommand());
+
+    ByteBuffer data = ByteBuffer.wrap(sent.packet.getData());
+    assertEquals(SuspendPolicy.NONE.identifier().byteValue(), data.get());
+    int count = data.getInt();
+    List<Integer> payloads = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      assertEquals(EventKind.USER_DEFINED.identifier().byteValue(), data.get());
+      data.getInt();
+      payloads.add(data.getInt());
+    }
+    assertFalse(data.hasRemaining());
+    return payloads;
+  }
+
+  @Test
+  public void testSuspendingPacketFlushesPendingEvents() throws IOException {
+    coalescer = new EventCoalescer(null, sink, 10, 0);
+    coalescer.add(events(1, 2));
+    coalescer.add(events(3));
+    assertTrue(sink.sent.isEmpty());
+
+    JdwpPacket suspending = new JdwpCommandPacket();
+    coalescer.sendInOrder(suspending);
+
+    assertEquals(2, sink.sent.size());
+    assertEquals(Arrays.asList(1, 2, 3), payloads(sink.sent.poll()));
+    Sent last = sink.sent.poll();
+    assertSame(suspending, last.packet);
+    assertTrue(last.suspending);
+  }
+
+  @Test
+  public void testSuspendingPacketAlone() throws IOException {
+    coalescer = new EventCoalescer(null, sink, 10, 0);
+    JdwpPacket suspending = new JdwpCommandPacket();
+    coalescer.sendInOrder(suspending);
+
+    assertEquals(1, sink.sent.size());
+    assertSame(suspending, sink.sent.poll().packet);
+  }
+
+  @Test
+  public void testMaxEventsFlushes() throws IOException {
+    coalescer = new EventCoalescer(null, sink, 3, 0);
+    coalescer.add(events(1, 2));
+    assertTrue(sink.sent.isEmpty());
+    coalescer.add(events(3));
+
+    assertEquals(1, sink.sent.size());
+    assertEquals(Arrays.asList(1, 2, 3), payloads(sink.sent.poll()));
+    assertEquals(3, coalescer.getCoalescedEvents());
+    assertEquals(1, coalescer.getSentPackets());
+  }
+
+  @Test(timeout = 10000)
+  public void testMaxDelayFlushes() throws Exception {
+    coalescer = new EventCoalescer(null, sink, 1000, TimeUnit.MILLISECONDS.toMicros(10));
+    long start = System.nanoTime();
+    coalescer.add(events(1));
+
+    Sent sent = sink.sent.poll(5, TimeUnit.SECONDS);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(Arrays.asList(1), payloads(sent));
+
+    // the timer keeps serving the following events
+    coalescer.add(events(2));
+    assertEquals(Arrays.asList(2), payloads(sink.sent.poll(5, TimeUnit.SECONDS)));
+  }
+
+  @Test
+  public void testShutdownFlushes() throws IOException {
+    coalescer = new EventCoalescer(null, sink, 10, 0);
+    coalescer.add(events(1));
+    coalescer.shutdown();
+
+    assertEquals(Arrays.asList(1), payloads(sink.sent.poll()));
+  }
+}
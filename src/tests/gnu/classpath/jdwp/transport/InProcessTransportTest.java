@@ -0,0 +1,188 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static gnu.classpath.jdwp.transport.NioSocketTransportTest.assertReply;
+import static gnu.classpath.jdwp.transport.NioSocketTransportTest.replyPacket;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InProcessTransportTest {
+
+  private static final byte[] HANDSHAKE = "JDWP-Handshake".getBytes();
+
+  private static int sessions = 0;
+
+  private InProcessTransport transport;
+  private InProcessConnector debugger;
+  private ExecutorService agent;
+
+  @Before
+  public void connect() throws Exception {
+    HashMap<String, String> properties = new HashMap<>();
+    properties.put("server", "y");
+    properties.put("address", "test-session-" + ++sessions);
+    transport = new InProcessTransport();
+    transport.configure(properties);
+
+    // the agent side of the handshake is done by the JDWP connection
+    agent = Executors.newSingleThreadExecutor();
+    Future<Void> listening = agent.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        transport.initialize();
+        byte[] handshake = new byte[HANDSHAKE.length];
+        new DataInputStream(transport.getInputStream()).readFully(handshake);
+        assertArrayEquals(HANDSHAKE, handshake);
+        transport.getOutputStream().write(HANDSHAKE);
+        return null;
+      }
+    });
+
+    debugger = InProcessConnector.attach(properties.get("address"), 5000);
+    listening.get(5, TimeUnit.SECONDS);
+  }
+
+  @After
+  public void disconnect() {
+    debugger.close();
+    transport.shutdown();
+    agent.shutdownNow();
+  }
+
+  @Test(timeout = 10000)
+  public void testDebuggerToAgent() throws Exception {
+    debugger.sendPacket(JdwpPacket.fromBytes(replyPacket(7, (short) 0, new byte[] { 1, 2, 3 })));
+
+    JdwpPacket packet = transport.readPacket();
+    assertReply(packet, 7, (short) 0, new byte[] { 1, 2, 3 });
+    packet.release();
+  }
+
+  @Test(timeout = 10000)
+  public void testAgentToDebugger() throws Exception {
+    transport.getOutputStream().write(replyPacket(8, (short) 41, new byte[] { 4, 5 }));
+
+    JdwpPacket packet = debugger.readPacket();
+    assertReply(packet, 8, (short) 41, new byte[] { 4, 5 });
+    packet.release();
+  }
+
+  @Test(timeout = 10000)
+  public void testPacketSplitAcrossWrites() throws Exception {
+    byte[] bytes = replyPacket(9, (short) 0, new byte[100]);
+    OutputStream out = transport.getOutputStream();
+    out.write(bytes, 0, 3);
+    out.write(bytes, 3, 50);
+    out.write(bytes, 53, bytes.length - 53);
+
+    assertReply(debugger.readPacket(), 9, (short) 0, new byte[100]);
+  }
+
+  @Test(timeout = 10000)
+  public void testSeveralPacketsInOneWrite() throws Exception {
+    byte[] first = replyPacket(10, (short) 0, new byte[] { 1 });
+    byte[] second = replyPacket(11, (short) 0, new byte[] { 2, 2 });
+    byte[] both = new byte[first.length + second.length];
+    System.arraycopy(first, 0, both, 0, first.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+    transport.getOutputStream().write(both);
+
+    assertReply(debugger.readPacket(), 10, (short) 0, new byte[] { 1 });
+    assertReply(debugger.readPacket(), 11, (short) 0, new byte[] { 2, 2 });
+  }
+
+  @Test(timeout = 10000)
+  public void testPacketBiggerThanChunk() throws Exception {
+    byte[] data = new byte[100 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    transport.getOutputStream().write(replyPacket(12, (short) 0, data));
+
+    JdwpPacket packet = debugger.readPacket();
+    assertReply(packet, 12, (short) 0, data);
+    packet.release();
+  }
+
+  @Test(timeout = 10000)
+  public void testMalformedPacket() throws Exception {
+    byte[] bytes = replyPacket(13, (short) 0, new byte[0]);
+    // neither a command nor a reply
+    bytes[8] = 0x40;
+    transport.getOutputStream().write(bytes);
+
+    assertNull(debugger.readPacket());
+  }
+
+  @Test(timeout = 10000)
+  public void testEndOfStreamOnClose() throws Exception {
+    debugger.close();
+    try {
+      transport.readPacket();
+      fail("The debugger is gone");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testShutdownBeforeAttach() throws Exception {
+    HashMap<String, String> properties = new HashMap<>();
+    properties.put("server", "y");
+    properties.put("address", "test-session-" + ++sessions);
+    InProcessTransport unattached = new InProcessTransport();
+    unattached.configure(properties);
+
+    // no pipes to close yet
+    unattached.shutdown();
+    assertNull(InProcessTransport.accept(properties.get("address")));
+  }
+
+  @Test(timeout = 10000)
+  public void testManyPackets() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      transport.getOutputStream().write(replyPacket(i, (short) 0, new byte[] { (byte) i }));
+      JdwpPacket packet = debugger.readPacket();
+      assertEquals(i, packet.getId());
+      packet.release();
+    }
+  }
+}
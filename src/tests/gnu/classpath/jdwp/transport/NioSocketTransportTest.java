@@ -0,0 +1,198 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioSocketTransportTest {
+
+  private NioSocketTransport transport;
+  private SocketChannel debugger;
+  private ExecutorService reader;
+
+  @Before
+  public void connect() throws Exception {
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    debugger = SocketChannel.open(server.socket().getLocalSocketAddress());
+
+    transport = new NioSocketTransport() {
+      @Override
+      protected SocketChannel _openChannel() throws IOException {
+        try {
+          return server.accept();
+        } finally {
+          server.close();
+        }
+      }
+    };
+    transport.initialize();
+    reader = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void disconnect() throws IOException {
+    reader.shutdownNow();
+    transport.shutdown();
+    debugger.close();
+  }
+
+  static byte[] replyPacket(int id, short errorCode, byte[] data) {
+    ByteBuffer packet = ByteBuffer.allocate(ReplyWriter.HEADER_LENGTH + data.length);
+    packet.putInt(packet.capacity()).putInt(id).put((byte) JdwpPacket.JDWP_FLAG_REPLY).putShort(errorCode).put(data);
+    return packet.array();
+  }
+
+  static void assertReply(JdwpPacket packet, int id, short errorCode, byte[] data) {
+    assertTrue(packet instanceof JdwpReplyPacket);
+    assertEquals(id, packet.getId());
+    assertEquals((byte) JdwpPacket.JDWP_FLAG_REPLY, packet.getFlags());
+    assertEquals(errorCode, ((JdwpReplyPacket) packet).getErrorCode());
+    ByteBuffer dataBuffer = packet.getDataBuffer();
+    byte[] actual = new byte[dataBuffer.remaining()];
+    dataBuffer.get(actual);
+    assertArrayEquals(data, actual);
+  }
+
+  private void send(byte[] bytes, int offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+    while (buffer.hasRemaining()) {
+      debugger.write(buffer);
+    }
+  }
+
+  private Future<JdwpPacket> readLater() {
+    return reader.submit(new Callable<JdwpPacket>() {
+      @Override
+      public JdwpPacket call() throws IOException {
+        return transport.readPacket();
+      }
+    });
+  }
+
+  @Test(timeout = 10000)
+  public void testPacketSplitAcrossReads() throws Exception {
+    byte[] data = { 1, 2, 3, 4, 5 };
+    byte[] packet = replyPacket(7, (short) 0, data);
+
+    // not even the length is complete
+    send(packet, 0, 2);
+    Future<JdwpPacket> read = readLater();
+    Thread.sleep(50);
+    assertFalse(read.isDone());
+
+    // the header without the data
+    send(packet, 2, 9);
+    Thread.sleep(50);
+    assertFalse(read.isDone());
+
+    send(packet, 11, packet.length - 11);
+    assertReply(read.get(5, TimeUnit.SECONDS), 7, (short) 0, data);
+  }
+
+  @Test(timeout = 10000)
+  public void testSeveralPacketsInOneRead() throws Exception {
+    byte[] first = replyPacket(1, (short) 0, new byte[] { 10 });
+    byte[] second = replyPacket(2, (short) 41, new byte[0]);
+    byte[] third = replyPacket(3, (short) 0, new byte[] { 30, 31, 32 });
+
+    ByteBuffer all = ByteBuffer.allocate(first.length + second.length + third.length);
+    all.put(first).put(second).put(third);
+    send(all.array(), 0, all.capacity());
+
+    JdwpPacket packet1 = transport.readPacket();
+    JdwpPacket packet2 = transport.readPacket();
+    JdwpPacket packet3 = transport.readPacket();
+    assertReply(packet1, 1, (short) 0, new byte[] { 10 });
+    assertReply(packet2, 2, (short) 41, new byte[0]);
+    assertReply(packet3, 3, (short) 0, new byte[] { 30, 31, 32 });
+    packet1.release();
+    packet2.release();
+    packet3.release();
+  }
+
+  @Test(timeout = 10000)
+  public void testPacketBiggerThanChunk() throws Exception {
+    byte[] data = new byte[200 * 1024];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    byte[] small = replyPacket(1, (short) 0, new byte[] { 1 });
+    byte[] big = replyPacket(2, (short) 0, data);
+
+    Future<JdwpPacket> read = readLater();
+    send(small, 0, small.length);
+    assertReply(read.get(5, TimeUnit.SECONDS), 1, (short) 0, new byte[] { 1 });
+
+    read = readLater();
+    send(big, 0, big.length);
+    assertReply(read.get(5, TimeUnit.SECONDS), 2, (short) 0, data);
+  }
+
+  @Test(timeout = 10000, expected = IOException.class)
+  public void testMalformedLength() throws Exception {
+    send(new byte[] { 0, 0, 0, 3 }, 0, 4);
+    transport.readPacket();
+  }
+
+  @Test(timeout = 10000, expected = EOFException.class)
+  public void testEndOfStream() throws Exception {
+    byte[] packet = replyPacket(1, (short) 0, new byte[0]);
+    send(packet, 0, 5);
+    debugger.close();
+    transport.readPacket();
+  }
+
+  @Test
+  public void testFromBufferRejectsWrongLength() {
+    byte[] packet = replyPacket(1, (short) 0, new byte[] { 1, 2 });
+    ByteBuffer truncated = ByteBuffer.wrap(packet, 0, packet.length - 1);
+    assertNull(JdwpPacket.fromBuffer(truncated, null));
+
+    ByteBuffer malformed = ByteBuffer.wrap(packet.clone());
+    malformed.put(8, (byte) 0x01);
+    assertNull(JdwpPacket.fromBuffer(malformed, null));
+  }
+}
@@ -0,0 +1,128 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gnu.classpath.jdwp.transport;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Measures how many reply packets per second can be written to a loopback
+ * socket.<br/>
+ * The packets are written either directly to a {@link DataOutputStream} around
+ * the socket stream (that is how the packets used to be written) or assembled
+ * in a {@link PacketBuffer} and written to the socket at once.
+ * 
+ * <p>
+ * This is not a test, run it from the command line:
+ * <tt>java gnu.classpath.jdwp.transport.PacketWriteBenchmark [packets] [dataSize]</tt>
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class PacketWriteBenchmark {
+
+  private static final int WARMUP_ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int packets = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int dataSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+    JdwpReplyPacket reply = new JdwpReplyPacket(new JdwpReplyPacket());
+    reply.setData(new byte[dataSize]);
+
+    for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+      run(reply, packets / 10, false, false);
+      run(reply, packets / 10, true, true);
+    }
+
+    report("unbuffered, Nagle", packets, run(reply, packets, false, false));
+    report("unbuffered, TCP_NODELAY", packets, run(reply, packets, false, true));
+    report("framed, TCP_NODELAY", packets, run(reply, packets, true, true));
+  }
+
+  private static void report(String name, int packets, long nanos) {
+    System.out.printf("%-26s %,12.0f packets/sec%n", name, packets / (nanos / 1e9));
+  }
+
+  /**
+   * Writes the given number of packets to a loopback socket.
+   * 
+   * @return The time it took in nanoseconds.
+   */
+  private static long run(JdwpPacket packet, int packets, boolean framed, boolean tcpNoDelay) throws IOException, InterruptedException {
+    ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    try {
+      final Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+      final Socket peer = serverSocket.accept();
+
+      socket.setTcpNoDelay(tcpNoDelay);
+
+      // The debugger side just drains everything
+      Thread drain = new Thread("drain") {
+        public void run() {
+          byte[] sink = new byte[64 * 1024];
+          try {
+            InputStream is = peer.getInputStream();
+            while (is.read(sink) >= 0) {
+            }
+          } catch (IOException e) {
+            // the socket was closed
+          }
+        }
+      };
+      drain.start();
+
+      OutputStream os = socket.getOutputStream();
+      long start = System.nanoTime();
+      if (framed) {
+        PacketBuffer buffer = new PacketBuffer();
+        for (int i = 0; i < packets; ++i) {
+          buffer.reset();
+          packet.write(buffer.getDataOutputStream());
+          buffer.writeTo(os);
+          os.flush();
+        }
+      } else {
+        DataOutputStream dos = new DataOutputStream(os);
+        for (int i = 0; i < packets; ++i) {
+          packet.write(dos);
+          dos.flush();
+        }
+      }
+      long time = System.nanoTime() - start;
+
+      socket.close();
+      drain.join();
+      peer.close();
+      return time;
+    } finally {
+      serverSocket.close();
+    }
+  }
+}
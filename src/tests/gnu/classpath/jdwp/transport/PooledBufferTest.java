@@ -0,0 +1,108 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PooledBufferTest {
+
+  @Test
+  public void testReleaseReturnsBufferToPool() {
+    ByteBufferPool pool = new ByteBufferPool(64, 4);
+    PooledBuffer pooled = new PooledBuffer(pool, 64);
+    ByteBuffer buffer = pooled.buffer();
+    assertTrue(buffer.isDirect());
+
+    pooled.retain();
+    pooled.release();
+    // still referenced
+    assertNotSame(buffer, pool.acquire(64));
+
+    pooled.release();
+    assertSame(buffer, pool.acquire(64));
+  }
+
+  @Test
+  public void testPacketHoldsTheBuffer() {
+    ByteBufferPool pool = new ByteBufferPool(64, 4);
+    PooledBuffer pooled = new PooledBuffer(pool, 64);
+    ByteBuffer buffer = pooled.buffer();
+    buffer.put(NioSocketTransportTest.replyPacket(5, (short) 0, new byte[] { 1, 2, 3 }));
+
+    ByteBuffer frame = buffer.duplicate();
+    frame.flip();
+    JdwpPacket packet = JdwpPacket.fromBuffer(frame, pooled);
+    NioSocketTransportTest.assertReply(packet, 5, (short) 0, new byte[] { 1, 2, 3 });
+
+    // the reader moves on, the packet keeps the buffer
+    pooled.release();
+    assertNotSame(buffer, pool.acquire(64));
+
+    packet.release();
+    assertSame(buffer, pool.acquire(64));
+
+    // releasing the packet again does nothing
+    packet.release();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleasedTooManyTimes() {
+    PooledBuffer pooled = new PooledBuffer(new ByteBufferPool(64, 4), 64);
+    pooled.release();
+    pooled.release();
+  }
+
+  @Test
+  public void testBigBuffersAreNotPooled() {
+    ByteBufferPool pool = new ByteBufferPool(64, 4);
+    PooledBuffer pooled = new PooledBuffer(pool, 128);
+    ByteBuffer buffer = pooled.buffer();
+    assertFalse(buffer.isDirect());
+    assertTrue(buffer.capacity() >= 128);
+
+    pooled.release();
+    assertNotSame(buffer, pool.acquire(64));
+  }
+
+  @Test
+  public void testPoolIsBounded() {
+    ByteBufferPool pool = new ByteBufferPool(64, 1);
+    ByteBuffer first = pool.acquire(64);
+    ByteBuffer second = pool.acquire(64);
+    pool.release(first);
+    pool.release(second);
+
+    assertSame(first, pool.acquire(64));
+    ByteBuffer third = pool.acquire(64);
+    assertNotSame(second, third);
+    assertNotSame(first, third);
+  }
+}
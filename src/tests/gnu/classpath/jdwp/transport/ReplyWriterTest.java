@@ -0,0 +1,130 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static gnu.classpath.jdwp.transport.NioSocketTransportTest.assertReply;
+import static gnu.classpath.jdwp.transport.NioSocketTransportTest.replyPacket;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ReplyWriterTest {
+
+  private static JdwpPacket command(int id) {
+    JdwpPacket command = new JdwpCommandPacket();
+    command.setId(id);
+    return command;
+  }
+
+  private static JdwpPacket parse(PacketBuffer buffer) {
+    return JdwpPacket.fromBytes(buffer.toByteArray());
+  }
+
+  @Test
+  public void testReply() throws IOException {
+    ReplyWriter writer = new ReplyWriter();
+    DataOutputStream os = writer.begin(command(42));
+    os.writeInt(0x01020304);
+    os.writeByte(5);
+
+    PacketBuffer buffer = writer.finish();
+    assertEquals(ReplyWriter.HEADER_LENGTH + 5, buffer.size());
+    assertArrayEquals(replyPacket(42, (short) 0, new byte[] { 1, 2, 3, 4, 5 }), buffer.toByteArray());
+    assertReply(parse(buffer), 42, (short) 0, new byte[] { 1, 2, 3, 4, 5 });
+  }
+
+  @Test
+  public void testEmptyReply() {
+    ReplyWriter writer = new ReplyWriter();
+    writer.begin(command(1));
+
+    assertReply(parse(writer.finish()), 1, (short) 0, new byte[0]);
+  }
+
+  @Test
+  public void testErrorDiscardsData() throws IOException {
+    ReplyWriter writer = new ReplyWriter();
+    DataOutputStream os = writer.begin(command(43));
+    os.writeLong(-1);
+    writer.setError((short) 20);
+
+    PacketBuffer buffer = writer.finish();
+    assertEquals(ReplyWriter.HEADER_LENGTH, buffer.size());
+    assertReply(parse(buffer), 43, (short) 20, new byte[0]);
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+    ReplyWriter writer = new ReplyWriter();
+    DataOutputStream os = writer.begin(command(1));
+    os.write(new byte[100]);
+    writer.setError((short) 10);
+    writer.finish();
+
+    // nothing of the previous reply is left, including the error code
+    os = writer.begin(command(2));
+    os.writeShort(7);
+    assertReply(parse(writer.finish()), 2, (short) 0, new byte[] { 0, 7 });
+  }
+
+  @Test
+  public void testReserveClearsPreviousContent() {
+    PacketBuffer buffer = new PacketBuffer(4);
+    buffer.write(new byte[] { 1, 2, 3, 4 }, 0, 4);
+
+    buffer.reserve(3);
+    assertArrayEquals(new byte[3], buffer.toByteArray());
+
+    // grows when the reserved space doesn't fit
+    buffer.reserve(10);
+    assertArrayEquals(new byte[10], buffer.toByteArray());
+    assertTrue(buffer.capacity() >= 10);
+
+    buffer.write(9);
+    assertEquals(11, buffer.size());
+  }
+
+  @Test
+  public void testPutOverwrites() {
+    PacketBuffer buffer = new PacketBuffer();
+    buffer.reserve(7);
+    buffer.putInt(0, 0x01020304);
+    buffer.putShort(4, (short) 0x0506);
+    buffer.putByte(6, (byte) 7);
+
+    assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7 }, buffer.toByteArray());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testPutOutOfBounds() {
+    PacketBuffer buffer = new PacketBuffer();
+    buffer.reserve(3);
+    buffer.putInt(0, 1);
+  }
+}
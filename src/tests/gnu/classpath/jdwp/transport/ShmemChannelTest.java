@@ -0,0 +1,257 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the shared memory rings in both directions within one JVM.
+ * 
+ * @author stepan
+ * 
+ */
+public class ShmemChannelTest {
+
+  // small enough for the rings to wrap around
+  private static final int CAPACITY = 64;
+
+  private File path;
+  private ShmemChannel agent;
+  private ShmemChannel debugger;
+
+  @Before
+  public void setUp() throws IOException {
+    path = File.createTempFile("jpf-jdwp", ".shmem");
+  }
+
+  @After
+  public void tearDown() {
+    if (debugger != null) {
+      debugger.close();
+    }
+    if (agent != null) {
+      agent.close();
+    }
+    path.delete();
+  }
+
+  private void connect() throws IOException {
+    agent = ShmemChannel.create(path, CAPACITY);
+    debugger = ShmemChannel.attach(path, 1000);
+    agent.awaitAttach();
+  }
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 31 + 7);
+    }
+    return data;
+  }
+
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    byte[] b = new byte[length];
+    int read = 0;
+    while (read < length) {
+      int n = in.read(b, read, length - read);
+      if (n < 0) {
+        fail("Unexpected end of stream after " + read + " bytes");
+      }
+      read += n;
+    }
+    return b;
+  }
+
+  @Test(timeout = 10000)
+  public void testWrapAround() throws Exception {
+    connect();
+    final byte[] expected = data(1000);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // the writer blocks whenever the ring is full
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int off = 0; off < expected.length; off += 37) {
+            debugger.getOutputStream().write(expected, off, Math.min(37, expected.length - off));
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    writer.start();
+    byte[] actual = readFully(agent.getInputStream(), expected.length);
+    writer.join();
+
+    assertEquals(null, failure.get());
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test(timeout = 10000)
+  public void testBothDirections() throws Exception {
+    connect();
+    agent.getOutputStream().write(data(10));
+    debugger.getOutputStream().write(data(20));
+
+    assertArrayEquals(data(10), readFully(debugger.getInputStream(), 10));
+    assertArrayEquals(data(20), readFully(agent.getInputStream(), 20));
+  }
+
+  @Test(timeout = 10000)
+  public void testPartialRead() throws Exception {
+    connect();
+    debugger.getOutputStream().write(data(10));
+
+    // only what is available is returned
+    byte[] b = new byte[CAPACITY];
+    assertEquals(10, agent.getInputStream().read(b, 0, b.length));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(data(10)[i], b[i]);
+    }
+
+    debugger.getOutputStream().write(data(10));
+    assertEquals(4, agent.getInputStream().read(b, 0, 4));
+    assertEquals(6, agent.getInputStream().read(b, 4, 6));
+    assertArrayEquals(data(10), Arrays.copyOf(b, 10));
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseDeliversRemainingData() throws Exception {
+    connect();
+    debugger.getOutputStream().write(data(10));
+    debugger.close();
+
+    InputStream in = agent.getInputStream();
+    assertArrayEquals(data(10), readFully(in, 10));
+    assertEquals(-1, in.read());
+  }
+
+  @Test(timeout = 10000)
+  public void testWriteAfterPeerClosed() throws Exception {
+    connect();
+    debugger.close();
+    try {
+      agent.getOutputStream().write(data(1));
+      fail("The debugger is gone");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testSecondDebuggerNotAttached() throws Exception {
+    connect();
+    try {
+      ShmemChannel second = ShmemChannel.attach(path, 100);
+      second.close();
+      fail("Only one debugger may attach");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testStaleFileNotAttached() throws Exception {
+    // a file in the created state left behind by an agent that died
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    file.setLength(320 + 2 * CAPACITY);
+    ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+    header.putInt(0x4A504653).putInt(1).putInt(CAPACITY).putInt(0).flip();
+    file.getChannel().write(header, 0);
+    file.close();
+
+    try {
+      debugger = ShmemChannel.attach(path, 100);
+      fail("The agent is dead");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testCreateReplacesFile() throws Exception {
+    connect();
+    debugger.close();
+    agent.close();
+
+    // a new session gets a fresh file
+    agent = ShmemChannel.create(path, CAPACITY);
+    debugger = ShmemChannel.attach(path, 1000);
+    agent.awaitAttach();
+    debugger.getOutputStream().write(data(5));
+    assertArrayEquals(data(5), readFully(agent.getInputStream(), 5));
+  }
+
+  @Test(timeout = 10000)
+  public void testShutdownCancelsAttachWait() throws Exception {
+    HashMap<String, String> properties = new HashMap<>();
+    properties.put("server", "y");
+    properties.put("address", path.getPath());
+    final ShmemTransport transport = new ShmemTransport();
+    transport.configure(properties);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread initializer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          transport.initialize();
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    initializer.start();
+
+    // wait until the agent is listening
+    while (!path.exists() || path.length() == 0) {
+      Thread.sleep(10);
+    }
+    transport.shutdown();
+    initializer.join(5000);
+
+    assertFalse(initializer.isAlive());
+    assertTrue(failure.get() instanceof TransportException);
+  }
+}
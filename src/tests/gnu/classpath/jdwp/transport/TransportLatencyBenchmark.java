@@ -0,0 +1,218 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import gov.nasa.jpf.jdwp.command.CommandSet;
+import gov.nasa.jpf.jdwp.command.VirtualMachineCommand;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Measures the command round trip latency of the socket based transports.<br/>
+ * The debugger side sends a command packet and waits for the reply which is
+ * sent back by the agent side as soon as the command is read.
+ * 
+ * <p>
+ * This is not a test, run it from the command line:
+ * <tt>java gnu.classpath.jdwp.transport.TransportLatencyBenchmark [roundTrips] [replySize]</tt>
+ * <br/>
+ * <tt>dt_unix</tt> is measured only if the runtime supports Unix domain socket
+ * channels.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class TransportLatencyBenchmark {
+
+  private static final int WARMUP_ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int replySize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+    String[] transports = UnixSocketTransport.isSupported() ? new String[] { SocketTransport.NAME, NioSocketTransport.NAME,
+        UnixSocketTransport.NAME } : new String[] { SocketTransport.NAME, NioSocketTransport.NAME };
+
+    for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+      for (String transport : transports) {
+        run(transport, roundTrips / 10, replySize);
+      }
+    }
+
+    System.out.printf("%-10s %10s %10s %10s %10s%n", "transport", "mean [us]", "p50 [us]", "p99 [us]", "max [us]");
+    for (String transport : transports) {
+      long[] latencies = run(transport, roundTrips, replySize);
+      report(transport, latencies);
+    }
+  }
+
+  private static void report(String name, long[] latencies) {
+    Arrays.sort(latencies);
+    long sum = 0;
+    for (long latency : latencies) {
+      sum += latency;
+    }
+    System.out.printf("%-10s %10.2f %10.2f %10.2f %10.2f%n", name, sum / 1e3 / latencies.length, latencies[latencies.length / 2] / 1e3,
+        latencies[(int) (latencies.length * 0.99)] / 1e3, latencies[latencies.length - 1] / 1e3);
+  }
+
+  // The configury of both ends of the given transport
+  private static HashMap<String, String> properties(String transport, boolean server) throws IOException {
+    HashMap<String, String> properties = new HashMap<String, String>();
+    properties.put("transport", transport);
+    properties.put("server", server ? "y" : "n");
+    properties.put("address", address(transport));
+    return properties;
+  }
+
+  private static String address(String transport) throws IOException {
+    if (UnixSocketTransport.NAME.equals(transport)) {
+      File socketFile = new File(System.getProperty("java.io.tmpdir"), "jpf-jdwp-benchmark.sock");
+      return socketFile.getAbsolutePath();
+    }
+    ServerSocket freePort = new ServerSocket(0);
+    try {
+      return Integer.toString(freePort.getLocalPort());
+    } finally {
+      freePort.close();
+    }
+  }
+
+  /**
+   * Runs the given number of command round trips over the transport.
+   * 
+   * @return Latencies of all the round trips in nanoseconds.
+   */
+  private static long[] run(String transport, final int roundTrips, final int replySize) throws Exception {
+    HashMap<String, String> serverProperties = properties(transport, true);
+    HashMap<String, String> clientProperties = new HashMap<String, String>(serverProperties);
+    clientProperties.put("server", "n");
+
+    final ITransport agent = TransportFactory.newInstance(serverProperties);
+    final Exception[] agentFailure = new Exception[1];
+
+    // The agent side replies to every command
+    Thread agentThread = new Thread("agent") {
+      public void run() {
+        try {
+          agent.initialize();
+          serve(agent, roundTrips, replySize);
+        } catch (Exception e) {
+          agentFailure[0] = e;
+        }
+      }
+    };
+    agentThread.start();
+
+    ITransport debugger = connect(clientProperties);
+    try {
+      return ping(debugger, roundTrips);
+    } finally {
+      debugger.shutdown();
+      agentThread.join();
+      agent.shutdown();
+      if (agentFailure[0] != null) {
+        throw agentFailure[0];
+      }
+    }
+  }
+
+  // Connects to the agent once it is listening
+  private static ITransport connect(HashMap<String, String> properties) throws Exception {
+    for (int attempt = 0;; ++attempt) {
+      ITransport transport = TransportFactory.newInstance(properties);
+      try {
+        transport.initialize();
+        return transport;
+      } catch (TransportException e) {
+        if (attempt > 100) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private static long[] ping(ITransport debugger, int roundTrips) throws IOException {
+    JdwpCommandPacket command = new JdwpCommandPacket(CommandSet.VIRTUALMACHINE, VirtualMachineCommand.VERSION);
+    PacketBuffer commandBuffer = new PacketBuffer();
+    command.write(commandBuffer.getDataOutputStream());
+
+    OutputStream os = debugger.getOutputStream();
+    DataInputStream is = new DataInputStream(debugger.getInputStream());
+    byte[] reply = new byte[64 * 1024];
+    long[] latencies = new long[roundTrips];
+
+    for (int i = 0; i < roundTrips; ++i) {
+      long start = System.nanoTime();
+      commandBuffer.writeTo(os);
+      os.flush();
+      int length = is.readInt();
+      is.readFully(reply, 0, length - 4);
+      latencies[i] = System.nanoTime() - start;
+    }
+    return latencies;
+  }
+
+  private static void serve(ITransport agent, int roundTrips, int replySize) throws IOException {
+    InputStream is = agent.getInputStream();
+    DataInputStream dis = new DataInputStream(is);
+    OutputStream os = agent.getOutputStream();
+    PacketBuffer replyBuffer = new PacketBuffer();
+    byte[] data = new byte[replySize];
+
+    for (int i = 0; i < roundTrips; ++i) {
+      JdwpPacket command;
+      if (agent instanceof FramedTransport) {
+        command = ((FramedTransport) agent).readPacket();
+      } else {
+        int length = dis.readInt();
+        byte[] bytes = new byte[length];
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+        dis.readFully(bytes, 4, length - 4);
+        command = JdwpPacket.fromBytes(bytes);
+      }
+
+      JdwpReplyPacket reply = new JdwpReplyPacket(command);
+      reply.setData(data);
+      command.release();
+
+      replyBuffer.reset();
+      reply.write(replyBuffer.getDataOutputStream());
+      replyBuffer.writeTo(os);
+      os.flush();
+    }
+  }
+}
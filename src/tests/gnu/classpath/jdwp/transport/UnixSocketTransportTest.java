@@ -0,0 +1,104 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gnu.classpath.jdwp.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnixSocketTransportTest {
+
+  private Path directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("jdwp-unix");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+      for (Path path : paths) {
+        Files.delete(path);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void testMissingFile() throws IOException {
+    UnixSocketTransport._deleteSocketFile(directory.resolve("missing"));
+  }
+
+  @Test
+  public void testRegularFileIsKept() throws IOException {
+    Path file = Files.write(directory.resolve("notes.txt"), new byte[] { 1, 2, 3 });
+    try {
+      UnixSocketTransport._deleteSocketFile(file);
+      fail("Not a socket");
+    } catch (IOException e) {
+      // expected
+    }
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+  }
+
+  @Test
+  public void testDirectoryIsKept() throws IOException {
+    Path subdirectory = Files.createDirectory(directory.resolve("subdirectory"));
+    try {
+      UnixSocketTransport._deleteSocketFile(subdirectory);
+      fail("Not a socket");
+    } catch (IOException e) {
+      // expected
+    }
+    assertTrue(Files.isDirectory(subdirectory));
+  }
+
+  @Test
+  public void testStaleSocketIsDeleted() throws IOException {
+    assumeTrue(UnixSocketTransport.isSupported());
+
+    // a socket file left behind by a listener that is gone
+    Path socket = directory.resolve("jdwp.sock");
+    ServerSocketChannel ssc = (ServerSocketChannel) UnixSocketTransport._open(ServerSocketChannel.class);
+    ssc.bind(UnixSocketTransport._socketAddress(socket.toString()));
+    ssc.close();
+    assertTrue(Files.exists(socket));
+
+    UnixSocketTransport._deleteSocketFile(socket);
+    assertFalse(Files.exists(socket));
+  }
+}
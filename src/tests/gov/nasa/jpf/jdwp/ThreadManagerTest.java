@@ -0,0 +1,98 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.nasa.jpf.jdwp.VirtualMachine.ThreadManager;
+
+import org.junit.Test;
+
+public class ThreadManagerTest {
+
+  private final ThreadManager threadManager = new ThreadManager();
+
+  @Test
+  public void testIncrementDecrement() {
+    assertEquals(0, threadManager.count(1));
+
+    assertEquals(1, threadManager.increment(1));
+    assertEquals(2, threadManager.increment(1));
+    assertEquals(1, threadManager.increment(2));
+    assertEquals(2, threadManager.count(1));
+    assertEquals(2, threadManager.suspendedThreads());
+
+    assertEquals(1, threadManager.decrement(1));
+    assertEquals(2, threadManager.suspendedThreads());
+    assertEquals(0, threadManager.decrement(1));
+    assertEquals(1, threadManager.suspendedThreads());
+    assertEquals(0, threadManager.decrement(2));
+    assertEquals(0, threadManager.suspendedThreads());
+  }
+
+  @Test
+  public void testDecrementNeverBelowZero() {
+    // threads started after a VM suspension have no count yet
+    assertEquals(0, threadManager.decrement(3));
+    assertEquals(0, threadManager.decrement(1000));
+    assertEquals(0, threadManager.count(3));
+    assertEquals(0, threadManager.suspendedThreads());
+  }
+
+  @Test
+  public void testGrow() {
+    threadManager.increment(5);
+    threadManager.increment(100);
+    threadManager.increment(100);
+    threadManager.increment(10000);
+
+    // the counts survive the growth
+    assertEquals(1, threadManager.count(5));
+    assertEquals(2, threadManager.count(100));
+    assertEquals(1, threadManager.count(10000));
+    assertEquals(0, threadManager.count(9999));
+    assertEquals(0, threadManager.count(20000));
+    assertEquals(3, threadManager.suspendedThreads());
+  }
+
+  @Test
+  public void testClear() {
+    threadManager.increment(1);
+    threadManager.increment(1);
+    threadManager.increment(2);
+
+    threadManager.clear(1);
+    assertEquals(0, threadManager.count(1));
+    assertEquals(1, threadManager.suspendedThreads());
+
+    // clearing a thread that isn't suspended changes nothing
+    threadManager.clear(1);
+    threadManager.clear(3);
+    threadManager.clear(1000);
+    assertEquals(1, threadManager.suspendedThreads());
+
+    threadManager.clear(2);
+    assertEquals(0, threadManager.suspendedThreads());
+  }
+}
@@ -0,0 +1,187 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import gnu.classpath.jdwp.Jdwp;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.event.filter.Filter;
+import gov.nasa.jpf.jdwp.event.filter.LocationOnlyFilter;
+import gov.nasa.jpf.jdwp.type.Location;
+import gov.nasa.jpf.vm.ClassInfo;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.ThreadInfo;
+import gov.nasa.jpf.vm.VM;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the JPF instruction throughput with 0, 1 and 100 breakpoints for
+ * both breakpoint engines (the index looked up by the listener and the patched
+ * breakpoint sites).<br/>
+ * The breakpoints are set in a method that is never executed so that only the
+ * cost of the breakpoint checks is measured. The listener does the same
+ * breakpoint check as the {@link gov.nasa.jpf.jdwp.JDWPListener} does, no
+ * debugger is attached.
+ * 
+ * <p>
+ * This is not a test, run it from the command line:
+ * <tt>java gov.nasa.jpf.jdwp.event.BreakpointBenchmark [iterations] [jpf args...]</tt>
+ * <br/>
+ * The JPF arguments default to <tt>+classpath=build/tests</tt>.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class BreakpointBenchmark extends ListenerAdapter {
+
+  private static final int WARMUP_ROUNDS = 2;
+  private static final int[] BREAKPOINTS = { 0, 1, 100 };
+
+  /**
+   * The program executed by JPF.
+   */
+  public static class Workload {
+
+    public static void main(String[] args) {
+      int iterations = Integer.parseInt(args[0]);
+      int a = 1;
+      int b = 2;
+      for (int i = 0; i < iterations; ++i) {
+        a = a * 31 + i;
+        b ^= a >>> 3;
+      }
+      if (a == b) {
+        cold(a, b);
+      }
+    }
+
+    static int cold(int a, int b) {
+      a = a * 31 + b; b ^= a >>> 1;
+      a = a * 31 + b; b ^= a >>> 2;
+      a = a * 31 + b; b ^= a >>> 3;
+      a = a * 31 + b; b ^= a >>> 4;
+      a = a * 31 + b; b ^= a >>> 5;
+      a = a * 31 + b; b ^= a >>> 6;
+      a = a * 31 + b; b ^= a >>> 7;
+      a = a * 31 + b; b ^= a >>> 8;
+      a = a * 31 + b; b ^= a >>> 9;
+      a = a * 31 + b; b ^= a >>> 10;
+      a = a * 31 + b; b ^= a >>> 11;
+      a = a * 31 + b; b ^= a >>> 12;
+      return a + b;
+    }
+  }
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    String[] jpfArgs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] { "+classpath=build/tests" };
+
+    for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+      run(jpfArgs, iterations / 10, 0, false);
+      run(jpfArgs, iterations / 10, 0, true);
+    }
+
+    System.out.printf("%-8s %12s %14s %14s%n", "engine", "breakpoints", "instructions", "insn/s");
+    for (boolean patching : new boolean[] { false, true }) {
+      for (int breakpoints : BREAKPOINTS) {
+        BreakpointBenchmark benchmark = run(jpfArgs, iterations, breakpoints, patching);
+        System.out.printf("%-8s %12d %14d %14.0f%n", patching ? "patch" : "index", breakpoints, benchmark.instructions,
+                          benchmark.instructions * 1e9 / benchmark.elapsedNanos);
+        if (benchmark.hits != 0) {
+          throw new IllegalStateException("The breakpoints are not expected to be hit: " + benchmark.hits);
+        }
+      }
+    }
+  }
+
+  private static BreakpointBenchmark run(String[] jpfArgs, int iterations, int breakpoints, boolean patching) {
+    EventRequestManager eventRequestManager = Jdwp.getEventRequestManager();
+    eventRequestManager.setPatchingBreakpoints(patching);
+
+    Config config = JPF.createConfig(jpfArgs);
+    config.setTarget(Workload.class.getName());
+    config.setTargetArgs(new String[] { Integer.toString(iterations) });
+
+    JPF jpf = new JPF(config);
+    BreakpointBenchmark benchmark = new BreakpointBenchmark(eventRequestManager, breakpoints);
+    jpf.addListener(benchmark);
+
+    long start = System.nanoTime();
+    jpf.run();
+    benchmark.elapsedNanos = System.nanoTime() - start;
+
+    eventRequestManager.clearEventRequests(EventKind.BREAKPOINT);
+    return benchmark;
+  }
+
+  private final EventRequestManager eventRequestManager;
+  private final int breakpoints;
+
+  private long instructions = 0;
+  private long hits = 0;
+  private long elapsedNanos;
+
+  private BreakpointBenchmark(EventRequestManager eventRequestManager, int breakpoints) {
+    this.eventRequestManager = eventRequestManager;
+    this.breakpoints = breakpoints;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void classLoaded(VM vm, ClassInfo loadedClass) {
+    if (!Workload.class.getName().equals(loadedClass.getName())) {
+      return;
+    }
+
+    MethodInfo cold = loadedClass.getMethod("cold(II)I", false);
+    Instruction[] code = cold.getInstructions();
+    if (code.length < breakpoints) {
+      throw new IllegalStateException("Not enough instructions for " + breakpoints + " breakpoints: " + code.length);
+    }
+
+    for (int i = 0; i < breakpoints; ++i) {
+      List<Filter<Event>> filters = new ArrayList<>();
+      Filter<? extends Event> filter = new LocationOnlyFilter(Location.factory(code[i]));
+      filters.add((Filter<Event>) filter);
+      eventRequestManager.requestEvent(new EventRequest<Event>(EventKind.BREAKPOINT, SuspendPolicy.NONE, filters));
+    }
+  }
+
+  @Override
+  public void executeInstruction(VM vm, ThreadInfo currentThread, Instruction instructionToExecute) {
+    ++instructions;
+
+    if (instructionToExecute instanceof BreakpointInstruction || eventRequestManager.isBreakpointSite(instructionToExecute)) {
+      ++hits;
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.nasa.jpf.jvm.bytecode.GOTO;
+import gov.nasa.jpf.jvm.bytecode.InstructionFactory;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+
+public class BreakpointInstructionTest {
+
+  private static MethodInfo method(int length) {
+    MethodInfo methodInfo = new MethodInfo("breakpointSites", "()V", Modifier.PUBLIC | Modifier.STATIC, 0, 0);
+    Instruction[] code = new Instruction[length];
+    for (int i = 0; i < length; ++i) {
+      code[i] = InstructionFactory.getFactory().nop();
+      code[i].setLocation(i, i);
+    }
+    methodInfo.setCode(code);
+    return methodInfo;
+  }
+
+  @Test
+  public void testPatchUnwrapRestore() {
+    MethodInfo methodInfo = method(3);
+    Instruction original = methodInfo.getInstructions()[1];
+
+    BreakpointInstruction breakpoint = BreakpointInstruction.patch(original);
+    assertNotNull(breakpoint);
+    assertSame(breakpoint, methodInfo.getInstructions()[1]);
+    assertSame(methodInfo, breakpoint.getMethodInfo());
+    assertEquals(1, breakpoint.getInstructionIndex());
+
+    assertSame(original, BreakpointInstruction.unwrap(breakpoint));
+    assertSame(original, BreakpointInstruction.unwrap(original));
+
+    breakpoint.restore();
+    assertSame(original, methodInfo.getInstructions()[1]);
+  }
+
+  @Test
+  public void testUnpatchedInstructions() {
+    Instruction detached = InstructionFactory.getFactory().nop();
+    assertSame(detached, BreakpointInstruction.unwrap(detached));
+    assertNull(BreakpointInstruction.unwrap(null));
+
+    // not in the code of any method
+    assertNull(BreakpointInstruction.patch(detached));
+
+    // already patched
+    MethodInfo methodInfo = method(2);
+    Instruction original = methodInfo.getInstructions()[0];
+    assertNotNull(BreakpointInstruction.patch(original));
+    assertNull(BreakpointInstruction.patch(original));
+  }
+
+  @Test
+  public void testLoopHeadIsNotPatched() {
+    // 0: nop, 1: nop (loop head), 2: goto 1
+    MethodInfo methodInfo = new MethodInfo("loop", "()V", Modifier.PUBLIC | Modifier.STATIC, 0, 0);
+    Instruction[] code = { InstructionFactory.getFactory().nop(), InstructionFactory.getFactory().nop(),
+        InstructionFactory.getFactory().goto_(1) };
+    for (int i = 0; i < code.length; ++i) {
+      code[i].setLocation(i, i);
+    }
+    methodInfo.setCode(code);
+    Instruction loopHead = code[1];
+
+    // the loop has run, the jump caches its target
+    GOTO backJump = (GOTO) code[2];
+    assertSame(loopHead, backJump.getTarget());
+
+    assertTrue(BreakpointInstruction.isJumpTarget(methodInfo, loopHead.getPosition()));
+    assertNull(BreakpointInstruction.patch(loopHead));
+    assertSame(loopHead, methodInfo.getInstructions()[1]);
+    assertSame(loopHead, backJump.getTarget());
+
+    // the rest can still be patched
+    assertFalse(BreakpointInstruction.isJumpTarget(methodInfo, code[0].getPosition()));
+    assertNotNull(BreakpointInstruction.patch(code[0]));
+  }
+
+  @Test
+  public void testStaleRestoreKeepsNewPatch() {
+    MethodInfo methodInfo = method(2);
+    Instruction original = methodInfo.getInstructions()[0];
+
+    BreakpointInstruction first = BreakpointInstruction.patch(original);
+    first.restore();
+    BreakpointInstruction second = BreakpointInstruction.patch(original);
+
+    // the first one is disarmed and cannot remove the second one anymore
+    first.restore();
+    assertSame(second, methodInfo.getInstructions()[0]);
+    assertFalse(first.claim(null));
+    assertTrue(second.claim(null));
+  }
+}
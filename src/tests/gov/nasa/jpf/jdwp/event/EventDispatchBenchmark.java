@@ -0,0 +1,145 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import gnu.classpath.jdwp.Jdwp;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.event.filter.ClassMatchFilter;
+import gov.nasa.jpf.jdwp.event.filter.Filter;
+import gov.nasa.jpf.jdwp.type.Location;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+import gov.nasa.jpf.vm.VM;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Measures the garbage produced by the single step event dispatch.<br/>
+ * A single step request that matches nothing is registered and every executed
+ * instruction is dispatched either as a newly created event (the way the
+ * listener used to do it) or through the reusable {@link LocationEventProbes}.
+ * The allocation rate of the JPF thread is reported, the difference between
+ * the two is the garbage of the event dispatch.
+ * 
+ * <p>
+ * This is not a test, run it from the command line:
+ * <tt>java gov.nasa.jpf.jdwp.event.EventDispatchBenchmark [iterations] [jpf args...]</tt>
+ * <br/>
+ * The JPF arguments default to <tt>+classpath=build/tests</tt>. Requires a JVM
+ * that supports the thread allocation measurement.
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class EventDispatchBenchmark extends ListenerAdapter {
+
+  private static final int WARMUP_ROUNDS = 2;
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    String[] jpfArgs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] { "+classpath=build/tests" };
+
+    for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+      run(jpfArgs, iterations / 10, false);
+      run(jpfArgs, iterations / 10, true);
+    }
+
+    System.out.printf("%-8s %14s %14s %14s %14s%n", "dispatch", "instructions", "insn/s", "bytes/insn", "MB/s");
+    for (boolean probes : new boolean[] { false, true }) {
+      EventDispatchBenchmark benchmark = run(jpfArgs, iterations, probes);
+      System.out.printf("%-8s %14d %14.0f %14.1f %14.1f%n", probes ? "probes" : "events", benchmark.instructions,
+                        benchmark.instructions * 1e9 / benchmark.elapsedNanos, (double) benchmark.allocatedBytes / benchmark.instructions,
+                        benchmark.allocatedBytes * 1e3 / benchmark.elapsedNanos);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static EventDispatchBenchmark run(String[] jpfArgs, int iterations, boolean probes) {
+    EventRequestManager eventRequestManager = Jdwp.getEventRequestManager();
+
+    List<Filter<Event>> filters = new ArrayList<>();
+    Filter<? extends Event> filter = new ClassMatchFilter("no.such.Class");
+    filters.add((Filter<Event>) filter);
+    eventRequestManager.requestEvent(new EventRequest<Event>(EventKind.SINGLE_STEP, SuspendPolicy.NONE, filters));
+
+    Config config = JPF.createConfig(jpfArgs);
+    config.setTarget(BreakpointBenchmark.Workload.class.getName());
+    config.setTargetArgs(new String[] { Integer.toString(iterations) });
+
+    JPF jpf = new JPF(config);
+    EventDispatchBenchmark benchmark = new EventDispatchBenchmark(eventRequestManager, probes);
+    jpf.addListener(benchmark);
+
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    long allocated = threadBean.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    jpf.run();
+    benchmark.elapsedNanos = System.nanoTime() - start;
+    benchmark.allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+    eventRequestManager.clearEventRequests(EventKind.SINGLE_STEP);
+    return benchmark;
+  }
+
+  private final boolean probes;
+  private final LocationEventProbes locationEventProbes;
+
+  private long instructions = 0;
+  private long elapsedNanos;
+  private long allocatedBytes;
+
+  private EventDispatchBenchmark(EventRequestManager eventRequestManager, boolean probes) {
+    this.probes = probes;
+    this.locationEventProbes = new LocationEventProbes(eventRequestManager);
+  }
+
+  @Override
+  public void executeInstruction(VM vm, ThreadInfo currentThread, Instruction instructionToExecute) {
+    if (instructionToExecute.getMethodInfo() == null || instructionToExecute.getMethodInfo().getClassInfo() == null) {
+      return;
+    }
+    ++instructions;
+
+    if (probes) {
+      locationEventProbes.begin(currentThread, instructionToExecute);
+      locationEventProbes.probeSingleStep();
+      locationEventProbes.dispatch();
+    } else {
+      List<Event> events = new LinkedList<>();
+      events.add(new SingleStepEvent(currentThread, Location.factory(instructionToExecute)));
+      Jdwp.notify(events);
+    }
+  }
+
+}
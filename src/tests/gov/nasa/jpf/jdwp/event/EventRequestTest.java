@@ -0,0 +1,166 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.nasa.jpf.jdwp.event.EventBase.EventKind;
+import gov.nasa.jpf.jdwp.event.EventRequest.SuspendPolicy;
+import gov.nasa.jpf.jdwp.event.filter.CountFilter;
+import gov.nasa.jpf.jdwp.event.filter.Filter;
+import gov.nasa.jpf.jdwp.event.filter.Filter.FrameMatching;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EventRequestTest {
+
+  private List<String> evaluated = new ArrayList<>();
+
+  private static class FrameFilter extends Filter<Event> {
+
+    private final FrameMatching frameMatching;
+
+    FrameFilter(FrameMatching frameMatching) {
+      super(ModKind.THREAD_ONLY, Event.class);
+      this.frameMatching = frameMatching;
+    }
+
+    @Override
+    public FrameMatching frameMatching(ThreadInfo thread, Instruction instruction) {
+      return frameMatching;
+    }
+  }
+
+  private class RecordingFilter extends Filter<Event> {
+
+    private final String name;
+    private final int cost;
+    private final boolean result;
+
+    RecordingFilter(String name, int cost, boolean result) {
+      super(ModKind.THREAD_ONLY, Event.class);
+      this.name = name;
+      this.cost = cost;
+      this.result = result;
+    }
+
+    @Override
+    public int cost() {
+      return cost;
+    }
+
+    @Override
+    public boolean matches(Event event) {
+      evaluated.add(name);
+      return result;
+    }
+  }
+
+  private EventRequest<Event> request(Filter<?>... filters) {
+    List<Filter<Event>> list = new ArrayList<>();
+    for (Filter<?> filter : filters) {
+      @SuppressWarnings("unchecked")
+      Filter<Event> eventFilter = (Filter<Event>) filter;
+      list.add(eventFilter);
+    }
+    return new EventRequest<Event>(EventKind.SINGLE_STEP, SuspendPolicy.NONE, list);
+  }
+
+  @Test
+  public void testCheapFiltersFirst() {
+    EventRequest<Event> request = request(new RecordingFilter("stack", 4, true), new RecordingFilter("pattern", 3, true),
+                                          new RecordingFilter("thread", 0, true), new RecordingFilter("class", 1, true));
+
+    assertTrue(request.matches(null));
+    assertEquals(Arrays.asList("thread", "class", "pattern", "stack"), evaluated);
+  }
+
+  @Test
+  public void testRejectedByCheapFilter() {
+    EventRequest<Event> request = request(new RecordingFilter("stack", 4, true), new RecordingFilter("thread", 0, false));
+
+    assertFalse(request.matches(null));
+    assertEquals(Arrays.asList("thread"), evaluated);
+  }
+
+  @Test
+  public void testEqualCostKeepsOrder() {
+    EventRequest<Event> request = request(new RecordingFilter("first", 2, true), new RecordingFilter("second", 2, true));
+
+    assertTrue(request.matches(null));
+    assertEquals(Arrays.asList("first", "second"), evaluated);
+  }
+
+  @Test
+  public void testNoReorderingAcrossCount() throws Exception {
+    EventRequest<Event> request = request(new RecordingFilter("before", 4, true), new CountFilter(2), new RecordingFilter("after", 0,
+        true));
+
+    // the first event is consumed by the count filter
+    assertFalse(request.matches(null));
+    assertEquals(Arrays.asList("before"), evaluated);
+
+    evaluated.clear();
+    assertTrue(request.matches(null));
+    assertEquals(Arrays.asList("before", "after"), evaluated);
+  }
+
+  @Test
+  public void testRejectedEventsDoNotCount() throws Exception {
+    RecordingFilter rejecting = new RecordingFilter("before", 4, false);
+    EventRequest<Event> request = request(rejecting, new CountFilter(1));
+
+    assertFalse(request.matches(null));
+    assertFalse(request.matches(null));
+    assertEquals(Arrays.asList("before", "before"), evaluated);
+  }
+
+  @Test
+  public void testFrameMatchingStrongest() {
+    EventRequest<Event> request = request(new FrameFilter(FrameMatching.POSSIBLE), new FrameFilter(FrameMatching.NOT_IN_FRAME),
+                                          new FrameFilter(FrameMatching.NOT_UNTIL_RETURN));
+
+    assertEquals(FrameMatching.NOT_UNTIL_RETURN, request.frameMatching(null, null));
+    assertEquals(FrameMatching.POSSIBLE, request().frameMatching(null, null));
+  }
+
+  @Test
+  public void testFrameMatchingStopsAtCount() throws Exception {
+    EventRequest<Event> before = request(new FrameFilter(FrameMatching.NOT_IN_FRAME), new CountFilter(2));
+    EventRequest<Event> after = request(new CountFilter(2), new FrameFilter(FrameMatching.NOT_IN_FRAME));
+
+    assertEquals(FrameMatching.NOT_IN_FRAME, before.frameMatching(null, null));
+    // skipping the events would change what the count filter sees
+    assertEquals(FrameMatching.POSSIBLE, after.frameMatching(null, null));
+  }
+
+}
@@ -0,0 +1,89 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.event.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ClassPatternMatcherTest {
+
+  private static final String[] CLASS_NAMES = { "java.lang.String", "java.util.Map$Entry", "javax.swing.JFrame", "sun.misc.Unsafe",
+      "Foo", "com.example.Foo", "com.example.FooBar", "", "j" };
+
+  private static final String[] PATTERNS = { "java.*", "javax.*", "sun.*", "*.Foo", "*Foo", "Foo", "com.example.FooBar", "*", "j*",
+      "java.lang.String", "java.*" };
+
+  /**
+   * The compiled patterns must match exactly the same classes as the patterns
+   * that are not compiled.
+   */
+  @Test
+  public void testCompiledMatchesPlain() {
+    List<ClassFilter> plain = filters();
+    List<ClassFilter> compiled = filters();
+    ClassPatternMatcher matcher = ClassPatternMatcher.compile(compiled);
+
+    // one duplicate pattern
+    assertEquals(PATTERNS.length - 1, matcher.getPatternCount());
+
+    for (int i = 0; i < plain.size(); ++i) {
+      for (String className : CLASS_NAMES) {
+        assertEquals(plain.get(i) + " " + className, plain.get(i).matches(className), compiled.get(i).matches(className));
+      }
+    }
+  }
+
+  @Test
+  public void testPrefixAndSuffix() {
+    ClassFilter prefix = new ClassMatchFilter("java.*");
+    ClassFilter suffix = new ClassExcludeFilter("*.Foo");
+    ClassPatternMatcher.compile(Arrays.asList(prefix, suffix));
+
+    assertTrue(prefix.matches("java.lang.Object"));
+    assertTrue(prefix.matches("java."));
+    assertFalse(prefix.matches("javax.swing.JFrame"));
+    assertFalse(prefix.matches("java"));
+
+    assertFalse(suffix.matches("com.example.Foo"));
+    assertTrue(suffix.matches("com.example.FooBar"));
+    assertTrue(suffix.matches("Foo"));
+  }
+
+  private List<ClassFilter> filters() {
+    List<ClassFilter> filters = new ArrayList<ClassFilter>();
+    for (String pattern : PATTERNS) {
+      filters.add(new ClassMatchFilter(pattern));
+      filters.add(new ClassExcludeFilter(pattern));
+    }
+    return filters;
+  }
+
+}
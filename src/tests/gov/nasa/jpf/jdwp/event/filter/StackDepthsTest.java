@@ -0,0 +1,102 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.event.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.nasa.jpf.jvm.JVMStackFrame;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.StackFrame;
+
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+
+public class StackDepthsTest {
+
+  private final MethodInfo methodInfo = new MethodInfo("frame", "()V", Modifier.PUBLIC | Modifier.STATIC, 0, 0);
+
+  private StackFrame push(StackFrame previous) {
+    StackFrame frame = new JVMStackFrame(methodInfo);
+    frame.setPrevious(previous);
+    return frame;
+  }
+
+  @Test
+  public void testDepth() {
+    StackDepths depths = new StackDepths();
+    StackFrame bottom = push(null);
+    StackFrame middle = push(bottom);
+    StackFrame top = push(middle);
+
+    assertEquals(3, depths.depthOf(top));
+    assertEquals(3, depths.knownFrames());
+
+    // the known frames are not walked again
+    assertEquals(2, depths.depthOf(middle));
+    assertEquals(1, depths.depthOf(bottom));
+  }
+
+  @Test
+  public void testSnapshot() {
+    StackDepths depths = new StackDepths();
+    StackFrame bottom = push(null);
+    StackFrame top = push(bottom);
+    depths.remember(bottom, 1);
+    depths.remember(top, 2);
+
+    assertEquals(3, depths.depthOf(push(top)));
+  }
+
+  @Test
+  public void testPoppedFramesForgotten() {
+    StackDepths depths = new StackDepths();
+    StackFrame bottom = push(null);
+    StackFrame middle = push(bottom);
+    assertEquals(4, depths.depthOf(push(push(middle))));
+    assertEquals(4, depths.knownFrames());
+
+    // two frames returned and another one was called
+    StackFrame other = push(middle);
+    assertEquals(3, depths.depthOf(other));
+    assertEquals(3, depths.knownFrames());
+
+    // back at the bottom
+    assertEquals(1, depths.depthOf(bottom));
+    assertEquals(1, depths.knownFrames());
+  }
+
+  @Test
+  public void testReplacedFrame() {
+    StackDepths depths = new StackDepths();
+    StackFrame bottom = push(null);
+    StackFrame top = push(bottom);
+    assertEquals(2, depths.depthOf(top));
+
+    // a copy of the top frame is a new frame at the same depth
+    StackFrame copy = push(bottom);
+    assertEquals(2, depths.depthOf(copy));
+    assertEquals(3, depths.depthOf(push(copy)));
+  }
+}
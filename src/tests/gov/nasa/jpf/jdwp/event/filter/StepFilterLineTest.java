@@ -0,0 +1,122 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.event.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.nasa.jpf.jdwp.util.LineTable;
+import gov.nasa.jpf.jvm.bytecode.InstructionFactory;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.MethodInfo;
+
+import java.lang.reflect.Modifier;
+import java.util.BitSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the rejection of the rest of a line by the LINE step filters over a
+ * synthetic method.
+ * 
+ * @author stepan
+ * 
+ */
+public class StepFilterLineTest {
+
+  /*
+   * index: 0  1  2  3      4  5  6  7
+   * line:  10 10 10 10     11 11 10 10
+   *                 invoke
+   * 
+   * (the loop condition at 6 is on line 10 again, like a for loop header)
+   */
+  private static final int[] LINES = { 10, 10, 10, 10, 11, 11, 10, 10 };
+  private static final int INVOKE = 3;
+
+  private Instruction[] code;
+  private BitSet lineStarts;
+
+  @Before
+  public void createMethod() {
+    MethodInfo methodInfo = new MethodInfo("loop", "()V", Modifier.PUBLIC | Modifier.STATIC, 0, 0);
+    code = new Instruction[LINES.length];
+    for (int i = 0; i < code.length; ++i) {
+      code[i] = i == INVOKE ? InstructionFactory.getFactory().invokestatic("Foo", "bar", "()V") : InstructionFactory.getFactory().nop();
+      code[i].setLocation(i, i);
+    }
+    methodInfo.setCode(code);
+    methodInfo.setLineNumbers(LINES);
+
+    lineStarts = LineTable.lineStarts(methodInfo);
+  }
+
+  @Test
+  public void testLineStarts() {
+    BitSet expected = new BitSet();
+    expected.set(0);
+    expected.set(4);
+    expected.set(6);
+    assertEquals(expected, lineStarts);
+  }
+
+  @Test
+  public void testRestOfLine() {
+    assertTrue(StepFilter.onSameLine(lineStarts, 0, code[1]));
+    assertTrue(StepFilter.onSameLine(lineStarts, 0, code[2]));
+    assertTrue(StepFilter.onSameLine(lineStarts, 4, code[5]));
+    assertTrue(StepFilter.onSameLine(lineStarts, 6, code[7]));
+  }
+
+  @Test
+  public void testBackJumpWithinLine() {
+    assertTrue(StepFilter.onSameLine(lineStarts, 2, code[1]));
+    assertTrue(StepFilter.onSameLine(lineStarts, 7, code[7]));
+  }
+
+  @Test
+  public void testLineStartInBetween() {
+    // forward to the next line
+    assertFalse(StepFilter.onSameLine(lineStarts, 2, code[5]));
+    // back jump to the previous line
+    assertFalse(StepFilter.onSameLine(lineStarts, 5, code[1]));
+    // the same line number in another line table entry
+    assertFalse(StepFilter.onSameLine(lineStarts, 1, code[7]));
+    assertFalse(StepFilter.onSameLine(lineStarts, 7, code[1]));
+  }
+
+  @Test
+  public void testLineStartIsNeverSkipped() {
+    assertFalse(StepFilter.onSameLine(lineStarts, 1, code[0]));
+    assertFalse(StepFilter.onSameLine(lineStarts, 7, code[6]));
+  }
+
+  @Test
+  public void testInvokeOnRejectedLine() {
+    assertFalse(StepFilter.onSameLine(lineStarts, 1, code[INVOKE]));
+    assertFalse(StepFilter.onSameLine(lineStarts, INVOKE, code[INVOKE]));
+  }
+}
@@ -0,0 +1,78 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void testBucketBoundaries() {
+    for (long value = 0; value < 100000; ++value) {
+      int bucket = Histogram.bucket(value);
+      assertTrue(value <= Histogram.highestValue(bucket));
+      if (bucket > 0) {
+        assertTrue(value > Histogram.highestValue(bucket - 1));
+      }
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.bucket(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 10; ++i) {
+      histogram.record(i);
+    }
+    assertEquals(10, histogram.getCount());
+    assertEquals(55, histogram.getSum());
+    assertEquals(5.5, histogram.getMean(), 0);
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(10, histogram.getPercentile(100));
+    assertEquals(10, histogram.getMax());
+  }
+
+  @Test
+  public void testPercentileRelativeError() {
+    Histogram histogram = new Histogram();
+    for (long i = 1; i <= 1000000; ++i) {
+      histogram.record(i * 1000);
+    }
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 990000000L);
+    assertTrue(p99 <= 990000000L * (1 + 1.0 / Histogram.SUB_BUCKETS));
+  }
+
+  @Test
+  public void testReset() {
+    Histogram histogram = new Histogram();
+    histogram.record(42);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0, histogram.getMax());
+  }
+}
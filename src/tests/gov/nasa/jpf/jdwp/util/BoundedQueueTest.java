@@ -0,0 +1,125 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+package gov.nasa.jpf.jdwp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class BoundedQueueTest {
+
+  @Test
+  public void testCapacityIsPowerOfTwo() {
+    assertEquals(1, new BoundedQueue<Integer>(1).capacity());
+    assertEquals(8, new BoundedQueue<Integer>(5).capacity());
+    assertEquals(1024, new BoundedQueue<Integer>(1024).capacity());
+  }
+
+  @Test
+  public void testFifoAndBounds() {
+    BoundedQueue<Integer> queue = new BoundedQueue<Integer>(4);
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertEquals(4, queue.size());
+
+    for (int i = 0; i < 4; ++i) {
+      assertEquals(Integer.valueOf(i), queue.poll());
+    }
+    assertNull(queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testPollTimeout() throws InterruptedException {
+    BoundedQueue<Integer> queue = new BoundedQueue<Integer>(4);
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Producers are blocked by the small queue all the time; every element must
+   * arrive exactly once.
+   */
+  @Test(timeout = 60000)
+  public void testBlockingProducersAndConsumers() throws InterruptedException {
+    final BoundedQueue<Long> queue = new BoundedQueue<Long>(2);
+    final int producers = 3;
+    final int consumers = 2;
+    final int elements = 20000;
+    final AtomicLong sum = new AtomicLong();
+
+    Thread[] threads = new Thread[producers + consumers];
+    for (int p = 0; p < producers; ++p) {
+      threads[p] = new Thread() {
+        public void run() {
+          try {
+            for (long i = 1; i <= elements; ++i) {
+              queue.put(i);
+            }
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+    }
+    for (int c = 0; c < consumers; ++c) {
+      threads[producers + c] = new Thread() {
+        public void run() {
+          try {
+            while (true) {
+              long value = queue.take();
+              if (value < 0) {
+                return;
+              }
+              sum.addAndGet(value);
+            }
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (int p = 0; p < producers; ++p) {
+      threads[p].join();
+    }
+    for (int c = 0; c < consumers; ++c) {
+      queue.put(-1L);
+    }
+    for (int c = 0; c < consumers; ++c) {
+      threads[producers + c].join();
+    }
+
+    assertEquals(producers * (long) elements * (elements + 1) / 2, sum.get());
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -0,0 +1,157 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the run lock shares the VM between the JPF thread and the
+ * command threads, for both the unfair and the fair lock.<br/>
+ * The simulated JPF thread owns the lock and executes "instructions", yielding
+ * the lock to the waiting threads after each of them as the
+ * {@link gov.nasa.jpf.jdwp.VirtualMachine} does. The command threads obtain
+ * the lock, do a short work and release it again.
+ * 
+ * <p>
+ * This is not a test, run it from the command line:
+ * <tt>java gov.nasa.jpf.jdwp.util.RunLockBenchmark [seconds] [command threads]</tt>
+ * </p>
+ * 
+ * @author stepan
+ * 
+ */
+public class RunLockBenchmark {
+
+  private static final int WARMUP_SECONDS = 1;
+
+  /** The work done by one instruction and one command respectively. */
+  private static final int INSTRUCTION_WORK = 50;
+  private static final int COMMAND_WORK = 5000;
+
+  public static void main(String[] args) throws InterruptedException {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int commandThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+    run(false, WARMUP_SECONDS, commandThreads);
+    run(true, WARMUP_SECONDS, commandThreads);
+
+    System.out.printf("%-8s %14s %10s %14s %14s %14s%n", "lock", "insn/s", "commands", "avg wait us", "p99 wait us", "max wait us");
+    for (boolean fair : new boolean[] { false, true }) {
+      RunLockBenchmark benchmark = run(fair, seconds, commandThreads);
+      long[] waits = Arrays.copyOf(benchmark.waits, benchmark.commands);
+      Arrays.sort(waits);
+      long sum = 0;
+      for (long wait : waits) {
+        sum += wait;
+      }
+      System.out.printf("%-8s %14.0f %10d %14.1f %14.1f %14.1f%n", fair ? "fair" : "unfair",
+                        benchmark.instructions * 1e9 / benchmark.elapsedNanos, waits.length,
+                        waits.length == 0 ? 0 : sum / 1e3 / waits.length, percentile(waits, 99) / 1e3,
+                        waits.length == 0 ? 0 : waits[waits.length - 1] / 1e3);
+    }
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+  }
+
+  private static RunLockBenchmark run(boolean fair, int seconds, int commandThreads) throws InterruptedException {
+    final RunLockBenchmark benchmark = new RunLockBenchmark(new SafeLock("benchmark", fair));
+    final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+    Thread[] commanders = new Thread[commandThreads];
+    for (int i = 0; i < commandThreads; ++i) {
+      commanders[i] = new Thread("command-" + i) {
+        @Override
+        public void run() {
+          while (System.nanoTime() < end) {
+            benchmark.command();
+          }
+        }
+      };
+    }
+
+    benchmark.lock.lock();
+    for (Thread commander : commanders) {
+      commander.start();
+    }
+
+    long start = System.nanoTime();
+    while (System.nanoTime() < end) {
+      benchmark.instruction();
+    }
+    benchmark.elapsedNanos = System.nanoTime() - start;
+    benchmark.lock.unlock();
+
+    for (Thread commander : commanders) {
+      commander.join();
+    }
+    return benchmark;
+  }
+
+  private final SafeLock lock;
+
+  private long instructions = 0;
+  private long elapsedNanos;
+  private long[] waits = new long[1024];
+  private int commands = 0;
+  private volatile int sink;
+
+  private RunLockBenchmark(SafeLock lock) {
+    this.lock = lock;
+  }
+
+  private void instruction() {
+    sink = work(INSTRUCTION_WORK);
+    ++instructions;
+    lock.yieldToWaitingThreads();
+  }
+
+  private void command() {
+    long requested = System.nanoTime();
+    lock.lock();
+    try {
+      if (commands == waits.length) {
+        waits = Arrays.copyOf(waits, commands * 2);
+      }
+      waits[commands++] = System.nanoTime() - requested;
+      sink = work(COMMAND_WORK);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int work(int rounds) {
+    int a = sink;
+    for (int i = 0; i < rounds; ++i) {
+      a = a * 31 + i;
+    }
+    return a;
+  }
+
+}
@@ -0,0 +1,295 @@
+/* 
+   Copyright (C) 2013 Stepan Vavra
+
+This file is part of (Java Debug Wire Protocol) JDWP for 
+Java PathFinder (JPF) project.
+
+JDWP for JPF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+JDWP for JPF is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ 
+ */
+
+
+
+package gov.nasa.jpf.jdwp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.nasa.jpf.jdwp.stats.LockStatistics;
+import gov.nasa.jpf.jdwp.stats.LockStatistics.OwnerEntry;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SafeLockTest {
+
+  @Test
+  public void testYieldWithoutWaitingThreads() {
+    SafeLock lock = new SafeLock("test");
+    lock.lock();
+    assertFalse(lock.hasWaitingThreads());
+
+    // must not block
+    lock.yieldToWaitingThreads();
+    lock.unlock();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testYieldNotOwned() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    Thread owner = new Thread() {
+      @Override
+      public void run() {
+        lock.lock();
+      }
+    };
+    owner.start();
+    owner.join();
+
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        lock.lock();
+      }
+    };
+    waiter.setDaemon(true);
+    waiter.start();
+    while (!lock.hasWaitingThreads()) {
+      Thread.sleep(1);
+    }
+
+    lock.yieldToWaitingThreads();
+  }
+
+  /**
+   * The owner calls yield in a loop as the JPF thread does for every
+   * instruction; every waiting thread must get its turn.
+   */
+  @Test(timeout = 60000)
+  public void testWaitingThreadsGetTheLock() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    final int waiters = 4;
+    final int rounds = 500;
+    final AtomicInteger inside = new AtomicInteger();
+    final AtomicInteger served = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(waiters);
+
+    lock.lock();
+
+    for (int w = 0; w < waiters; ++w) {
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < rounds; ++i) {
+            lock.lock();
+            assertEquals(1, inside.incrementAndGet());
+            served.incrementAndGet();
+            inside.decrementAndGet();
+            lock.unlock();
+          }
+          done.countDown();
+        }
+      };
+      waiter.start();
+    }
+
+    while (done.getCount() > 0) {
+      lock.yieldToWaitingThreads();
+      assertEquals(1, inside.incrementAndGet());
+      inside.decrementAndGet();
+    }
+    assertFalse(lock.hasWaitingThreads());
+    lock.unlock();
+
+    assertEquals(waiters * rounds, served.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testYieldHandsTheLockOver() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    final AtomicInteger commands = new AtomicInteger();
+
+    lock.lock();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        lock.lock();
+        commands.incrementAndGet();
+        lock.unlock();
+      }
+    };
+    waiter.start();
+    while (!lock.hasWaitingThreads()) {
+      Thread.sleep(1);
+    }
+
+    lock.yieldToWaitingThreads();
+    // the waiting thread had its turn before the lock was taken back
+    assertEquals(1, commands.get());
+    assertTrue(!lock.hasWaitingThreads());
+    lock.unlock();
+    waiter.join();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRecursionFails() {
+    SafeLock lock = new SafeLock("test");
+    lock.lock();
+    lock.lock();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnlockNotOwned() {
+    new SafeLock("test").unlock();
+  }
+
+  @Test(timeout = 60000)
+  public void testTryLockTimesOut() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test", true);
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread owner = new Thread() {
+      @Override
+      public void run() {
+        lock.lock();
+        locked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // just release the lock
+        }
+        lock.unlock();
+      }
+    };
+    owner.start();
+    locked.await();
+
+    assertFalse(lock.tryLock(10, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    owner.join();
+    assertTrue(lock.tryLock(10, TimeUnit.MILLISECONDS));
+    lock.unlock();
+  }
+
+  @Test(timeout = 60000)
+  public void testSharedHoldersRunTogether() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    final int holders = 4;
+    final CountDownLatch allInside = new CountDownLatch(holders);
+    final CountDownLatch done = new CountDownLatch(holders);
+
+    for (int i = 0; i < holders; ++i) {
+      new Thread() {
+        @Override
+        public void run() {
+          lock.lockShared();
+          allInside.countDown();
+          try {
+            // nobody gets past this unless all of them hold the lock
+            allInside.await();
+          } catch (InterruptedException e) {
+            return;
+          } finally {
+            lock.unlockShared();
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+    lock.lock();
+    lock.unlock();
+  }
+
+  @Test(timeout = 60000)
+  public void testSharedExcludedByOwner() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    final AtomicInteger sharedResults = new AtomicInteger();
+
+    lock.lock();
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        if (lock.tryLockShared(10, TimeUnit.MILLISECONDS)) {
+          sharedResults.incrementAndGet();
+          lock.unlockShared();
+        }
+      }
+    };
+    reader.start();
+    reader.join();
+    assertEquals(0, sharedResults.get());
+
+    lock.unlock();
+    assertTrue(lock.tryLockShared(10, TimeUnit.MILLISECONDS));
+    lock.unlockShared();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnlockSharedNotOwned() {
+    new SafeLock("test").unlockShared();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSharedByOwnerFails() {
+    SafeLock lock = new SafeLock("test");
+    lock.lock();
+    lock.lockShared();
+  }
+
+  @Test(timeout = 60000)
+  public void testStatisticsPerOwner() throws InterruptedException {
+    final SafeLock lock = new SafeLock("test");
+    LockStatistics statistics = new LockStatistics();
+    lock.setStatistics(statistics);
+
+    lock.lock();
+    lock.unlock();
+    Thread other = new Thread("other") {
+      @Override
+      public void run() {
+        lock.lock();
+        lock.unlock();
+        lock.lock();
+        lock.unlock();
+      }
+    };
+    other.start();
+    other.join();
+
+    List<OwnerEntry> entries = statistics.getEntries();
+    assertEquals(2, entries.size());
+    long acquisitions = 0;
+    for (OwnerEntry entry : entries) {
+      acquisitions += entry.getAcquisitions();
+      if ("other".equals(entry.getName())) {
+        assertEquals(2, entry.getAcquisitions());
+      }
+    }
+    assertEquals(3, acquisitions);
+
+    statistics.reset();
+    for (OwnerEntry entry : statistics.getEntries()) {
+      assertEquals(0, entry.getAcquisitions());
+    }
+  }
+
+}